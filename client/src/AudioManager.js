@@ -108,9 +108,8 @@ class AudioManager {
         return new Blob([new Uint8Array(byteArrays)], { type: mimeType });
     }
 
-    async playAudio(base64Audio) {
+    async playAudio(audioBlob) {
         try {
-            const audioBlob = this.base64ToBlob(base64Audio);
             const audioUrl = URL.createObjectURL(audioBlob);
             
             const audio = new Audio(audioUrl);
@@ -3,6 +3,19 @@ const messageSender = require('./MessageSender');
 const messageReceiver = require('./MessageReceiver');
 const audioManager = require('./AudioManager');
 const callManager = require('./CallManager');
+const { compunet } = require('./generated/chat.js');
+
+// Texto para un envío rechazado por el servidor; los límites de envío se explican aparte
+function sendErrorMessage(error, fallback) {
+    if (!(error instanceof compunet.RateLimitExceeded)) {
+        return fallback;
+    }
+    const retryAfterMs = error.retryAfterMs.toNumber();
+    if (retryAfterMs < 0) {
+        return 'Demasiados mensajes a la vez. Envíalos en partes más pequeñas.';
+    }
+    return `Estás enviando mensajes muy rápido. Intenta de nuevo en ${Math.ceil(retryAfterMs / 1000)} s.`;
+}
 
 class ChatUIController {
     constructor() {
@@ -274,7 +287,7 @@ class ChatUIController {
         if (message.isAudio) {
             contentHTML = `
                 <div class="audio-message">
-                    <button class="audio-play-btn" data-audio="${message.audioData}">▶️</button>
+                    <button class="audio-play-btn">▶️</button>
                     <span class="audio-duration">${message.audioDuration}s</span>
                 </div>
             `;
@@ -295,7 +308,7 @@ class ChatUIController {
             playBtn.addEventListener('click', async () => {
                 try {
                     playBtn.textContent = '⏸️';
-                    await audioManager.playAudio(message.audioData);
+                    await audioManager.playAudio(await messageReceiver.loadAudio(message.audioData));
                     playBtn.textContent = '▶️';
                 } catch (error) {
                     console.error('Error al reproducir audio:', error);
@@ -362,7 +375,7 @@ class ChatUIController {
             console.log(' Mensaje enviado al servidor');
         } catch (error) {
             console.error('Error al enviar mensaje:', error);
-            alert('Hubo un error al enviar el mensaje.');
+            alert(sendErrorMessage(error, 'Hubo un error al enviar el mensaje.'));
         }
     }
 
@@ -603,7 +616,7 @@ class ChatUIController {
                 }
             } catch (error) {
                 console.error('Error al enviar audio:', error);
-                alert('Error al enviar la nota de voz');
+                alert(sendErrorMessage(error, 'Error al enviar la nota de voz'));
                 this.hideLoading();
                 audioManager.cleanup();
             }
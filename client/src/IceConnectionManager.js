@@ -1,6 +1,12 @@
 const { compunet } = require('./generated/chat.js');
 const Ice = require('ice').Ice;
-const ClientCallbackI = require("./ClientCallback");
+
+// Mensajes por llamada a sendMessages: el servidor cobra un permiso por mensaje y rechaza
+// los lotes mayores que su ráfaga (Chat.RateLimit.UserBurst, 40 por defecto)
+const MAX_BATCH_MESSAGES = 20;
+
+// Partes de audio: el servidor acepta hasta 512 KB por parte y Ice.MessageSizeMax es 1 MB
+const AUDIO_CHUNK_BYTES = 512 * 1024;
 
 class IceConnectionManager {
     constructor() {
@@ -8,8 +14,7 @@ class IceConnectionManager {
         this.chatServicePrx = null;
         this.groupServicePrx = null;
         this.isConnected = false;
-        this.callbackAdapter = null;
-        this.callbackServant = null;
+        this.pendingMessages = null;
     }
 
     async initialize() {
@@ -84,6 +89,26 @@ class IceConnectionManager {
         }
     }
 
+    async getUsersSince(version) {
+        if (!this.isConnected) throw new Error('No hay conexión con el servidor');
+        try {
+            return await this.chatServicePrx.getUsersSince(new Ice.Long(version));
+        } catch (error) {
+            console.error('Error al obtener cambios de usuarios:', error);
+            throw error;
+        }
+    }
+
+    async searchUsers(prefix, limit) {
+        if (!this.isConnected) throw new Error('No hay conexión con el servidor');
+        try {
+            return await this.chatServicePrx.searchUsers(prefix, limit);
+        } catch (error) {
+            console.error('Error al buscar usuarios:', error);
+            throw error;
+        }
+    }
+
     async sendDirectMessage(fromUserId, toUserId, content) {
         if (!this.isConnected) throw new Error('No hay conexión con el servidor');
         try {
@@ -105,12 +130,6 @@ class IceConnectionManager {
         }
     }
 
-    async loginAndSetup(userId, userName) {
-        await this.registerUser(userId, userName); 
-        await this.registerCallback(userId); 
-        console.log(`✅ Login completo: ${userName}`);
-    }
-
     async createGroup(ownerId, groupName, memberIds) {
         if (!this.isConnected) throw new Error('No hay conexión con el servidor');
         try {
@@ -155,10 +174,30 @@ class IceConnectionManager {
         }
     }
 
-    async sendDirectAudio(fromUserId, toUserId, audioData, duration) {
+    // Sube el audio (Uint8Array) y devuelve su referencia "blob:<hash>"; los grandes van por partes
+    async uploadAudio(userId, bytes) {
         if (!this.isConnected) throw new Error('No hay conexión con el servidor');
         try {
-            await this.chatServicePrx.sendDirectAudio(fromUserId, toUserId, audioData, duration);
+            if (bytes.length <= AUDIO_CHUNK_BYTES) {
+                return await this.chatServicePrx.uploadAudio(userId, bytes);
+            }
+
+            const uploadId = await this.chatServicePrx.beginAudioUpload(userId, new Ice.Long(bytes.length));
+            for (let offset = 0; offset < bytes.length; offset += AUDIO_CHUNK_BYTES) {
+                const chunk = bytes.subarray(offset, Math.min(bytes.length, offset + AUDIO_CHUNK_BYTES));
+                await this.chatServicePrx.appendAudioUpload(uploadId, new Ice.Long(offset), chunk);
+            }
+            return await this.chatServicePrx.commitAudioUpload(uploadId);
+        } catch (error) {
+            console.error('Error al subir audio:', error);
+            throw error;
+        }
+    }
+
+    async sendDirectAudioRef(fromUserId, toUserId, audioRef, duration) {
+        if (!this.isConnected) throw new Error('No hay conexión con el servidor');
+        try {
+            await this.chatServicePrx.sendDirectAudioRef(fromUserId, toUserId, audioRef, duration);
             console.log(`Audio enviado de ${fromUserId} a ${toUserId}`);
         } catch (error) {
             console.error('Error al enviar audio directo:', error);
@@ -166,10 +205,10 @@ class IceConnectionManager {
         }
     }
 
-    async sendGroupAudio(fromUserId, groupId, audioData, duration) {
+    async sendGroupAudioRef(fromUserId, groupId, audioRef, duration) {
         if (!this.isConnected) throw new Error('No hay conexión con el servidor');
         try {
-            await this.groupServicePrx.sendGroupAudio(fromUserId, groupId, audioData, duration);
+            await this.groupServicePrx.sendGroupAudioRef(fromUserId, groupId, audioRef, duration);
             console.log(`Audio enviado al grupo ${groupId}`);
         } catch (error) {
             console.error('Error al enviar audio al grupo:', error);
@@ -177,6 +216,29 @@ class IceConnectionManager {
         }
     }
 
+    // Descarga por partes el audio de una referencia; devuelve un Uint8Array
+    async downloadAudio(audioRef) {
+        if (!this.isConnected) throw new Error('No hay conexión con el servidor');
+        try {
+            const size = (await this.chatServicePrx.getAudioSize(audioRef)).toNumber();
+            const bytes = new Uint8Array(size);
+            let offset = 0;
+            while (offset < size) {
+                const chunk = await this.chatServicePrx.downloadAudioChunk(audioRef, new Ice.Long(offset),
+                    AUDIO_CHUNK_BYTES);
+                if (chunk.length === 0) {
+                    break;
+                }
+                bytes.set(chunk, offset);
+                offset += chunk.length;
+            }
+            return bytes;
+        } catch (error) {
+            console.error('Error al descargar audio:', error);
+            throw error;
+        }
+    }
+
     async getGroupChatMessages(groupId) {
         if (!this.isConnected) throw new Error('No hay conexión con el servidor');
         try {
@@ -207,44 +269,68 @@ class IceConnectionManager {
         }
     }
 
-    async registerCallback(userId) {
+    // Bandeja de entrada completa (chats directos y grupos) en una sola llamada
+    async getInbox(userId) {
+        if (!this.isConnected) throw new Error('No hay conexión con el servidor');
         try {
-            console.log("🔔 Registrando callback para:", userId);
-
-            this.callbackAdapter = await this.communicator.createObjectAdapter("");
-            
-            await this.callbackAdapter.activate();
-            console.log(" Adapter activado");
-
-            this.callbackServant = new ClientCallbackI();
-            console.log(" Servant creado");
-
-            const identity = new Ice.Identity();
-            identity.name = "callback_" + userId;
-            identity.category = "";
-
-            const proxy = this.callbackAdapter.add(this.callbackServant, identity);
-            console.log(" Servant agregado al adapter con identidad:", identity.name);
-            console.log(" Proxy creado:", proxy.toString());
+            const inbox = await this.chatServicePrx.getInbox(userId);
+            return [...inbox.directChats, ...inbox.groupChats];
+        } catch (error) {
+            console.error('Error al obtener la bandeja de entrada:', error);
+            throw error;
+        }
+    }
 
-            await this.chatServicePrx.registerCallback(proxy, userId);
+    // Últimos mensajes de varias conversaciones: [{ chatId, isGroup }]
+    async getConversationHeads(userId, conversations, limit) {
+        if (!this.isConnected) throw new Error('No hay conexión con el servidor');
+        try {
+            const refs = conversations.map(c => new compunet.ConversationRef(c.chatId, c.isGroup));
+            return await this.chatServicePrx.getConversationHeads(userId, refs, limit);
+        } catch (error) {
+            console.error('Error al obtener los últimos mensajes:', error);
+            throw error;
+        }
+    }
 
-            console.log(" Callback registrado con éxito para:", userId);
-            console.log(" El servidor ahora puede enviar notificaciones a este cliente");
+    // Búsqueda paginada: cursor vacío = primera página; devuelve { hits, nextCursor }
+    async searchMessages(userId, query, cursor = '', limit = 20) {
+        if (!this.isConnected) throw new Error('No hay conexión con el servidor');
+        try {
+            return await this.chatServicePrx.searchMessages(userId, query, cursor, limit);
+        } catch (error) {
+            console.error('Error al buscar mensajes:', error);
+            throw error;
+        }
+    }
 
-        } catch (err) {
-            console.error(" Error registrando callback:", err);
-            console.error("Stack trace:", err.stack);
-            throw err;
+    // Los mensajes encolados en el mismo ciclo del event loop salen juntos en un sendMessages
+    queueMessage(fromUserId, chatId, isGroup, content) {
+        if (!this.isConnected) return Promise.reject(new Error('No hay conexión con el servidor'));
+
+        if (!this.pendingMessages || this.pendingMessages.fromUserId !== fromUserId
+                || this.pendingMessages.messages.length >= MAX_BATCH_MESSAGES) {
+            const batch = { fromUserId, messages: [] };
+            batch.sent = Promise.resolve().then(() => {
+                if (this.pendingMessages === batch) {
+                    this.pendingMessages = null;
+                }
+                return this.sendMessages(batch.fromUserId, batch.messages);
+            });
+            this.pendingMessages = batch;
         }
+        this.pendingMessages.messages.push(new compunet.OutgoingMessage(chatId, isGroup, content));
+        return this.pendingMessages.sent;
     }
 
-    async unregisterCallback(userId) {
+    async sendMessages(fromUserId, messages) {
+        if (!this.isConnected) throw new Error('No hay conexión con el servidor');
         try {
-            await this.chatServicePrx.unregisterCallback(userId);
-            console.log("Callback eliminado para:", userId);
-        } catch (err) {
-            console.error("Error eliminando callback:", err);
+            await this.chatServicePrx.sendMessages(fromUserId, messages);
+            console.log(`Lote de ${messages.length} mensajes enviado por ${fromUserId}`);
+        } catch (error) {
+            console.error('Error al enviar lote de mensajes:', error);
+            throw error;
         }
     }
 }
@@ -1,9 +1,14 @@
 const chatState = require('./ChatStateManager');
+const audioManager = require('./AudioManager');
 
 class MessageReceiver {
 
     constructor() {
         this.iceManager = null;
+        this.users = new Map();
+        this.usersVersion = 0;
+        this.usersEpoch = null;
+        this.audioCache = new Map();
     }
 
     setIceManager(iceManagerInstance) {
@@ -54,12 +59,7 @@ class MessageReceiver {
         const userId = chatState.getCurrentUserId();
 
         try {
-            const [directChats, groupChats] = await Promise.all([
-                this.iceManager.getUserDirectChats(userId),
-                this.iceManager.getUserGroupChats(userId)
-            ]);
-
-            const allChats = [...directChats, ...groupChats];
+            const allChats = await this.iceManager.getInbox(userId);
             
             chatState.setChats(allChats);
             console.log(`[MessageReceiver] Chats actualizados: ${allChats.length} total`);
@@ -77,20 +77,23 @@ class MessageReceiver {
         }
 
         try {
-            const usersArray = await this.iceManager.getAllUsers();
-            
-            const users = usersArray.map(u => {
-                if (u.id && u.name) {
-                    return { id: u.id, name: u.name };
-                }
-                return { 
-                    id: u.id || u._id || '', 
-                    name: u.name || u._name || 'Usuario' 
-                };
+            // Solo se piden los usuarios nuevos o cambiados desde la última sincronización
+            let delta = await this.iceManager.getUsersSince(this.usersVersion);
+            if (this.usersEpoch !== null && delta.epoch !== this.usersEpoch) {
+                // El servidor se reinició y sus versiones empezaron de nuevo: se recarga todo
+                this.users.clear();
+                delta = await this.iceManager.getUsersSince(0);
+            }
+
+            delta.users.forEach(u => {
+                this.users.set(u.id, { id: u.id, name: u.name || 'Usuario' });
             });
-            
+            this.usersVersion = this.toNumber(delta.version);
+            this.usersEpoch = delta.epoch;
+
+            const users = Array.from(this.users.values());
             chatState.setAllUsers(users);
-            console.log(`[MessageReceiver] Usuarios cargados: ${users.length}`);
+            console.log(`[MessageReceiver] Usuarios cargados: ${users.length} (${delta.users.length} cambios)`);
             return users;
         } catch (error) {
             console.error('Error al cargar usuarios:', error);
@@ -98,6 +101,51 @@ class MessageReceiver {
         }
     }
 
+    async searchMessages(query, cursor = '') {
+        if (!this.iceManager) {
+            throw new Error('IceManager no está inicializado');
+        }
+
+        const userId = chatState.getCurrentUserId();
+        const page = await this.iceManager.searchMessages(userId, query, cursor);
+        return {
+            hits: page.hits.map(h => ({ chatId: h.chatId, isGroup: h.isGroup, message: h.message })),
+            nextCursor: page.nextCursor
+        };
+    }
+
+    // Los mensajes traen la referencia del audio; se descarga la primera vez que se reproduce
+    async loadAudio(audioData) {
+        if (!audioData.startsWith('blob:')) {
+            // Nota de voz local recién grabada (base64)
+            return audioManager.base64ToBlob(audioData);
+        }
+
+        let blob = this.audioCache.get(audioData);
+        if (!blob) {
+            if (!this.iceManager) {
+                throw new Error('IceManager no está inicializado');
+            }
+            const bytes = await this.iceManager.downloadAudio(audioData);
+            blob = new Blob([bytes], { type: 'audio/webm;codecs=opus' });
+            this.audioCache.set(audioData, blob);
+        }
+        return blob;
+    }
+
+    toNumber(value) {
+        return (typeof value === 'object' && value.toNumber) ? value.toNumber() : Number(value);
+    }
+
+    async searchUsers(prefix, limit = 20) {
+        if (!this.iceManager) {
+            throw new Error('IceManager no está inicializado');
+        }
+
+        const users = await this.iceManager.searchUsers(prefix, limit);
+        return users.map(u => ({ id: u.id, name: u.name }));
+    }
+
     async refreshActiveChat() {
         const activeChat = chatState.getActiveChat();
         
@@ -25,11 +25,7 @@ class MessageSender {
         const userId = chatState.getCurrentUserId();
 
         try {
-            if (activeChat.isGroup) {
-                await this.iceManager.sendGroupMessage(userId, activeChat.id, content.trim());
-            } else {
-                await this.iceManager.sendDirectMessage(userId, activeChat.id, content.trim());
-            }
+            await this.iceManager.queueMessage(userId, activeChat.id, activeChat.isGroup, content.trim());
 
             console.log(`Mensaje enviado exitosamente a ${activeChat.name}`);
             return true;
@@ -47,7 +43,7 @@ class MessageSender {
         const fromUserId = chatState.getCurrentUserId();
 
         try {
-            await this.iceManager.sendDirectMessage(fromUserId, toUserId, content.trim());
+            await this.iceManager.queueMessage(fromUserId, toUserId, false, content.trim());
             console.log(`Mensaje directo enviado a ${toUserId}`);
             return true;
         } catch (error) {
@@ -64,7 +60,7 @@ class MessageSender {
         const fromUserId = chatState.getCurrentUserId();
 
         try {
-            await this.iceManager.sendGroupMessage(fromUserId, groupId, content.trim());
+            await this.iceManager.queueMessage(fromUserId, groupId, true, content.trim());
             console.log(`Mensaje enviado al grupo ${groupId}`);
             return true;
         } catch (error) {
@@ -83,15 +79,16 @@ class MessageSender {
         const userId = chatState.getCurrentUserId();
 
         try {
-            
-            const base64Audio = await audioManager.blobToBase64(audioBlob);
-            
+            // Se sube el audio en binario y el mensaje lleva solo la referencia
+            const bytes = new Uint8Array(await audioBlob.arrayBuffer());
+            const audioRef = await this.iceManager.uploadAudio(userId, bytes);
+
             const duration = await audioManager.getAudioDuration(audioBlob);
 
             if (activeChat.isGroup) {
-                await this.iceManager.sendGroupAudio(userId, activeChat.id, base64Audio, duration);
+                await this.iceManager.sendGroupAudioRef(userId, activeChat.id, audioRef, duration);
             } else {
-                await this.iceManager.sendDirectAudio(userId, activeChat.id, base64Audio, duration);
+                await this.iceManager.sendDirectAudioRef(userId, activeChat.id, audioRef, duration);
             }
 
             console.log(`Nota de voz enviada exitosamente (${duration}s)`);
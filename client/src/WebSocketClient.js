@@ -1,3 +1,11 @@
+// Señalización de llamadas en binario (ver SignalFrame en el servidor):
+// [tipo: u8][largo de from: u16][from][largo de to: u16][to][payload UTF-8]
+const SIGNAL_PROTOCOL = 'binary-v1';
+// Índice = código de tipo en el frame
+const SIGNAL_TYPES = [null, 'call-offer', 'call-answer', 'ice-candidate', 'call-end', 'call-reject'];
+// Campo del mensaje JSON equivalente que lleva el payload
+const SIGNAL_PAYLOAD_FIELDS = [null, 'offer', 'answer', 'candidate', null, null];
+
 class WebSocketClient {
     constructor() {
         this.ws = null;
@@ -7,6 +15,14 @@ class WebSocketClient {
         this.reconnectAttempts = 0;
         this.maxReconnectAttempts = 5;
         this.reconnectDelay = 2000;
+        this.hasRegistered = false;
+        this.lastMessageId = 0;
+        this.url = 'ws://localhost:8080';
+        this.redirecting = false;
+        // Se activa cuando el servidor acepta el protocolo binario al registrarse
+        this.binarySignaling = false;
+        this.encoder = new TextEncoder();
+        this.decoder = new TextDecoder();
     }
 
     connect(userId) {
@@ -14,24 +30,38 @@ class WebSocketClient {
             this.userId = userId;
             
             try {
-                this.ws = new WebSocket('ws://localhost:8080');
+                this.ws = new WebSocket(this.url);
+                this.ws.binaryType = 'arraybuffer';
+                this.binarySignaling = false;
                 
                 this.ws.onopen = () => {
                     console.log(' Conectado al servidor WebSocket');
                     this.isConnected = true;
                     this.reconnectAttempts = 0;
                     
-                    // Registrar usuario
-                    this.send({
+                    // Registrar usuario; al reconectar se pide solo lo posterior al último mensaje recibido
+                    const registration = {
                         type: 'register',
-                        userId: this.userId
-                    });
+                        userId: this.userId,
+                        signaling: SIGNAL_PROTOCOL,
+                        // Acepta varios mensajes en un frame new-messages
+                        batching: true
+                    };
+                    if (this.hasRegistered) {
+                        registration.lastMessageId = this.lastMessageId;
+                    }
+                    this.send(registration);
+                    this.hasRegistered = true;
                     
                     resolve();
                 };
                 
                 this.ws.onmessage = (event) => {
-                    this.handleMessage(event.data);
+                    if (typeof event.data === 'string') {
+                        this.handleMessage(event.data);
+                    } else {
+                        this.handleSignalFrame(event.data);
+                    }
                 };
                 
                 this.ws.onerror = (error) => {
@@ -42,6 +72,14 @@ class WebSocketClient {
                 this.ws.onclose = () => {
                     console.log(' Desconectado del servidor WebSocket');
                     this.isConnected = false;
+                    if (this.redirecting) {
+                        // En clúster el servidor indica el nodo que atiende a este usuario
+                        this.redirecting = false;
+                        this.connect(this.userId).catch(err => {
+                            console.error('Error al conectar con el nodo indicado:', err);
+                        });
+                        return;
+                    }
                     this.attemptReconnect();
                 };
                 
@@ -75,6 +113,33 @@ class WebSocketClient {
             const type = message.type;
             
             console.log(' Mensaje recibido:', type);
+
+            if (type === 'redirect') {
+                console.log(' Reconectando al nodo:', message.url);
+                this.url = message.url;
+                this.redirecting = true;
+                this.ws.close();
+                return;
+            }
+
+            if (type === 'error' && message.code === 'rate-limited') {
+                console.warn(' El servidor descartó un mensaje por límite de tasa; reintentar en', message.retryAfterMs, 'ms');
+                return;
+            }
+
+            if (type === 'registered') {
+                this.binarySignaling = message.signaling === SIGNAL_PROTOCOL;
+            }
+
+            if (type === 'new-message' && message.message) {
+                this.lastMessageId = Math.max(this.lastMessageId, Number(message.message.id) || 0);
+            }
+
+            if (type === 'new-messages' && message.messages) {
+                for (const item of message.messages) {
+                    this.lastMessageId = Math.max(this.lastMessageId, Number(item.id) || 0);
+                }
+            }
      
             const handler = this.messageHandlers.get(type);
             if (handler) {
@@ -88,6 +153,39 @@ class WebSocketClient {
         }
     }
 
+    // Se entrega a los handlers con la misma forma que el mensaje JSON
+    handleSignalFrame(buffer) {
+        try {
+            const bytes = new Uint8Array(buffer);
+            const view = new DataView(buffer);
+            const code = bytes[0];
+            const type = SIGNAL_TYPES[code];
+            if (!type) {
+                console.warn(' Tipo de señalización desconocido:', code);
+                return;
+            }
+
+            let offset = 1;
+            const fromLength = view.getUint16(offset);
+            offset += 2;
+            const from = this.decoder.decode(bytes.subarray(offset, offset + fromLength));
+            offset += fromLength;
+            offset += 2 + view.getUint16(offset);
+
+            const message = { type, from };
+            if (SIGNAL_PAYLOAD_FIELDS[code]) {
+                message[SIGNAL_PAYLOAD_FIELDS[code]] = this.decoder.decode(bytes.subarray(offset));
+            }
+
+            const handler = this.messageHandlers.get(type);
+            if (handler) {
+                handler(message);
+            }
+        } catch (error) {
+            console.error(' Error procesando señalización:', error);
+        }
+    }
+
     on(messageType, handler) {
         this.messageHandlers.set(messageType, handler);
     }
@@ -109,47 +207,59 @@ class WebSocketClient {
         }
     }
 
+    // En binario si el servidor lo aceptó; si no, el mensaje JSON de siempre
+    sendSignal(type, toUserId, payload) {
+        const code = SIGNAL_TYPES.indexOf(type);
+        const from = this.encoder.encode(this.userId);
+        const to = this.encoder.encode(toUserId);
+
+        if (!this.binarySignaling || from.length > 0xFFFF || to.length > 0xFFFF) {
+            const message = { type, from: this.userId, to: toUserId };
+            if (SIGNAL_PAYLOAD_FIELDS[code]) {
+                message[SIGNAL_PAYLOAD_FIELDS[code]] = payload;
+            }
+            this.send(message);
+            return;
+        }
+
+        const body = payload ? this.encoder.encode(payload) : new Uint8Array(0);
+        const frame = new Uint8Array(5 + from.length + to.length + body.length);
+        const view = new DataView(frame.buffer);
+        let offset = 0;
+        frame[offset++] = code;
+        view.setUint16(offset, from.length);
+        frame.set(from, offset + 2);
+        offset += 2 + from.length;
+        view.setUint16(offset, to.length);
+        frame.set(to, offset + 2);
+        offset += 2 + to.length;
+        frame.set(body, offset);
+
+        if (this.ws && this.isConnected) {
+            this.ws.send(frame.buffer);
+        } else {
+            console.error('No hay conexión WebSocket');
+        }
+    }
+
     initiateCall(toUserId, offer) {
-        this.send({
-            type: 'call-offer',
-            from: this.userId,
-            to: toUserId,
-            offer: offer
-        });
+        this.sendSignal('call-offer', toUserId, offer);
     }
 
     answerCall(toUserId, answer) {
-        this.send({
-            type: 'call-answer',
-            from: this.userId,
-            to: toUserId,
-            answer: answer
-        });
+        this.sendSignal('call-answer', toUserId, answer);
     }
 
     sendIceCandidate(toUserId, candidate) {
-        this.send({
-            type: 'ice-candidate',
-            from: this.userId,
-            to: toUserId,
-            candidate: candidate
-        });
+        this.sendSignal('ice-candidate', toUserId, candidate);
     }
 
     endCall(toUserId) {
-        this.send({
-            type: 'call-end',
-            from: this.userId,
-            to: toUserId
-        });
+        this.sendSignal('call-end', toUserId);
     }
 
     rejectCall(toUserId) {
-        this.send({
-            type: 'call-reject',
-            from: this.userId,
-            to: toUserId
-        });
+        this.sendSignal('call-reject', toUserId);
     }
 }
 
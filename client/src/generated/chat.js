@@ -104,6 +104,9 @@
 
     Slice.defineStruct(compunet.Message, true, true);
 
+    compunet.PageDirection = Slice.defineEnum([
+        ['Older', 0], ['Newer', 1]]);
+
     compunet.ChatSummary = class
     {
         constructor(chatId = "", chatName = "", lastMessageContent = "", lastMessageTimestamp = new Ice.Long(0, 0), isGroup = false)
@@ -149,24 +152,263 @@
 
     Slice.defineSequence(compunet, "UserSeqHelper", "compunet.User", false);
 
-    const iceC_compunet_ClientCallback_ids = [
-        "::Ice::Object",
-        "::compunet::ClientCallback"
-    ];
+    Slice.defineSequence(compunet, "ByteSeqHelper", "Ice.ByteHelper", true);
 
-    compunet.ClientCallback = class extends Ice.Object
+    compunet.OutgoingMessage = class
     {
+        constructor(chatId = "", isGroup = false, content = "")
+        {
+            this.chatId = chatId;
+            this.isGroup = isGroup;
+            this.content = content;
+        }
+
+        _write(ostr)
+        {
+            ostr.writeString(this.chatId);
+            ostr.writeBool(this.isGroup);
+            ostr.writeString(this.content);
+        }
+
+        _read(istr)
+        {
+            this.chatId = istr.readString();
+            this.isGroup = istr.readBool();
+            this.content = istr.readString();
+        }
+
+        static get minWireSize()
+        {
+            return  3;
+        }
+    };
+
+    Slice.defineStruct(compunet.OutgoingMessage, true, true);
+
+    Slice.defineSequence(compunet, "OutgoingMessageSeqHelper", "compunet.OutgoingMessage", false);
+
+    compunet.ConversationRef = class
+    {
+        constructor(chatId = "", isGroup = false)
+        {
+            this.chatId = chatId;
+            this.isGroup = isGroup;
+        }
+
+        _write(ostr)
+        {
+            ostr.writeString(this.chatId);
+            ostr.writeBool(this.isGroup);
+        }
+
+        _read(istr)
+        {
+            this.chatId = istr.readString();
+            this.isGroup = istr.readBool();
+        }
+
+        static get minWireSize()
+        {
+            return  2;
+        }
     };
 
-    compunet.ClientCallbackPrx = class extends Ice.ObjectPrx
+    Slice.defineStruct(compunet.ConversationRef, true, true);
+
+    Slice.defineSequence(compunet, "ConversationRefSeqHelper", "compunet.ConversationRef", false);
+
+    compunet.ConversationHead = class
     {
+        constructor(chatId = "", isGroup = false, messages = null)
+        {
+            this.chatId = chatId;
+            this.isGroup = isGroup;
+            this.messages = messages;
+        }
+
+        _write(ostr)
+        {
+            ostr.writeString(this.chatId);
+            ostr.writeBool(this.isGroup);
+            compunet.MessageSeqHelper.write(ostr, this.messages);
+        }
+
+        _read(istr)
+        {
+            this.chatId = istr.readString();
+            this.isGroup = istr.readBool();
+            this.messages = compunet.MessageSeqHelper.read(istr);
+        }
+
+        static get minWireSize()
+        {
+            return  3;
+        }
     };
 
-    Slice.defineOperations(compunet.ClientCallback, compunet.ClientCallbackPrx, iceC_compunet_ClientCallback_ids, 1,
+    Slice.defineStruct(compunet.ConversationHead, false, true);
+
+    Slice.defineSequence(compunet, "ConversationHeadSeqHelper", "compunet.ConversationHead", false);
+
+    compunet.SearchHit = class
     {
-        "onNewMessage": [, , , , , [[compunet.Message]], , , , ],
-        "onNewGroup": [, , , , , [[compunet.ChatSummary]], , , , ]
-    });
+        constructor(chatId = "", isGroup = false, message = new compunet.Message(), position = new Ice.Long(0, 0))
+        {
+            this.chatId = chatId;
+            this.isGroup = isGroup;
+            this.message = message;
+            this.position = position;
+        }
+
+        _write(ostr)
+        {
+            ostr.writeString(this.chatId);
+            ostr.writeBool(this.isGroup);
+            compunet.Message.write(ostr, this.message);
+            ostr.writeLong(this.position);
+        }
+
+        _read(istr)
+        {
+            this.chatId = istr.readString();
+            this.isGroup = istr.readBool();
+            this.message = compunet.Message.read(istr, this.message);
+            this.position = istr.readLong();
+        }
+
+        static get minWireSize()
+        {
+            return  30;
+        }
+    };
+
+    Slice.defineStruct(compunet.SearchHit, true, true);
+
+    Slice.defineSequence(compunet, "SearchHitSeqHelper", "compunet.SearchHit", false);
+
+    compunet.SearchPage = class
+    {
+        constructor(hits = null, nextCursor = "")
+        {
+            this.hits = hits;
+            this.nextCursor = nextCursor;
+        }
+
+        _write(ostr)
+        {
+            compunet.SearchHitSeqHelper.write(ostr, this.hits);
+            ostr.writeString(this.nextCursor);
+        }
+
+        _read(istr)
+        {
+            this.hits = compunet.SearchHitSeqHelper.read(istr);
+            this.nextCursor = istr.readString();
+        }
+
+        static get minWireSize()
+        {
+            return  2;
+        }
+    };
+
+    Slice.defineStruct(compunet.SearchPage, false, true);
+
+    compunet.UserDelta = class
+    {
+        constructor(epoch = "", version = new Ice.Long(0, 0), users = null)
+        {
+            this.epoch = epoch;
+            this.version = version;
+            this.users = users;
+        }
+
+        _write(ostr)
+        {
+            ostr.writeString(this.epoch);
+            ostr.writeLong(this.version);
+            compunet.UserSeqHelper.write(ostr, this.users);
+        }
+
+        _read(istr)
+        {
+            this.epoch = istr.readString();
+            this.version = istr.readLong();
+            this.users = compunet.UserSeqHelper.read(istr);
+        }
+
+        static get minWireSize()
+        {
+            return  10;
+        }
+    };
+
+    Slice.defineStruct(compunet.UserDelta, false, true);
+
+    compunet.Inbox = class
+    {
+        constructor(directChats = null, groupChats = null)
+        {
+            this.directChats = directChats;
+            this.groupChats = groupChats;
+        }
+
+        _write(ostr)
+        {
+            compunet.ChatSummarySeqHelper.write(ostr, this.directChats);
+            compunet.ChatSummarySeqHelper.write(ostr, this.groupChats);
+        }
+
+        _read(istr)
+        {
+            this.directChats = compunet.ChatSummarySeqHelper.read(istr);
+            this.groupChats = compunet.ChatSummarySeqHelper.read(istr);
+        }
+
+        static get minWireSize()
+        {
+            return  2;
+        }
+    };
+
+    Slice.defineStruct(compunet.Inbox, false, true);
+
+    compunet.RateLimitExceeded = class extends Ice.UserException
+    {
+        constructor(key = "", retryAfterMs = new Ice.Long(0, 0), _cause = "")
+        {
+            super(_cause);
+            this.key = key;
+            this.retryAfterMs = retryAfterMs;
+        }
+
+        static get _parent()
+        {
+            return Ice.UserException;
+        }
+
+        static get _id()
+        {
+            return "::compunet::RateLimitExceeded";
+        }
+
+        _mostDerivedType()
+        {
+            return compunet.RateLimitExceeded;
+        }
+
+        _writeMemberImpl(ostr)
+        {
+            ostr.writeString(this.key);
+            ostr.writeLong(this.retryAfterMs);
+        }
+
+        _readMemberImpl(istr)
+        {
+            this.key = istr.readString();
+            this.retryAfterMs = istr.readLong();
+        }
+    };
 
     const iceC_compunet_ChatService_ids = [
         "::Ice::Object",
@@ -186,12 +428,42 @@
         "registerUser": [, , , , , [[7], [7]], , , , ],
         "getUser": [, , , , [compunet.User], [[7]], , , , ],
         "getAllUsers": [, , , , ["compunet.UserSeqHelper"], , , , , ],
-        "sendDirectMessage": [, , , , , [[7], [7], [7]], , , , ],
-        "sendDirectAudio": [, , , , , [[7], [7], [7], [3]], , , , ],
+        "getUsersSince": [, 2, , , [compunet.UserDelta], [[4]], , , , ],
+        "searchUsers": [, 2, , , ["compunet.UserSeqHelper"], [[7], [3]], , , , ],
+        "sendDirectMessage": [, , , , , [[7], [7], [7]], ,
+        [
+            compunet.RateLimitExceeded
+        ], , ],
+        "sendDirectAudio": [, , , , , [[7], [7], [7], [3]], ,
+        [
+            compunet.RateLimitExceeded
+        ], , ],
+        "uploadAudio": [, , , , [7], [[7], ["compunet.ByteSeqHelper"]], ,
+        [
+            compunet.RateLimitExceeded
+        ], , ],
+        "beginAudioUpload": [, , , , [7], [[7], [4]], ,
+        [
+            compunet.RateLimitExceeded
+        ], , ],
+        "appendAudioUpload": [, 2, , , , [[7], [4], ["compunet.ByteSeqHelper"]], , , , ],
+        "commitAudioUpload": [, , , , [7], [[7]], , , , ],
+        "sendDirectAudioRef": [, , , , , [[7], [7], [7], [3]], ,
+        [
+            compunet.RateLimitExceeded
+        ], , ],
+        "getAudioSize": [, , , , [4], [[7]], , , , ],
+        "downloadAudioChunk": [, , , , ["compunet.ByteSeqHelper"], [[7], [4], [3]], , , , ],
         "getDirectChatMessages": [, , , , ["compunet.MessageSeqHelper"], [[7], [7]], , , , ],
+        "getDirectChatMessagesPage": [, , , , ["compunet.MessageSeqHelper"], [[7], [7], [4], [compunet.PageDirection._helper], [3]], , , , ],
         "getUserDirectChats": [, , , , ["compunet.ChatSummarySeqHelper"], [[7]], , , , ],
-        "registerCallback": [, , , , , [["compunet.ClientCallbackPrx"], [7]], , , , ],
-        "unregisterCallback": [, , , , , [[7]], , , , ]
+        "sendMessages": [, , , , , [[7], ["compunet.OutgoingMessageSeqHelper"]], ,
+        [
+            compunet.RateLimitExceeded
+        ], , ],
+        "getConversationHeads": [, 2, , , ["compunet.ConversationHeadSeqHelper"], [[7], ["compunet.ConversationRefSeqHelper"], [3]], , , , ],
+        "getInbox": [, 2, , , [compunet.Inbox], [[7]], , , , ],
+        "searchMessages": [, 2, , , [compunet.SearchPage], [[7], [7], [7], [3]], , , , ]
     });
 
     const iceC_compunet_GroupService_ids = [
@@ -209,14 +481,54 @@
 
     Slice.defineOperations(compunet.GroupService, compunet.GroupServicePrx, iceC_compunet_GroupService_ids, 1,
     {
-        "createGroup": [, , , , [7], [[7], [7], ["compunet.StringSeqHelper"]], , , , ],
-        "addMembersToGroup": [, , , , , [[7], ["compunet.StringSeqHelper"]], , , , ],
+        "createGroup": [, , , , [7], [[7], [7], ["compunet.StringSeqHelper"]], ,
+        [
+            compunet.RateLimitExceeded
+        ], , ],
+        "addMembersToGroup": [, , , , , [[7], ["compunet.StringSeqHelper"]], ,
+        [
+            compunet.RateLimitExceeded
+        ], , ],
         "getGroupMembers": [, , , , ["compunet.StringSeqHelper"], [[7]], , , , ],
-        "sendGroupMessage": [, , , , , [[7], [7], [7]], , , , ],
-        "sendGroupAudio": [, , , , , [[7], [7], [7], [3]], , , , ],
+        "sendGroupMessage": [, , , , , [[7], [7], [7]], ,
+        [
+            compunet.RateLimitExceeded
+        ], , ],
+        "sendGroupAudio": [, , , , , [[7], [7], [7], [3]], ,
+        [
+            compunet.RateLimitExceeded
+        ], , ],
+        "sendGroupAudioRef": [, , , , , [[7], [7], [7], [3]], ,
+        [
+            compunet.RateLimitExceeded
+        ], , ],
         "getGroupChatMessages": [, , , , ["compunet.MessageSeqHelper"], [[7]], , , , ],
+        "getGroupChatMessagesPage": [, , , , ["compunet.MessageSeqHelper"], [[7], [4], [compunet.PageDirection._helper], [3]], , , , ],
         "getUserGroupChats": [, , , , ["compunet.ChatSummarySeqHelper"], [[7]], , , , ]
     });
+
+    const iceC_compunet_ChatNode_ids = [
+        "::Ice::Object",
+        "::compunet::ChatNode"
+    ];
+
+    compunet.ChatNode = class extends Ice.Object
+    {
+    };
+
+    compunet.ChatNodePrx = class extends Ice.ObjectPrx
+    {
+    };
+
+    Slice.defineOperations(compunet.ChatNode, compunet.ChatNodePrx, iceC_compunet_ChatNode_ids, 1,
+    {
+        "deliverMessage": [, , , , , [[compunet.Message], ["compunet.StringSeqHelper"], [7]], , , , ],
+        "deliverNewGroup": [, , , , , [[compunet.ChatSummary], ["compunet.StringSeqHelper"]], , , , ],
+        "deliverSignal": [, , , , , [[7], [7]], , , , ],
+        "deliverSignalBytes": [, , , , , [[7], ["compunet.ByteSeqHelper"]], , , , ],
+        "replicate": [, , , , , [[0], ["compunet.ByteSeqHelper"]], , , , ],
+        "searchLocal": [, 2, , , [compunet.SearchPage], [[7], [7], [4], [3]], , , , ]
+    });
     exports.compunet = compunet;
 }
 (module, require, exports));
\ No newline at end of file
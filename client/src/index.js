@@ -80,10 +80,7 @@ async function initializeApp() {
 }
 
 function setupWebSocketHandlers() {
-    wsClient.on('new-message', (data) => {
-        console.log(' Nuevo mensaje recibido vía WebSocket');
-        const message = data.message;
-        
+    const showIncomingMessage = (message) => {
         const activeChat = chatState.getActiveChat();
         
         let shouldDisplay = false;
@@ -100,6 +97,21 @@ function setupWebSocketHandlers() {
             chatState.addMessage(message);
             uiController.displayNewMessage(message);
         }
+    };
+
+    wsClient.on('new-message', (data) => {
+        console.log(' Nuevo mensaje recibido vía WebSocket');
+        showIncomingMessage(data.message);
+        
+        messageReceiver.refreshChats().then(() => {
+            uiController.renderChatList();
+        });
+    });
+
+    // El servidor agrupa los mensajes que se acumularon mientras la conexión iba atrasada
+    wsClient.on('new-messages', (data) => {
+        console.log(` ${data.messages.length} mensajes recibidos vía WebSocket`);
+        data.messages.forEach(showIncomingMessage);
         
         messageReceiver.refreshChats().then(() => {
             uiController.renderChatList();
@@ -119,6 +131,13 @@ function setupWebSocketHandlers() {
     wsClient.on('registered', (data) => {
         console.log(' Registrado en WebSocket:', data.userId);
     });
+
+    wsClient.on('resync-required', () => {
+        console.log(' Se perdieron notificaciones, recargando chats');
+        messageReceiver.refreshChats().then(() => {
+            uiController.renderChatList();
+        });
+    });
 }
 
 async function loadInitialData() {
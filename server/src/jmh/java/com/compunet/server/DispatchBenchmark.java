@@ -0,0 +1,78 @@
+package com.compunet.server;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// Ráfaga de llamadas concurrentes despachadas como lo hace Ice: pool fijo (Ice.ThreadPool.Server.SizeMax=10)
+// contra un hilo virtual por llamada. blockMicros simula E/S bloqueante dentro del servant (persistencia
+// síncrona, llamada a otro nodo). El modo virtual requiere correr el benchmark con Java 21 o superior.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DispatchBenchmark {
+    private static final int USERS = 1000;
+
+    @Param({ "platform", "virtual" })
+    public String mode;
+
+    @Param({ "0", "1000" })
+    public int blockMicros;
+
+    @Param({ "1000" })
+    public int requests;
+
+    private ChatCore chatCore;
+    private DeliveryPipeline deliveryPipeline;
+    private ExecutorService executor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        chatCore = new ChatCore();
+        WebSocketHandler webSocketHandler = new WebSocketHandler(0, chatCore);
+        deliveryPipeline = new DeliveryPipeline(webSocketHandler, 4, 10000);
+        chatCore.setDeliveryPipeline(deliveryPipeline);
+
+        for (int i = 0; i < USERS; i++) {
+            chatCore.registerUser("user" + i, "Usuario " + i);
+            MockConnections.register(webSocketHandler, "user" + i);
+        }
+
+        executor = mode.equals("virtual")
+                ? VirtualThreads.newExecutor("bench-dispatch")
+                : Executors.newFixedThreadPool(10);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        executor.shutdown();
+        deliveryPipeline.close();
+    }
+
+    @Benchmark
+    public void dispatchBurst() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(requests);
+        for (int i = 0; i < requests; i++) {
+            String from = "user" + (i % USERS);
+            String to = "user" + ((i + 1) % USERS);
+            executor.execute(() -> {
+                try {
+                    chatCore.sendDirectMessage(from, to, "Hola, ¿cómo estás?");
+                    if (blockMicros > 0) {
+                        LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(blockMicros));
+                    }
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+    }
+}
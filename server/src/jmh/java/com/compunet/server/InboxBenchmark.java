@@ -0,0 +1,55 @@
+package com.compunet.server;
+
+import compunet.ChatSummary;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Carga de la bandeja de un usuario con 50 chats propios, variando el total de conversaciones del servidor
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx6g" })
+public class InboxBenchmark {
+
+    private static final int OWN_CHATS = 50;
+
+    @Param({ "1000", "100000", "1000000" })
+    public int conversations;
+
+    private ChatCore chatCore;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        chatCore = new ChatCore();
+
+        // Conversaciones ajenas: user(i) con user(i + 1)
+        chatCore.registerUser("user0", "Usuario 0");
+        for (int i = 0; i < conversations; i++) {
+            chatCore.registerUser("user" + (i + 1), "Usuario " + (i + 1));
+            chatCore.sendDirectMessage("user" + i, "user" + (i + 1), "mensaje " + i);
+        }
+        for (int i = 0; i < conversations / 10; i++) {
+            chatCore.createGroup("user" + i, "grupo " + i, new String[] { "user" + (i + 1) });
+        }
+
+        chatCore.registerUser("me", "Yo");
+        for (int i = 0; i < OWN_CHATS; i++) {
+            chatCore.sendDirectMessage("me", "user" + i, "hola " + i);
+            chatCore.createGroup("me", "mi grupo " + i, new String[] { "user" + i });
+        }
+    }
+
+    @Benchmark
+    public List<ChatSummary> getUserDirectChats() {
+        return chatCore.getUserDirectChats("me");
+    }
+
+    @Benchmark
+    public List<ChatSummary> getUserGroupChats() {
+        return chatCore.getUserGroupChats("me");
+    }
+}
@@ -0,0 +1,54 @@
+package com.compunet.server;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Costo para quien envía: guardar el mensaje y repartir la notificación
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessagingBenchmark {
+
+    @Param({ "2", "100", "1000", "10000" })
+    public int groupSize;
+
+    private ChatCore chatCore;
+    private DeliveryPipeline deliveryPipeline;
+    private String groupId;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        chatCore = new ChatCore();
+        WebSocketHandler webSocketHandler = new WebSocketHandler(0, chatCore);
+        deliveryPipeline = new DeliveryPipeline(webSocketHandler, 4, 10000);
+        chatCore.setDeliveryPipeline(deliveryPipeline);
+
+        String[] members = new String[groupSize];
+        for (int i = 0; i < groupSize; i++) {
+            members[i] = "user" + i;
+            chatCore.registerUser(members[i], "Usuario " + i);
+            MockConnections.register(webSocketHandler, members[i]);
+        }
+
+        groupId = chatCore.createGroup(members[0], "Benchmark", members);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        deliveryPipeline.close();
+    }
+
+    @Benchmark
+    public void sendDirectMessage() {
+        chatCore.sendDirectMessage("user0", "user1", "Hola, ¿cómo estás?");
+    }
+
+    @Benchmark
+    public void sendGroupMessage() {
+        chatCore.sendGroupMessage("user0", groupId, "Hola a todos");
+    }
+}
@@ -0,0 +1,60 @@
+package com.compunet.server;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft_6455;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Conexiones WebSocket simuladas: aceptan frames sin tocar la red
+public final class MockConnections {
+    private static final Draft_6455 DRAFT = new Draft_6455();
+
+    public static final AtomicLong SENT_FRAMES = new AtomicLong(0);
+
+    private MockConnections() {
+    }
+
+    public static WebSocket open() {
+        Object[] attachment = new Object[1];
+        return (WebSocket) Proxy.newProxyInstance(
+                WebSocket.class.getClassLoader(),
+                new Class<?>[] { WebSocket.class },
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "isOpen":
+                            return true;
+                        case "isClosed":
+                        case "isClosing":
+                        case "hasBufferedData":
+                            return false;
+                        case "getDraft":
+                            return DRAFT;
+                        case "setAttachment":
+                            attachment[0] = args[0];
+                            return null;
+                        case "getAttachment":
+                            return attachment[0];
+                        case "send":
+                        case "sendFrame":
+                            SENT_FRAMES.incrementAndGet();
+                            return null;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        case "toString":
+                            return "MockConnection@" + Integer.toHexString(System.identityHashCode(proxy));
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    // Registra al usuario en el handler con el mismo mensaje que envía el cliente web
+    public static WebSocket register(WebSocketHandler handler, String userId) {
+        WebSocket conn = open();
+        handler.onMessage(conn, "{\"type\":\"register\",\"userId\":\"" + userId + "\"}");
+        return conn;
+    }
+}
@@ -0,0 +1,81 @@
+package com.compunet.server;
+
+import compunet.Message;
+import org.java_websocket.WebSocket;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Construcción del JSON de new-message y escritura a conexiones simuladas; reenvío de señalización
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NotificationBenchmark {
+
+    @Param({ "1", "100", "10000" })
+    public int recipients;
+
+    private WebSocketHandler webSocketHandler;
+    private List<String> recipientIds;
+    private Message textMessage;
+    private Message audioMessage;
+    private WebSocket callerConn;
+    private String iceCandidateFrame;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ChatCore chatCore = new ChatCore();
+        webSocketHandler = new WebSocketHandler(0, chatCore);
+
+        recipientIds = new ArrayList<>(recipients);
+        for (int i = 0; i < recipients; i++) {
+            String userId = "user" + i;
+            MockConnections.register(webSocketHandler, userId);
+            recipientIds.add(userId);
+        }
+
+        textMessage = new Message("1", "sender", "Remitente", "Hola, ¿cómo estás?", System.currentTimeMillis(),
+                "group_1", true, false, "", 0);
+
+        // Nota de voz de ~30 s en base64, como la envía el cliente web antiguo
+        byte[] audio = new byte[240 * 1024];
+        audioMessage = new Message("2", "sender", "Remitente", " Nota de voz", System.currentTimeMillis(),
+                "group_1", true, true, Base64.getEncoder().encodeToString(audio), 30);
+
+        callerConn = MockConnections.register(webSocketHandler, "caller");
+        iceCandidateFrame = "{\"type\":\"ice-candidate\",\"from\":\"caller\",\"to\":\"user0\",\"candidate\":"
+                + "\"{\\\"candidate\\\":\\\"candidate:842163049 1 udp 1677729535 192.168.1.10 53421 typ srflx"
+                + " raddr 0.0.0.0 rport 0 generation 0\\\",\\\"sdpMid\\\":\\\"0\\\",\\\"sdpMLineIndex\\\":0}\"}";
+    }
+
+    @Benchmark
+    public String encodeTextMessage() {
+        return webSocketHandler.encodeNewMessage(textMessage);
+    }
+
+    @Benchmark
+    public String encodeAudioMessage() {
+        return webSocketHandler.encodeNewMessage(audioMessage);
+    }
+
+    @Benchmark
+    public void notifyTextMessage() {
+        webSocketHandler.sendToUsers(recipientIds, webSocketHandler.encodeNewMessage(textMessage), textMessage);
+    }
+
+    @Benchmark
+    public void notifyAudioMessage() {
+        webSocketHandler.sendToUsers(recipientIds, webSocketHandler.encodeNewMessage(audioMessage), audioMessage);
+    }
+
+    @Benchmark
+    public void relayIceCandidate() {
+        webSocketHandler.onMessage(callerConn, iceCandidateFrame);
+    }
+}
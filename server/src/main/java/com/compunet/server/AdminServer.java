@@ -0,0 +1,58 @@
+package com.compunet.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+// Endpoint de administración local: GET /metrics en formato de texto de Prometheus
+public class AdminServer implements AutoCloseable {
+    private static final ChatLog log = ChatLog.forClass(AdminServer.class);
+
+    private final HttpServer server;
+
+    public AdminServer(String host, int port, Metrics metrics) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        server.createContext("/metrics", exchange -> {
+            try {
+                if (!"GET".equals(exchange.getRequestMethod())) {
+                    respond(exchange, 405, "text/plain; charset=utf-8", "Método no permitido\n");
+                    return;
+                }
+                respond(exchange, 200, "text/plain; version=0.0.4; charset=utf-8", metrics.scrape());
+            } catch (Exception e) {
+                log.warn("Error exportando métricas: {}", e.getMessage());
+                respond(exchange, 500, "text/plain; charset=utf-8", "Error exportando métricas\n");
+            }
+        });
+        server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "chat-admin");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    public void start() {
+        server.start();
+        log.info("Endpoint de administración en http://{}:{}/metrics", server.getAddress().getHostString(),
+                server.getAddress().getPort());
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType, String body)
+            throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,92 @@
+package com.compunet.server;
+
+import compunet.RateLimitExceeded;
+import com.zeroc.Ice.Properties;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+// Control de admisión de los servants: cada envío consume un permiso del remitente y, si es a un grupo,
+// uno del grupo, que acota la difusión total hacia sus miembros sin importar cuántos usuarios escriban.
+// Se comprueba antes de cualquier trabajo (incluido el reenvío a otro nodo) y sin registrar nada en el log.
+// Un envío que toca varias cubetas las comprueba todas antes de consumir: si una rechaza, ninguna se debita.
+// retryAfterMs = -1 indica un lote mayor que la ráfaga, que solo se admite dividido.
+// Los límites son por nodo: cada nodo lleva sus propias cubetas.
+public final class Admission {
+    private final RateLimiter users;
+    private final RateLimiter groups;
+
+    Admission(RateLimiter users, RateLimiter groups) {
+        this.users = users;
+        this.groups = groups;
+    }
+
+    public static Admission unlimited() {
+        return new Admission(RateLimiter.disabled(), RateLimiter.disabled());
+    }
+
+    // Chat.RateLimit.{User,Group}PerSecond = 0 desactiva ese límite
+    public static Admission fromProperties(Properties properties) {
+        return new Admission(
+                new RateLimiter(properties.getPropertyAsIntWithDefault("Chat.RateLimit.UserPerSecond", 20),
+                        properties.getPropertyAsIntWithDefault("Chat.RateLimit.UserBurst", 40)),
+                new RateLimiter(properties.getPropertyAsIntWithDefault("Chat.RateLimit.GroupPerSecond", 50),
+                        properties.getPropertyAsIntWithDefault("Chat.RateLimit.GroupBurst", 100)));
+    }
+
+    public void checkUser(String userId) throws RateLimitExceeded {
+        reject("user:" + userId, users.tryAcquire(userId, 1));
+    }
+
+    public void checkGroup(String groupId) throws RateLimitExceeded {
+        reject("group:" + groupId, groups.tryAcquire(groupId, 1));
+    }
+
+    // Un mensaje de userId al grupo: un permiso de cada uno
+    public void checkGroupSend(String userId, String groupId) throws RateLimitExceeded {
+        checkSend(userId, 1, Collections.singletonMap(groupId, 1));
+    }
+
+    // El remitente paga un permiso por mensaje y cada grupo uno por cada mensaje dirigido a él
+    public void checkSend(String userId, int messages, Map<String, Integer> groupMessages) throws RateLimitExceeded {
+        reject("user:" + userId, users.check(userId, messages));
+        for (Map.Entry<String, Integer> group : groupMessages.entrySet()) {
+            reject("group:" + group.getKey(), groups.check(group.getKey(), group.getValue()));
+        }
+
+        // Otro envío pudo consumir entre la comprobación y el débito: se devuelve lo ya debitado
+        reject("user:" + userId, users.tryAcquire(userId, messages));
+        List<Map.Entry<String, Integer>> debited = new ArrayList<>(groupMessages.size());
+        for (Map.Entry<String, Integer> group : groupMessages.entrySet()) {
+            long retryAfterMs = groups.tryAcquire(group.getKey(), group.getValue());
+            if (retryAfterMs != 0) {
+                users.release(userId, messages);
+                for (Map.Entry<String, Integer> done : debited) {
+                    groups.release(done.getKey(), done.getValue());
+                }
+                reject("group:" + group.getKey(), retryAfterMs);
+            }
+            debited.add(group);
+        }
+    }
+
+    private static void reject(String key, long retryAfterMs) throws RateLimitExceeded {
+        if (retryAfterMs != 0) {
+            throw new RateLimitExceeded(key, retryAfterMs);
+        }
+    }
+
+    public long getRejectedUserRequests() {
+        return users.getRejected();
+    }
+
+    public long getRejectedGroupRequests() {
+        return groups.getRejected();
+    }
+
+    public int getTrackedKeys() {
+        return users.getTrackedKeys() + groups.getTrackedKeys();
+    }
+}
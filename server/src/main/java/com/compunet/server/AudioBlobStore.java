@@ -0,0 +1,264 @@
+package com.compunet.server;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Almacén en disco de notas de voz, direccionado por el SHA-256 del contenido.
+// Los mensajes solo guardan la referencia "blob:<hash>"; el mismo audio se guarda una vez.
+// Los audios que no caben en un mensaje de Ice (Ice.MessageSizeMax) se suben por partes de hasta
+// MAX_CHUNK_BYTES a un archivo temporal, que al confirmarse se mueve a su lugar según el hash.
+public class AudioBlobStore {
+    public static final String REFERENCE_PREFIX = "blob:";
+    public static final int MAX_AUDIO_BYTES = 16 * 1024 * 1024;
+    public static final int MAX_CHUNK_BYTES = 512 * 1024;
+    static final int MAX_OPEN_UPLOADS = 256;
+    static final long UPLOAD_TIMEOUT_MS = 10 * 60 * 1000;
+
+    private final Path directory;
+    private final Path uploadDirectory;
+    private final Map<String, Upload> uploads = new ConcurrentHashMap<>();
+
+    private static final class Upload {
+        final Path file;
+        final long size;
+        long received;
+        volatile long lastAccess = System.currentTimeMillis();
+
+        Upload(Path file, long size) {
+            this.file = file;
+            this.size = size;
+        }
+    }
+
+    public AudioBlobStore(Path directory) throws IOException {
+        this.directory = directory;
+        this.uploadDirectory = directory.resolve("uploads");
+        Files.createDirectories(uploadDirectory);
+
+        // Subidas que quedaron a medias antes de reiniciar
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(uploadDirectory, "*.part")) {
+            for (Path path : stream) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    public static boolean isReference(String audioData) {
+        return audioData != null && audioData.startsWith(REFERENCE_PREFIX);
+    }
+
+    public String put(byte[] data) {
+        if (data.length == 0 || data.length > MAX_AUDIO_BYTES) {
+            throw new RuntimeException("Tamaño de audio inválido: " + data.length + " bytes");
+        }
+
+        String hash = sha256(data);
+        Path target = pathOf(hash);
+        if (Files.exists(target)) {
+            return REFERENCE_PREFIX + hash;
+        }
+
+        try {
+            Files.createDirectories(target.getParent());
+            Path temporary = Files.createTempFile(target.getParent(), hash, ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(data);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            try {
+                Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException e) {
+                // Otro hilo subió el mismo audio al mismo tiempo
+                Files.deleteIfExists(temporary);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo guardar el audio " + hash, e);
+        }
+
+        return REFERENCE_PREFIX + hash;
+    }
+
+    public String beginUpload(long size) {
+        if (size <= 0 || size > MAX_AUDIO_BYTES) {
+            throw new RuntimeException("Tamaño de audio inválido: " + size + " bytes");
+        }
+        expireUploads();
+        if (uploads.size() >= MAX_OPEN_UPLOADS) {
+            throw new RuntimeException("Demasiadas subidas de audio en curso");
+        }
+
+        String uploadId = UUID.randomUUID().toString();
+        Path file = uploadDirectory.resolve(uploadId + ".part");
+        try {
+            Files.createFile(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo iniciar la subida de audio", e);
+        }
+        uploads.put(uploadId, new Upload(file, size));
+        return uploadId;
+    }
+
+    // Las partes llegan en orden; repetir una ya recibida (reintento) la vuelve a escribir igual
+    public void append(String uploadId, long offset, byte[] chunk) {
+        Upload upload = openUpload(uploadId);
+        synchronized (upload) {
+            if (chunk.length == 0 || chunk.length > MAX_CHUNK_BYTES || offset < 0
+                    || offset + chunk.length > upload.size) {
+                throw new RuntimeException("Parte de audio inválida: " + offset + "+" + chunk.length);
+            }
+            if (offset > upload.received) {
+                throw new RuntimeException("Parte de audio fuera de orden: se esperaba el byte " + upload.received);
+            }
+
+            try (FileChannel channel = FileChannel.open(upload.file, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(chunk);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer, offset + buffer.position());
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("No se pudo escribir la parte de audio", e);
+            }
+            upload.received = Math.max(upload.received, offset + chunk.length);
+        }
+    }
+
+    public String commitUpload(String uploadId) {
+        Upload upload = openUpload(uploadId);
+        synchronized (upload) {
+            if (upload.received != upload.size) {
+                throw new RuntimeException("Subida de audio incompleta: " + upload.received + " de " + upload.size
+                        + " bytes");
+            }
+
+            try {
+                String hash;
+                try (FileChannel channel = FileChannel.open(upload.file, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE)) {
+                    MessageDigest digest = sha256Digest();
+                    ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+                    while (channel.read(buffer) > 0) {
+                        buffer.flip();
+                        digest.update(buffer);
+                        buffer.clear();
+                    }
+                    channel.force(true);
+                    hash = hex(digest.digest());
+                }
+
+                Path target = pathOf(hash);
+                Files.createDirectories(target.getParent());
+                try {
+                    Files.move(upload.file, target, StandardCopyOption.ATOMIC_MOVE);
+                } catch (FileAlreadyExistsException e) {
+                    Files.deleteIfExists(upload.file);
+                }
+                uploads.remove(uploadId);
+                return REFERENCE_PREFIX + hash;
+            } catch (IOException e) {
+                throw new UncheckedIOException("No se pudo guardar el audio subido", e);
+            }
+        }
+    }
+
+    private Upload openUpload(String uploadId) {
+        Upload upload = uploads.get(uploadId);
+        if (upload == null) {
+            throw new RuntimeException("Subida de audio no encontrada: " + uploadId);
+        }
+        upload.lastAccess = System.currentTimeMillis();
+        return upload;
+    }
+
+    private void expireUploads() {
+        long cutoff = System.currentTimeMillis() - UPLOAD_TIMEOUT_MS;
+        for (Iterator<Upload> it = uploads.values().iterator(); it.hasNext(); ) {
+            Upload upload = it.next();
+            if (upload.lastAccess < cutoff) {
+                it.remove();
+                try {
+                    Files.deleteIfExists(upload.file);
+                } catch (IOException e) {
+                    // Se reintenta al reiniciar
+                }
+            }
+        }
+    }
+
+    public long size(String reference) {
+        try {
+            return Files.size(resolve(reference));
+        } catch (NoSuchFileException e) {
+            throw new RuntimeException("Audio no encontrado: " + reference);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public byte[] read(String reference, long offset, int length) {
+        if (offset < 0 || length < 0) {
+            throw new RuntimeException("Rango de audio inválido: " + offset + "+" + length);
+        }
+
+        try (FileChannel channel = FileChannel.open(resolve(reference), StandardOpenOption.READ)) {
+            long available = Math.max(0, channel.size() - offset);
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(Math.min(length, MAX_CHUNK_BYTES), available));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    break;
+                }
+            }
+            return buffer.array();
+        } catch (NoSuchFileException e) {
+            throw new RuntimeException("Audio no encontrado: " + reference);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Path resolve(String reference) {
+        if (!isReference(reference)) {
+            throw new RuntimeException("Referencia de audio inválida: " + reference);
+        }
+        String hash = reference.substring(REFERENCE_PREFIX.length());
+        if (!hash.matches("[0-9a-f]{64}")) {
+            throw new RuntimeException("Referencia de audio inválida: " + reference);
+        }
+        return pathOf(hash);
+    }
+
+    private Path pathOf(String hash) {
+        return directory.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    private static String sha256(byte[] data) {
+        return hex(sha256Digest().digest(data));
+    }
+
+    private static MessageDigest sha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] digest) {
+        StringBuilder hex = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -4,55 +4,158 @@ import compunet.*;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 public class ChatCore {
-    private final Map<String, User> users = new ConcurrentHashMap<>();
+    private static final ChatLog log = ChatLog.forClass(ChatCore.class);
+
+    private final UserDirectory users = new UserDirectory();
     private final Map<String, Group> groups = new ConcurrentHashMap<>();
-    private final Map<String, List<Message>> directMessages = new ConcurrentHashMap<>();
-    private final Map<String, List<Message>> groupMessages = new ConcurrentHashMap<>();
+    private final GroupMembership membership = new GroupMembership();
+    private final Map<String, ConversationHistory> directMessages = new ConcurrentHashMap<>();
+    private final Map<String, ConversationHistory> groupMessages = new ConcurrentHashMap<>();
+    private final InboxIndex inbox = new InboxIndex();
+    private final SearchIndex searchIndex = new SearchIndex();
+
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 200;
 
     private final AtomicLong messageIdCounter = new AtomicLong(0);
     private final AtomicLong groupIdCounter = new AtomicLong(0);
 
-    private WebSocketHandler webSocketHandler;
+    // En clúster los ids de mensaje avanzan con el reloj y llevan el índice del nodo en los bits bajos:
+    // son únicos entre nodos, comparables entre conversaciones y caben en un número de JavaScript
+    private static final int CLUSTER_TIME_SHIFT = 10;
+    private static final int CLUSTER_NODE_BITS = 4;
+
+    private DeliveryPipeline deliveryPipeline;
+    private AudioBlobStore audioStore;
+    private ChatPersistence persistence;
+    private HistoryCache historyCache;
+    private Cluster cluster = Cluster.standalone();
+    private String groupIdPrefix = "group_";
 
     public static class Group {
         public String id;
         public String name;
         public String ownerId;
-        public Set<String> memberIds;
+        public long createdAt;
 
-        Group(String id, String name, String ownerId, Set<String> memberIds) {
+        Group(String id, String name, String ownerId, long createdAt) {
             this.id = id;
             this.name = name;
             this.ownerId = ownerId;
-            this.memberIds = memberIds;
+            this.createdAt = createdAt;
         }
     }
 
-    public void setWebSocketHandler(WebSocketHandler handler) {
-        this.webSocketHandler = handler;
-        System.out.println(" WebSocketHandler conectado a ChatCore");
+    public void setDeliveryPipeline(DeliveryPipeline pipeline) {
+        this.deliveryPipeline = pipeline;
+        log.info("Pipeline de entrega conectado a ChatCore");
+    }
+
+    public void setAudioStore(AudioBlobStore audioStore) {
+        this.audioStore = audioStore;
+    }
+
+    void setPersistence(ChatPersistence persistence) {
+        this.persistence = persistence;
+    }
+
+    // Debe configurarse antes de recuperar la persistencia, para que el desalojo actúe ya durante la carga
+    public void setHistoryCache(HistoryCache historyCache) {
+        this.historyCache = historyCache;
+    }
+
+    private ConversationHistory newHistory() {
+        return new ConversationHistory(historyCache);
+    }
+
+    public void setCluster(Cluster cluster) {
+        this.cluster = cluster;
+        if (cluster.isEnabled()) {
+            groupIdPrefix = "group_" + cluster.getLocalNodeId() + "_";
+        }
+    }
+
+    private void persist(LogRecord record) {
+        if (persistence != null) {
+            persistence.append(record);
+        }
+    }
+
+    private long nextMessageId() {
+        if (!cluster.isEnabled()) {
+            return messageIdCounter.incrementAndGet();
+        }
+
+        long floor = System.currentTimeMillis() << CLUSTER_TIME_SHIFT;
+        long node = cluster.getLocalNodeIndex();
+        return messageIdCounter.updateAndGet(
+                previous -> (((Math.max(previous, floor) >>> CLUSTER_NODE_BITS) + 1) << CLUSTER_NODE_BITS) | node);
     }
 
-    private void notifyClient(String userId, Message message) {
-        if (webSocketHandler != null) {
-            webSocketHandler.notifyNewMessage(userId, message);
+    // Los destinatarios conectados a otros nodos se envían a su nodo; el resto va al pipeline local
+    private void notifyClients(Message message, Collection<String> recipients, String excludedUserId) {
+        deliverLocally(message, cluster.routeMessage(message, recipients, excludedUserId), excludedUserId);
+    }
+
+    private void deliverLocally(Message message, Collection<String> recipients, String excludedUserId) {
+        if (deliveryPipeline != null) {
+            deliveryPipeline.deliverMessage(message, recipients, excludedUserId);
+        } else {
+            log.warn("Pipeline de entrega no inicializado");
+        }
+    }
+
+    private void notifyNewGroup(ChatSummary chatSummary, Collection<String> recipients, String excludedUserId) {
+        List<String> targets = new ArrayList<>(recipients);
+        targets.remove(excludedUserId);
+        deliverNewGroupLocally(chatSummary, cluster.routeNewGroup(chatSummary, targets));
+    }
+
+    private void deliverNewGroupLocally(ChatSummary chatSummary, Collection<String> recipients) {
+        if (deliveryPipeline != null) {
+            deliveryPipeline.deliverNewGroup(chatSummary, recipients, null);
+        }
+    }
+
+    // Mensaje guardado en el nodo dueño de la conversación, para usuarios de este nodo
+    public void deliverRemoteMessage(Message message, Collection<String> recipients, String excludedUserId) {
+        if (message.isGroupMessage) {
+            inbox.recordGroup(message.chatId, message.content, message.timestamp);
         } else {
-            System.out.println(" WebSocketHandler no inicializado");
+            for (String userId : recipients) {
+                String otherUserId = userId.equals(message.senderId) ? message.chatId : message.senderId;
+                inbox.recordDirect(userId, otherUserId, message.content, message.timestamp);
+            }
         }
+        deliverLocally(message, recipients, excludedUserId);
     }
 
-    private void notifyNewGroup(String userId, ChatSummary chatSummary) {
-        if (webSocketHandler != null) {
-            webSocketHandler.notifyNewGroup(userId, chatSummary);
+    public void deliverRemoteNewGroup(ChatSummary chatSummary, Collection<String> recipients) {
+        deliverNewGroupLocally(chatSummary, recipients);
+    }
+
+    // Cambio de usuarios o grupos hecho en otro nodo: se aplica y persiste sin volver a replicarlo
+    public void applyReplica(LogRecord record) {
+        if (record.type == LogRecord.MESSAGE) {
+            throw new IllegalArgumentException("Los mensajes no se replican entre nodos");
         }
+        restore(record);
+        persist(record);
     }
 
     public void registerUser(String userId, String userName) {
         User user = new User(userId, userName);
-        users.put(userId, user);
-        System.out.println(" Usuario registrado/actualizado: " + userId + " (" + userName + ")");
+        if (!users.put(user)) {
+            log.debug("Usuario sin cambios: {}", userId);
+            return;
+        }
+        LogRecord record = LogRecord.user(user);
+        persist(record);
+        cluster.replicate(record);
+        log.info("Usuario registrado/actualizado: {} ({})", userId, userName);
     }
 
     public User getUser(String userId) {
@@ -60,7 +163,15 @@ public class ChatCore {
     }
 
     public List<User> getAllUsers() {
-        return new ArrayList<>(users.values());
+        return users.getAll();
+    }
+
+    public UserDelta getUsersSince(long version) {
+        return users.getSince(version);
+    }
+
+    public List<User> searchUsers(String prefix, int limit) {
+        return users.search(prefix, limit <= 0 ? DEFAULT_PAGE_SIZE : Math.min(limit, MAX_PAGE_SIZE));
     }
 
     public void sendDirectMessage(String fromUserId, String toUserId, String content) {
@@ -75,8 +186,9 @@ public class ChatCore {
         }
 
         String chatKey = getChatKey(fromUserId, toUserId);
-        Message message = new Message(
-                String.valueOf(messageIdCounter.incrementAndGet()),
+        ConversationHistory history = directMessages.computeIfAbsent(chatKey, k -> newHistory());
+        Message message = history.append(this::nextMessageId, id -> new Message(
+                String.valueOf(id),
                 fromUserId,
                 sender.name,
                 content,
@@ -85,12 +197,13 @@ public class ChatCore {
                 false,
                 false,
                 "",
-                0);
-
-        directMessages.computeIfAbsent(chatKey, k -> new ArrayList<>()).add(message);
-        System.out.println(" Mensaje directo enviado de " + fromUserId + " a " + toUserId);
+                0));
+        recordDirectInbox(fromUserId, toUserId, message);
+        searchIndex.add(chatKey, false, Long.parseLong(message.id), content);
+        persist(LogRecord.message(message));
+        log.trace("Mensaje directo enviado de {} a {}", fromUserId, toUserId);
 
-        notifyClient(toUserId, message);
+        notifyClients(message, Arrays.asList(fromUserId, toUserId), fromUserId);
     }
 
     public void sendDirectAudio(String fromUserId, String toUserId, String audioData, int duration) {
@@ -99,9 +212,11 @@ public class ChatCore {
             throw new RuntimeException("Usuario emisor no encontrado: " + fromUserId);
         }
 
+        String audioRef = storeAudio(audioData);
         String chatKey = getChatKey(fromUserId, toUserId);
-        Message message = new Message(
-                String.valueOf(messageIdCounter.incrementAndGet()),
+        ConversationHistory history = directMessages.computeIfAbsent(chatKey, k -> newHistory());
+        Message message = history.append(this::nextMessageId, id -> new Message(
+                String.valueOf(id),
                 fromUserId,
                 sender.name,
                 " Nota de voz",
@@ -109,59 +224,143 @@ public class ChatCore {
                 toUserId,
                 false,
                 true,
-                audioData,
-                duration);
+                audioRef,
+                duration));
+        recordDirectInbox(fromUserId, toUserId, message);
+        persist(LogRecord.message(message));
+        log.trace("Audio directo enviado de {} a {}. Duración: {}s", fromUserId, toUserId, duration);
 
-        directMessages.computeIfAbsent(chatKey, k -> new ArrayList<>()).add(message);
-        System.out.println(
-                " Audio directo enviado de " + fromUserId + " a " + toUserId + ". Duración: " + duration + "s");
+        notifyClients(message, Arrays.asList(fromUserId, toUserId), fromUserId);
+    }
+
+    public void sendDirectAudioRef(String fromUserId, String toUserId, String audioRef, int duration) {
+        if (!AudioBlobStore.isReference(audioRef)) {
+            throw new RuntimeException("Referencia de audio inválida: " + audioRef);
+        }
+        sendDirectAudio(fromUserId, toUserId, audioRef, duration);
+    }
+
+    public String uploadAudio(String userId, byte[] data) {
+        if (users.get(userId) == null) {
+            throw new RuntimeException("Usuario no encontrado: " + userId);
+        }
+        if (audioStore == null) {
+            throw new RuntimeException("Almacén de audio no configurado");
+        }
+
+        String audioRef = audioStore.put(data);
+        log.debug("Audio subido por {}: {} bytes", userId, data.length);
+        return audioRef;
+    }
+
+    // Subida por partes, para audios que no caben en un solo mensaje de Ice
+    public String beginAudioUpload(String userId, long size) {
+        if (users.get(userId) == null) {
+            throw new RuntimeException("Usuario no encontrado: " + userId);
+        }
+        if (audioStore == null) {
+            throw new RuntimeException("Almacén de audio no configurado");
+        }
+        return audioStore.beginUpload(size);
+    }
+
+    public void appendAudioUpload(String uploadId, long offset, byte[] chunk) {
+        if (audioStore == null) {
+            throw new RuntimeException("Almacén de audio no configurado");
+        }
+        audioStore.append(uploadId, offset, chunk);
+    }
+
+    public String commitAudioUpload(String uploadId) {
+        if (audioStore == null) {
+            throw new RuntimeException("Almacén de audio no configurado");
+        }
+        String audioRef = audioStore.commitUpload(uploadId);
+        log.debug("Audio subido por partes: {}", audioRef);
+        return audioRef;
+    }
+
+    public long getAudioSize(String audioRef) {
+        if (audioStore == null) {
+            throw new RuntimeException("Almacén de audio no configurado");
+        }
+        return audioStore.size(audioRef);
+    }
+
+    public byte[] downloadAudioChunk(String audioRef, long offset, int length) {
+        if (audioStore == null) {
+            throw new RuntimeException("Almacén de audio no configurado");
+        }
+        return audioStore.read(audioRef, offset, length);
+    }
 
-        notifyClient(toUserId, message);
+    // El audio en base64 de clientes antiguos se guarda como blob y el mensaje solo lleva la referencia
+    private String storeAudio(String audioData) {
+        if (AudioBlobStore.isReference(audioData)) {
+            getAudioSize(audioData);
+            return audioData;
+        }
+        if (audioStore == null) {
+            return audioData;
+        }
+
+        try {
+            return audioStore.put(Base64.getDecoder().decode(audioData));
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException("Audio en base64 inválido");
+        }
     }
 
     public List<Message> getDirectChatMessages(String userId, String otherUserId) {
         String chatKey = getChatKey(userId, otherUserId);
-        return directMessages.getOrDefault(chatKey, new ArrayList<>());
+        ConversationHistory history = directMessages.get(chatKey);
+        return history != null ? history.snapshot() : new ArrayList<>();
+    }
+
+    public List<Message> getDirectChatMessagesPage(String userId, String otherUserId, long cursor,
+            PageDirection direction, int limit) {
+        String chatKey = getChatKey(userId, otherUserId);
+        ConversationHistory history = directMessages.get(chatKey);
+        return history != null ? history.page(cursor, direction, pageSize(limit)) : new ArrayList<>();
+    }
+
+    static int pageSize(int limit) {
+        if (limit <= 0) {
+            return DEFAULT_PAGE_SIZE;
+        }
+        return Math.min(limit, MAX_PAGE_SIZE);
     }
 
     public List<ChatSummary> getUserDirectChats(String userId) {
         List<ChatSummary> summaries = new ArrayList<>();
 
-        for (Map.Entry<String, List<Message>> entry : directMessages.entrySet()) {
-            String chatKey = entry.getKey();
-            if (chatKey.contains(userId)) {
-                List<Message> messages = entry.getValue();
-                if (!messages.isEmpty()) {
-                    Message lastMessage = messages.get(messages.size() - 1);
-                    String otherUserId = getOtherUserId(chatKey, userId);
-                    User otherUser = users.get(otherUserId);
-
-                    if (otherUser != null) {
-                        ChatSummary summary = new ChatSummary(
-                                otherUserId,
-                                otherUser.name,
-                                lastMessage.content,
-                                lastMessage.timestamp,
-                                false);
-                        summaries.add(summary);
-                    }
-                }
+        // El índice ya viene ordenado por recencia
+        for (InboxIndex.Entry entry : inbox.getDirectChats(userId)) {
+            User otherUser = users.get(entry.chatId);
+
+            if (otherUser != null) {
+                ChatSummary summary = new ChatSummary(
+                        entry.chatId,
+                        otherUser.name,
+                        entry.lastMessageContent,
+                        entry.lastMessageTimestamp,
+                        false);
+                summaries.add(summary);
             }
         }
 
-        summaries.sort((a, b) -> Long.compare(b.lastMessageTimestamp, a.lastMessageTimestamp));
         return summaries;
     }
 
-    private String getChatKey(String userId1, String userId2) {
+    static String getChatKey(String userId1, String userId2) {
         return userId1.compareTo(userId2) < 0
                 ? userId1 + ":" + userId2
                 : userId2 + ":" + userId1;
     }
 
-    private String getOtherUserId(String chatKey, String userId) {
-        String[] parts = chatKey.split(":");
-        return parts[0].equals(userId) ? parts[1] : parts[0];
+    private void recordDirectInbox(String fromUserId, String toUserId, Message message) {
+        inbox.recordDirect(fromUserId, toUserId, message.content, message.timestamp);
+        inbox.recordDirect(toUserId, fromUserId, message.content, message.timestamp);
     }
 
     public String createGroup(String ownerId, String groupName, String[] memberIds) {
@@ -170,27 +369,29 @@ public class ChatCore {
             throw new RuntimeException("Usuario propietario no encontrado: " + ownerId);
         }
 
-        Set<String> members = new HashSet<>(Arrays.asList(memberIds));
+        Set<String> members = new LinkedHashSet<>(Arrays.asList(memberIds));
         members.add(ownerId);
 
-        String groupId = "group_" + groupIdCounter.incrementAndGet();
-        Group group = new Group(groupId, groupName, ownerId, members);
+        String groupId = groupIdPrefix + groupIdCounter.incrementAndGet();
+        Group group = new Group(groupId, groupName, ownerId, System.currentTimeMillis());
+        // Los miembros se publican antes que el grupo: quien lo encuentre ya ve su lista completa
+        membership.add(groupId, members);
         groups.put(groupId, group);
+        LogRecord record = LogRecord.group(groupId, groupName, ownerId, membership.members(groupId).clone(), group.createdAt);
+        persist(record);
+        cluster.replicate(record);
 
-        System.out.println(" Grupo creado: " + groupId + " (" + groupName + ") con " + members.size() + " miembros");
+        log.info("Grupo creado: {} ({}) con {} miembros", groupId, groupName, members.size());
 
         ChatSummary groupSummary = new ChatSummary(
                 groupId,
                 groupName,
                 "Grupo creado",
-                System.currentTimeMillis(),
+                group.createdAt,
                 true);
+        inbox.recordGroup(groupId, groupSummary.lastMessageContent, groupSummary.lastMessageTimestamp);
 
-        for (String memberId : members) {
-            if (!memberId.equals(ownerId)) {
-                notifyNewGroup(memberId, groupSummary);
-            }
-        }
+        notifyNewGroup(groupSummary, members, ownerId);
 
         return groupId;
     }
@@ -201,8 +402,11 @@ public class ChatCore {
             throw new RuntimeException("Grupo no encontrado: " + groupId);
         }
 
-        group.memberIds.addAll(Arrays.asList(memberIds));
-        System.out.println(" Miembros agregados al grupo " + groupId);
+        membership.add(groupId, Arrays.asList(memberIds));
+        LogRecord record = LogRecord.groupMembers(groupId, memberIds, System.currentTimeMillis());
+        persist(record);
+        cluster.replicate(record);
+        log.info("Miembros agregados al grupo {}", groupId);
 
         ChatSummary groupSummary = new ChatSummary(
                 groupId,
@@ -211,9 +415,7 @@ public class ChatCore {
                 System.currentTimeMillis(),
                 true);
 
-        for (String memberId : memberIds) {
-            notifyNewGroup(memberId, groupSummary);
-        }
+        notifyNewGroup(groupSummary, Arrays.asList(memberIds), null);
     }
 
     public String[] getGroupMembers(String groupId) {
@@ -222,7 +424,7 @@ public class ChatCore {
             throw new RuntimeException("Grupo no encontrado: " + groupId);
         }
 
-        return group.memberIds.toArray(new String[0]);
+        return membership.members(groupId).clone();
     }
 
     public Map<String, Group> getGroups() {
@@ -240,12 +442,15 @@ public class ChatCore {
             throw new RuntimeException("Grupo no encontrado: " + groupId);
         }
 
-        if (!group.memberIds.contains(fromUserId)) {
+        // Una sola lectura de la lista: la verificación y la difusión usan la misma versión
+        String[] members = membership.members(groupId);
+        if (Arrays.binarySearch(members, fromUserId) < 0) {
             throw new RuntimeException("Usuario no es miembro del grupo: " + fromUserId);
         }
 
-        Message message = new Message(
-                String.valueOf(messageIdCounter.incrementAndGet()),
+        ConversationHistory history = groupMessages.computeIfAbsent(groupId, k -> newHistory());
+        Message message = history.append(this::nextMessageId, id -> new Message(
+                String.valueOf(id),
                 fromUserId,
                 sender.name,
                 content,
@@ -254,16 +459,13 @@ public class ChatCore {
                 true,
                 false,
                 "",
-                0);
-
-        groupMessages.computeIfAbsent(groupId, k -> new ArrayList<>()).add(message);
-        System.out.println(" Mensaje enviado al grupo " + groupId + " por " + fromUserId);
+                0));
+        inbox.recordGroup(group.id, message.content, message.timestamp);
+        searchIndex.add(groupId, true, Long.parseLong(message.id), content);
+        persist(LogRecord.message(message));
+        log.trace("Mensaje enviado al grupo {} por {}", groupId, fromUserId);
 
-        for (String memberId : group.memberIds) {
-            if (!memberId.equals(fromUserId)) {
-                notifyClient(memberId, message);
-            }
-        }
+        notifyClients(message, Arrays.asList(members), fromUserId);
     }
 
     public void sendGroupAudio(String fromUserId, String groupId, String audioData, int duration) {
@@ -277,12 +479,16 @@ public class ChatCore {
             throw new RuntimeException("Grupo no encontrado: " + groupId);
         }
 
-        if (!group.memberIds.contains(fromUserId)) {
+        // Una sola lectura de la lista: la verificación y la difusión usan la misma versión
+        String[] members = membership.members(groupId);
+        if (Arrays.binarySearch(members, fromUserId) < 0) {
             throw new RuntimeException("Usuario no es miembro del grupo: " + fromUserId);
         }
 
-        Message message = new Message(
-                String.valueOf(messageIdCounter.incrementAndGet()),
+        String audioRef = storeAudio(audioData);
+        ConversationHistory history = groupMessages.computeIfAbsent(groupId, k -> newHistory());
+        Message message = history.append(this::nextMessageId, id -> new Message(
+                String.valueOf(id),
                 fromUserId,
                 sender.name,
                 " Nota de voz",
@@ -290,49 +496,253 @@ public class ChatCore {
                 groupId,
                 true,
                 true,
-                audioData,
-                duration);
+                audioRef,
+                duration));
+        inbox.recordGroup(group.id, message.content, message.timestamp);
+        persist(LogRecord.message(message));
+        log.trace("Audio enviado al grupo {} por {}. Duración: {}s", groupId, fromUserId, duration);
 
-        groupMessages.computeIfAbsent(groupId, k -> new ArrayList<>()).add(message);
-        System.out.println(
-                " Audio enviado al grupo " + groupId + " por " + fromUserId + ". Duración: " + duration + "s");
+        notifyClients(message, Arrays.asList(members), fromUserId);
+    }
 
-        for (String memberId : group.memberIds) {
-            if (!memberId.equals(fromUserId)) {
-                notifyClient(memberId, message);
-            }
+    public void sendGroupAudioRef(String fromUserId, String groupId, String audioRef, int duration) {
+        if (!AudioBlobStore.isReference(audioRef)) {
+            throw new RuntimeException("Referencia de audio inválida: " + audioRef);
         }
+        sendGroupAudio(fromUserId, groupId, audioRef, duration);
     }
 
     public List<Message> getGroupChatMessages(String groupId) {
-        return groupMessages.getOrDefault(groupId, new ArrayList<>());
+        ConversationHistory history = groupMessages.get(groupId);
+        return history != null ? history.snapshot() : new ArrayList<>();
+    }
+
+    public List<Message> getGroupChatMessagesPage(String groupId, long cursor, PageDirection direction, int limit) {
+        if (!groups.containsKey(groupId)) {
+            throw new RuntimeException("Grupo no encontrado: " + groupId);
+        }
+
+        ConversationHistory history = groupMessages.get(groupId);
+        return history != null ? history.page(cursor, direction, pageSize(limit)) : new ArrayList<>();
     }
 
+    // Recorre solo los grupos del usuario (índice inverso), no toda su bandeja
     public List<ChatSummary> getUserGroupChats(String userId) {
         List<ChatSummary> summaries = new ArrayList<>();
 
-        for (Group group : groups.values()) {
-            if (group.memberIds.contains(userId)) {
-                List<Message> messages = groupMessages.getOrDefault(group.id, new ArrayList<>());
-
-                String lastMessageContent = messages.isEmpty()
-                        ? "Grupo creado"
-                        : messages.get(messages.size() - 1).content;
-                long lastMessageTimestamp = messages.isEmpty()
-                        ? System.currentTimeMillis()
-                        : messages.get(messages.size() - 1).timestamp;
+        for (InboxIndex.Entry entry : inbox.getGroupChats(membership.groupsOf(userId))) {
+            Group group = groups.get(entry.chatId);
 
+            if (group != null) {
                 ChatSummary summary = new ChatSummary(
                         group.id,
                         group.name,
-                        lastMessageContent,
-                        lastMessageTimestamp,
+                        entry.lastMessageContent,
+                        entry.lastMessageTimestamp,
                         true);
                 summaries.add(summary);
             }
         }
 
-        summaries.sort((a, b) -> Long.compare(b.lastMessageTimestamp, a.lastMessageTimestamp));
         return summaries;
     }
-}
\ No newline at end of file
+
+    // Lotes: los mensajes se aplican en orden y el primero que falle detiene el resto
+    public void sendMessages(String fromUserId, OutgoingMessage[] messages) {
+        for (OutgoingMessage outgoing : messages) {
+            if (outgoing.isGroup) {
+                sendGroupMessage(fromUserId, outgoing.chatId, outgoing.content);
+            } else {
+                sendDirectMessage(fromUserId, outgoing.chatId, outgoing.content);
+            }
+        }
+    }
+
+    public ConversationHead getConversationHead(String userId, ConversationRef conversation, int limit) {
+        List<Message> messages = conversation.isGroup
+                ? getGroupChatMessagesPage(conversation.chatId, 0, PageDirection.Older, limit)
+                : getDirectChatMessagesPage(userId, conversation.chatId, 0, PageDirection.Older, limit);
+        return new ConversationHead(conversation.chatId, conversation.isGroup, messages.toArray(new Message[0]));
+    }
+
+    public Inbox getInbox(String userId) {
+        return new Inbox(
+                getUserDirectChats(userId).toArray(new ChatSummary[0]),
+                getUserGroupChats(userId).toArray(new ChatSummary[0]));
+    }
+
+    // Búsqueda en los mensajes de este nodo, limitada a las conversaciones del usuario.
+    // cursor = posición en el índice desde la que seguir (<= 0 = desde el mensaje más reciente)
+    public SearchPage searchMessages(String userId, String query, long cursor, int limit) {
+        int from = cursor <= 0 || cursor > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) cursor;
+        SearchIndex.Result result = searchIndex.search(query, from, pageSize(limit), (key, isGroup) -> {
+            if (isGroup) {
+                return membership.isMember(key, userId);
+            }
+            return isParticipant(key, userId);
+        });
+
+        List<SearchHit> hits = new ArrayList<>(result.hits.size());
+        for (SearchIndex.Hit hit : result.hits) {
+            ConversationHistory history = hit.isGroup
+                    ? groupMessages.get(hit.conversationKey)
+                    : directMessages.get(hit.conversationKey);
+            Message message = history != null ? history.find(hit.messageId) : null;
+            if (message == null) {
+                continue;
+            }
+            String chatId = hit.isGroup || !message.chatId.equals(userId) ? message.chatId : message.senderId;
+            hits.add(new SearchHit(chatId, hit.isGroup, message, hit.position));
+        }
+
+        String nextCursor = result.nextCursor > 0 ? String.valueOf(result.nextCursor) : "";
+        return new SearchPage(hits.toArray(new SearchHit[0]), nextCursor);
+    }
+
+    public int getIndexedMessageCount() {
+        return searchIndex.getDocumentCount();
+    }
+
+    public int getIndexedTermCount() {
+        return searchIndex.getTermCount();
+    }
+
+    private static boolean isParticipant(String chatKey, String userId) {
+        String otherUserId = null;
+        if (chatKey.startsWith(userId + ":")) {
+            otherUserId = chatKey.substring(userId.length() + 1);
+        } else if (chatKey.endsWith(":" + userId)) {
+            otherUserId = chatKey.substring(0, chatKey.length() - userId.length() - 1);
+        }
+        return otherUserId != null && getChatKey(userId, otherUserId).equals(chatKey);
+    }
+
+    // Recorre todos los historiales: pensado para el endpoint de métricas, no para rutas calientes
+    public long getStoredMessageCount() {
+        long count = 0;
+        for (ConversationHistory history : directMessages.values()) {
+            count += history.size();
+        }
+        for (ConversationHistory history : groupMessages.values()) {
+            count += history.size();
+        }
+        return count;
+    }
+
+    public long getStoredMessageBytes() {
+        long bytes = 0;
+        for (ConversationHistory history : directMessages.values()) {
+            bytes += history.getEstimatedBytes();
+        }
+        for (ConversationHistory history : groupMessages.values()) {
+            bytes += history.getEstimatedBytes();
+        }
+        return bytes;
+    }
+
+    public int getConversationCount() {
+        return directMessages.size() + groupMessages.size();
+    }
+
+    // Aplica un registro persistido durante la recuperación (idempotente, sin notificar)
+    void restore(LogRecord record) {
+        switch (record.type) {
+            case LogRecord.USER:
+                users.put(record.user);
+                break;
+
+            case LogRecord.GROUP: {
+                Group group = groups.computeIfAbsent(record.groupId,
+                        k -> new Group(record.groupId, record.groupName, record.ownerId, record.timestamp));
+                restoreMembers(group, record.memberIds, record.timestamp);
+                groupIdCounter.accumulateAndGet(parseGroupNumber(record.groupId), Math::max);
+                break;
+            }
+
+            case LogRecord.GROUP_MEMBERS: {
+                Group group = groups.get(record.groupId);
+                if (group != null) {
+                    restoreMembers(group, record.memberIds, record.timestamp);
+                }
+                break;
+            }
+
+            case LogRecord.MESSAGE: {
+                Message message = record.message;
+                long id = Long.parseLong(message.id);
+                String conversationKey = message.isGroupMessage
+                        ? message.chatId
+                        : getChatKey(message.senderId, message.chatId);
+                ConversationHistory history = message.isGroupMessage
+                        ? groupMessages.computeIfAbsent(conversationKey, k -> newHistory())
+                        : directMessages.computeIfAbsent(conversationKey, k -> newHistory());
+
+                if (!history.contains(id)) {
+                    history.restore(message);
+                    if (!message.isAudio) {
+                        searchIndex.add(conversationKey, message.isGroupMessage, id, message.content);
+                    }
+                    if (message.isGroupMessage) {
+                        inbox.recordGroup(message.chatId, message.content, message.timestamp);
+                    } else {
+                        recordDirectInbox(message.senderId, message.chatId, message);
+                    }
+                }
+                messageIdCounter.accumulateAndGet(id, Math::max);
+                break;
+            }
+
+            default:
+                throw new IllegalStateException("Tipo de registro desconocido: " + record.type);
+        }
+    }
+
+    private void restoreMembers(Group group, String[] memberIds, long timestamp) {
+        membership.add(group.id, Arrays.asList(memberIds));
+        inbox.recordGroupIfAbsent(group.id, "Grupo creado", timestamp);
+    }
+
+    private long parseGroupNumber(String groupId) {
+        try {
+            return Long.parseLong(groupId.substring(groupId.lastIndexOf('_') + 1));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    // Recorre usuarios y grupos como registros, para escribir una instantánea (los mensajes van aparte)
+    void forEachRecord(Consumer<LogRecord> consumer) {
+        for (User user : users.getAll()) {
+            consumer.accept(LogRecord.user(user));
+        }
+
+        for (Group group : groups.values()) {
+            consumer.accept(LogRecord.group(group.id, group.name, group.ownerId,
+                    membership.members(group.id).clone(), group.createdAt));
+        }
+    }
+
+    // Mensajes posteriores al último archivado de cada conversación; actualiza las marcas con lo recorrido
+    void forEachNewMessage(Map<String, Long> archivedThrough, Consumer<Message> consumer) {
+        forEachNewMessage(directMessages, "d:", archivedThrough, consumer);
+        forEachNewMessage(groupMessages, "g:", archivedThrough, consumer);
+    }
+
+    private void forEachNewMessage(Map<String, ConversationHistory> histories, String prefix,
+            Map<String, Long> archivedThrough, Consumer<Message> consumer) {
+        for (Map.Entry<String, ConversationHistory> entry : histories.entrySet()) {
+            String key = prefix + entry.getKey();
+            List<Message> messages = entry.getValue().newerThan(archivedThrough.getOrDefault(key, 0L));
+            for (Message message : messages) {
+                consumer.accept(message);
+            }
+            if (!messages.isEmpty()) {
+                archivedThrough.put(key, Long.parseLong(messages.get(messages.size() - 1).id));
+            }
+        }
+    }
+
+    static String archiveKey(Message message) {
+        return message.isGroupMessage ? "g:" + message.chatId : "d:" + getChatKey(message.senderId, message.chatId);
+    }
+}
@@ -0,0 +1,287 @@
+package com.compunet.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Log asíncrono por niveles sobre slf4j. Quien registra solo copia referencias a una
+// ranura de un anillo preasignado; el formateo y la escritura los hace el hilo "chat-log".
+// Si el anillo está lleno el evento se descarta (y se cuenta) en lugar de bloquear.
+// Las plantillas usan "{}" de slf4j: no concatenar en el llamador.
+public final class ChatLog {
+
+    public enum Level { TRACE, DEBUG, INFO, WARN, ERROR }
+
+    static final int CAPACITY = 1 << 14;
+    private static final int MASK = CAPACITY - 1;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final class Slot {
+        volatile long published = -1;
+        Logger logger;
+        Level level;
+        String template;
+        int argumentCount;
+        Object first;
+        Object second;
+        Object third;
+        Throwable error;
+
+        void write() {
+            Object[] arguments;
+            switch (argumentCount) {
+                case 0:
+                    arguments = error == null ? null : new Object[] { error };
+                    break;
+                case 1:
+                    arguments = error == null ? new Object[] { first } : new Object[] { first, error };
+                    break;
+                case 2:
+                    arguments = error == null ? new Object[] { first, second } : new Object[] { first, second, error };
+                    break;
+                default:
+                    arguments = error == null ? new Object[] { first, second, third }
+                            : new Object[] { first, second, third, error };
+            }
+
+            switch (level) {
+                case TRACE:
+                    logger.trace(template, arguments);
+                    break;
+                case DEBUG:
+                    logger.debug(template, arguments);
+                    break;
+                case INFO:
+                    logger.info(template, arguments);
+                    break;
+                case WARN:
+                    logger.warn(template, arguments);
+                    break;
+                default:
+                    logger.error(template, arguments);
+            }
+        }
+
+        void clear() {
+            logger = null;
+            level = null;
+            template = null;
+            first = null;
+            second = null;
+            third = null;
+            error = null;
+        }
+    }
+
+    private static final Slot[] RING = new Slot[CAPACITY];
+    private static final AtomicLong CLAIMED = new AtomicLong(0);
+    private static final AtomicLong DROPPED = new AtomicLong(0);
+    private static volatile long consumed;
+
+    private static volatile Level threshold = Level.INFO;
+    private static volatile int traceSampleEvery = 100;
+
+    static {
+        // El filtrado por nivel lo hace ChatLog; slf4j-simple solo da formato
+        setDefault("org.slf4j.simpleLogger.defaultLogLevel", "trace");
+        setDefault("org.slf4j.simpleLogger.logFile", "System.out");
+        setDefault("org.slf4j.simpleLogger.showDateTime", "true");
+        setDefault("org.slf4j.simpleLogger.dateTimeFormat", "HH:mm:ss.SSS");
+        setDefault("org.slf4j.simpleLogger.showThreadName", "false");
+        setDefault("org.slf4j.simpleLogger.showShortLogName", "true");
+
+        for (int i = 0; i < CAPACITY; i++) {
+            RING[i] = new Slot();
+        }
+
+        Thread writer = new Thread(ChatLog::drainLoop, "chat-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private final Logger logger;
+    private final AtomicLong traceCounter = new AtomicLong(0);
+
+    private ChatLog(Logger logger) {
+        this.logger = logger;
+    }
+
+    public static ChatLog forClass(Class<?> type) {
+        return new ChatLog(LoggerFactory.getLogger(type));
+    }
+
+    static ChatLog forLogger(Logger logger) {
+        return new ChatLog(logger);
+    }
+
+    // TRACE registra uno de cada "traceSampleEvery" eventos de cada logger
+    public static void configure(Level level, int traceSampleEvery) {
+        ChatLog.threshold = level;
+        ChatLog.traceSampleEvery = Math.max(1, traceSampleEvery);
+    }
+
+    public static long getDroppedEvents() {
+        return DROPPED.get();
+    }
+
+    // Espera a que se escriba lo publicado hasta ahora (al apagar el servidor)
+    public static void flush(long timeoutMillis) {
+        long target = CLAIMED.get();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (consumed < target && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+    }
+
+    public boolean isTraceEnabled() {
+        return threshold == Level.TRACE;
+    }
+
+    public boolean isDebugEnabled() {
+        return threshold.compareTo(Level.DEBUG) <= 0;
+    }
+
+    public void trace(String template, Object first) {
+        if (sampleTrace()) {
+            publish(Level.TRACE, template, 1, first, null, null, null);
+        }
+    }
+
+    public void trace(String template, Object first, Object second) {
+        if (sampleTrace()) {
+            publish(Level.TRACE, template, 2, first, second, null, null);
+        }
+    }
+
+    public void trace(String template, Object first, Object second, Object third) {
+        if (sampleTrace()) {
+            publish(Level.TRACE, template, 3, first, second, third, null);
+        }
+    }
+
+    public void debug(String template, Object first) {
+        if (isDebugEnabled()) {
+            publish(Level.DEBUG, template, 1, first, null, null, null);
+        }
+    }
+
+    public void debug(String template, Object first, Object second) {
+        if (isDebugEnabled()) {
+            publish(Level.DEBUG, template, 2, first, second, null, null);
+        }
+    }
+
+    public void info(String message) {
+        log(Level.INFO, message, 0, null, null, null, null);
+    }
+
+    public void info(String template, Object first) {
+        log(Level.INFO, template, 1, first, null, null, null);
+    }
+
+    public void info(String template, Object first, Object second) {
+        log(Level.INFO, template, 2, first, second, null, null);
+    }
+
+    public void info(String template, Object first, Object second, Object third) {
+        log(Level.INFO, template, 3, first, second, third, null);
+    }
+
+    public void warn(String message) {
+        log(Level.WARN, message, 0, null, null, null, null);
+    }
+
+    public void warn(String template, Object first) {
+        log(Level.WARN, template, 1, first, null, null, null);
+    }
+
+    public void warn(String template, Object first, Object second) {
+        log(Level.WARN, template, 2, first, second, null, null);
+    }
+
+    public void warn(String template, Object first, Object second, Object third) {
+        log(Level.WARN, template, 3, first, second, third, null);
+    }
+
+    public void error(String template, Object first) {
+        log(Level.ERROR, template, 1, first, null, null, null);
+    }
+
+    public void error(String message, Throwable error) {
+        log(Level.ERROR, message, 0, null, null, null, error);
+    }
+
+    public void error(String template, Object first, Throwable error) {
+        log(Level.ERROR, template, 1, first, null, null, error);
+    }
+
+    private boolean sampleTrace() {
+        return isTraceEnabled() && traceCounter.getAndIncrement() % traceSampleEvery == 0;
+    }
+
+    private void log(Level level, String template, int argumentCount, Object first, Object second, Object third,
+            Throwable error) {
+        if (level.compareTo(threshold) >= 0) {
+            publish(level, template, argumentCount, first, second, third, error);
+        }
+    }
+
+    private void publish(Level level, String template, int argumentCount, Object first, Object second, Object third,
+            Throwable error) {
+        long sequence;
+        do {
+            sequence = CLAIMED.get();
+            if (sequence - consumed >= CAPACITY) {
+                DROPPED.incrementAndGet();
+                return;
+            }
+        } while (!CLAIMED.compareAndSet(sequence, sequence + 1));
+
+        Slot slot = RING[(int) (sequence & MASK)];
+        slot.logger = logger;
+        slot.level = level;
+        slot.template = template;
+        slot.argumentCount = argumentCount;
+        slot.first = first;
+        slot.second = second;
+        slot.third = third;
+        slot.error = error;
+        // Publicar después de llenar la ranura
+        slot.published = sequence;
+    }
+
+    private static void drainLoop() {
+        Logger self = LoggerFactory.getLogger(ChatLog.class);
+        long next = consumed;
+        long reportedDrops = 0;
+
+        while (true) {
+            Slot slot = RING[(int) (next & MASK)];
+            if (slot.published != next) {
+                long dropped = DROPPED.get();
+                if (dropped != reportedDrops) {
+                    self.warn("Log saturado: {} eventos descartados", dropped - reportedDrops);
+                    reportedDrops = dropped;
+                }
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+
+            try {
+                slot.write();
+            } catch (RuntimeException e) {
+                // Un evento mal formado no debe detener el hilo de log
+            }
+            slot.clear();
+            consumed = ++next;
+        }
+    }
+
+    private static void setDefault(String property, String value) {
+        if (System.getProperty(property) == null) {
+            System.setProperty(property, value);
+        }
+    }
+}
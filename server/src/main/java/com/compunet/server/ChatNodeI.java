@@ -0,0 +1,80 @@
+package com.compunet.server;
+
+import compunet.*;
+import com.zeroc.Ice.Current;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Servant que reciben los demás nodos del clúster
+public class ChatNodeI implements ChatNode {
+    private static final ChatLog log = ChatLog.forClass(ChatNodeI.class);
+
+    private final ChatCore chatCore;
+    private final WebSocketHandler webSocketHandler;
+
+    public ChatNodeI(ChatCore chatCore, WebSocketHandler webSocketHandler) {
+        this.chatCore = chatCore;
+        this.webSocketHandler = webSocketHandler;
+    }
+
+    @Override
+    public void deliverMessage(Message message, String[] recipients, String excludedUserId, Current current) {
+        try {
+            chatCore.deliverRemoteMessage(message, Arrays.asList(recipients),
+                    excludedUserId.isEmpty() ? null : excludedUserId);
+        } catch (Exception e) {
+            log.warn("Error al entregar mensaje de otro nodo: {}", e.getMessage());
+            throw e;
+        }
+    }
+
+    @Override
+    public void deliverNewGroup(ChatSummary chatSummary, String[] recipients, Current current) {
+        try {
+            chatCore.deliverRemoteNewGroup(chatSummary, Arrays.asList(recipients));
+        } catch (Exception e) {
+            log.warn("Error al entregar grupo de otro nodo: {}", e.getMessage());
+            throw e;
+        }
+    }
+
+    @Override
+    public void deliverSignal(String toUserId, String frame, Current current) {
+        try {
+            webSocketHandler.deliverSignal(toUserId, frame);
+        } catch (Exception e) {
+            log.warn("Error al entregar señalización de otro nodo: {}", e.getMessage());
+            throw e;
+        }
+    }
+
+    @Override
+    public void deliverSignalBytes(String toUserId, byte[] frame, Current current) {
+        try {
+            webSocketHandler.deliverSignal(toUserId, frame);
+        } catch (Exception e) {
+            log.warn("Error al entregar señalización de otro nodo: {}", e.getMessage());
+            throw e;
+        }
+    }
+
+    @Override
+    public void replicate(byte type, byte[] payload, Current current) {
+        try {
+            chatCore.applyReplica(LogRecord.decode(type, ByteBuffer.wrap(payload)));
+        } catch (Exception e) {
+            log.warn("Error al aplicar replicación: {}", e.getMessage());
+            throw e;
+        }
+    }
+
+    @Override
+    public SearchPage searchLocal(String userId, String query, long cursor, int limit, Current current) {
+        try {
+            return chatCore.searchMessages(userId, query, cursor, limit);
+        } catch (Exception e) {
+            log.warn("Error al buscar mensajes para otro nodo: {}", e.getMessage());
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package com.compunet.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Persistencia de ChatCore. La instantánea periódica guarda usuarios y grupos completos, y los mensajes de
+// forma incremental: cada instantánea agrega un archivo de historial con solo los mensajes nuevos desde la
+// anterior (los archivos se fusionan de a pares para que no se acumulen). Al arrancar se cargan la instantánea
+// y los archivos de historial, y del log solo se reproduce la cola posterior; los segmentos cubiertos se borran.
+public class ChatPersistence implements AutoCloseable {
+    private static final ChatLog logger = ChatLog.forClass(ChatPersistence.class);
+
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+    private static final String HISTORY_PREFIX = "history-";
+    private static final byte SNAPSHOT_END = 0x7f;
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final long snapshotIntervalSeconds;
+
+    private ChatCore chatCore;
+    private MessageLog log;
+    private ScheduledExecutorService scheduler;
+    private long lastSnapshotSequence;
+    // Último id de mensaje ya escrito en los archivos de historial, por conversación
+    private Map<String, Long> archivedThrough = new HashMap<>();
+    // Los archivos de historial se nombran por generación (history-<primera>-<última>.snap)
+    private long lastHistoryGeneration;
+
+    public ChatPersistence(Path directory, long segmentBytes, long snapshotIntervalSeconds) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.snapshotIntervalSeconds = snapshotIntervalSeconds;
+    }
+
+    // Reconstruye ChatCore desde la última instantánea y la cola del log, y empieza a registrar cambios
+    public void recover(ChatCore chatCore) throws IOException {
+        this.chatCore = chatCore;
+        Files.createDirectories(directory);
+
+        long start = System.currentTimeMillis();
+        long[] records = { 0 };
+
+        Path snapshot = latestSnapshot();
+        long snapshotSequence = 0;
+        if (snapshot != null) {
+            snapshotSequence = sequenceOf(snapshot);
+            readSnapshotFile(snapshot, record -> {
+                chatCore.restore(record);
+                records[0]++;
+            });
+        }
+
+        List<Path> histories = listHistories();
+        for (Path history : histories) {
+            lastHistoryGeneration = Math.max(lastHistoryGeneration, rangeOf(history)[1]);
+            readSnapshotFile(history, record -> {
+                chatCore.restore(record);
+                archivedThrough.merge(ChatCore.archiveKey(record.message), Long.parseLong(record.message.id),
+                        Math::max);
+                records[0]++;
+            });
+        }
+
+        // Solo la cola posterior a la instantánea. Sin archivos de historial (datos anteriores a este formato)
+        // los mensajes siguen en los segmentos y se reproducen todos.
+        long coveredSequence = snapshotSequence;
+        long replayFrom = histories.isEmpty() ? 0 : snapshotSequence;
+        long lastSequence = MessageLog.replay(directory, replayFrom, (sequence, type, payload) -> {
+            if (type == LogRecord.MESSAGE || sequence > coveredSequence) {
+                chatCore.restore(LogRecord.decode(type, payload));
+                records[0]++;
+            }
+        });
+        lastSequence = Math.max(lastSequence, snapshotSequence);
+
+        lastSnapshotSequence = snapshotSequence;
+        log = MessageLog.open(directory, segmentBytes, lastSequence);
+        chatCore.setPersistence(this);
+
+        logger.info("Estado recuperado: {} registros en {} ms", records[0], System.currentTimeMillis() - start);
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "chat-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::snapshotQuietly, snapshotIntervalSeconds, snapshotIntervalSeconds,
+                TimeUnit.SECONDS);
+    }
+
+    void append(LogRecord record) {
+        log.append(record);
+    }
+
+    // La instantánea puede incluir cambios posteriores a su secuencia: la recuperación es idempotente.
+    // Primero se escribe el historial nuevo y después el estado; recién entonces se borran los segmentos cubiertos.
+    public synchronized void snapshot() throws IOException {
+        long sequence = log.getLastSequence();
+        if (sequence == lastSnapshotSequence) {
+            return;
+        }
+
+        Map<String, Long> marks = new HashMap<>(archivedThrough);
+        long[] messages = { 0 };
+        long generation = lastHistoryGeneration + 1;
+        Path history = directory.resolve(String.format("%s%020d-%020d%s", HISTORY_PREFIX, generation, generation,
+                SNAPSHOT_SUFFIX));
+        writeSnapshotFile(history, sequence, consumer -> chatCore.forEachNewMessage(marks, message -> {
+            consumer.accept(LogRecord.message(message));
+            messages[0]++;
+        }));
+        archivedThrough = marks;
+        if (messages[0] == 0 && generation > 1) {
+            // Sin mensajes nuevos no hace falta otro archivo; el primero se conserva siempre
+            Files.delete(history);
+        } else {
+            lastHistoryGeneration = generation;
+        }
+
+        Path target = directory.resolve(String.format("%s%020d%s", SNAPSHOT_PREFIX, sequence, SNAPSHOT_SUFFIX));
+        writeSnapshotFile(target, sequence, chatCore::forEachRecord);
+        lastSnapshotSequence = sequence;
+
+        for (Path old : listSnapshots()) {
+            if (!old.equals(target)) {
+                Files.deleteIfExists(old);
+            }
+        }
+        compactHistories();
+        int segments = MessageLog.deleteCoveredSegments(directory, sequence);
+        logger.info("Instantánea guardada hasta el registro {} ({} mensajes nuevos, {} segmentos borrados)", sequence,
+                messages[0], segments);
+    }
+
+    // Escribe los registros en un temporal y lo mueve de forma atómica al destino
+    private void writeSnapshotFile(Path target, long sequence, Consumer<Consumer<LogRecord>> producer)
+            throws IOException {
+        Path temporary = directory.resolve(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(4 * 1024 * 1024);
+            IOException[] failure = { null };
+
+            producer.accept(record -> {
+                if (failure[0] == null) {
+                    try {
+                        MessageLog.writeFrame(channel, buffer, sequence, record.type, record.encode());
+                    } catch (IOException e) {
+                        failure[0] = e;
+                    }
+                }
+            });
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+
+            MessageLog.writeFrame(channel, buffer, sequence, SNAPSHOT_END, new byte[1]);
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void readSnapshotFile(Path file, Consumer<LogRecord> consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MessageLog.readFrames(channel, (sequence, type, payload) -> {
+                if (type != SNAPSHOT_END) {
+                    consumer.accept(LogRecord.decode(type, payload));
+                }
+            });
+        }
+    }
+
+    // Fusiona el último archivo de historial con el anterior mientras el anterior no sea más del doble de grande:
+    // quedan O(log n) archivos y cada mensaje se reescribe O(log n) veces en total.
+    private void compactHistories() throws IOException {
+        List<Path> histories = listHistories();
+        while (histories.size() >= 2) {
+            Path newest = histories.get(histories.size() - 1);
+            Path previous = histories.get(histories.size() - 2);
+            if (Files.size(previous) > 2 * Files.size(newest)) {
+                break;
+            }
+
+            Path merged = directory.resolve(String.format("%s%020d-%020d%s", HISTORY_PREFIX,
+                    rangeOf(previous)[0], rangeOf(newest)[1], SNAPSHOT_SUFFIX));
+            Path temporary = directory.resolve(merged.getFileName() + ".tmp");
+            try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                // Se copian los registros tal cual; el cierre del primero se omite
+                transfer(previous, out, Files.size(previous) - (MessageLog.HEADER_BYTES + 1));
+                transfer(newest, out, Files.size(newest));
+                out.force(true);
+            }
+            Files.move(temporary, merged, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            Files.deleteIfExists(previous);
+            Files.deleteIfExists(newest);
+
+            histories.remove(histories.size() - 1);
+            histories.set(histories.size() - 1, merged);
+        }
+    }
+
+    private static void transfer(Path source, FileChannel out, long bytes) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+            long position = 0;
+            while (position < bytes) {
+                position += in.transferTo(position, bytes - position, out);
+            }
+        }
+    }
+
+    private void snapshotQuietly() {
+        try {
+            snapshot();
+        } catch (Exception e) {
+            logger.error("Error guardando instantánea", e);
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            scheduler.awaitTermination(30, TimeUnit.SECONDS);
+        }
+        if (log != null) {
+            log.flush();
+            snapshotQuietly();
+            log.close();
+        }
+    }
+
+    // Archivos de historial completos, ordenados por rango. Si una caída dejó a medias una fusión, los archivos
+    // ya incluidos en el fusionado se borran.
+    private List<Path> listHistories() throws IOException {
+        List<Path> complete = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+                HISTORY_PREFIX + "*" + SNAPSHOT_SUFFIX)) {
+            for (Path path : stream) {
+                if (isComplete(path)) {
+                    complete.add(path);
+                }
+            }
+        }
+        complete.sort(Comparator.<Path>comparingLong(path -> rangeOf(path)[0])
+                .thenComparing(Comparator.<Path>comparingLong(path -> rangeOf(path)[1]).reversed()));
+
+        List<Path> result = new ArrayList<>();
+        long coveredTo = 0;
+        for (Path path : complete) {
+            if (rangeOf(path)[1] <= coveredTo) {
+                Files.deleteIfExists(path);
+                continue;
+            }
+            coveredTo = rangeOf(path)[1];
+            result.add(path);
+        }
+        return result;
+    }
+
+    private static long[] rangeOf(Path history) {
+        String name = history.getFileName().toString();
+        String[] range = name.substring(HISTORY_PREFIX.length(), name.length() - SNAPSHOT_SUFFIX.length()).split("-");
+        return new long[] { Long.parseLong(range[0]), Long.parseLong(range[1]) };
+    }
+
+    private Path latestSnapshot() throws IOException {
+        List<Path> snapshots = listSnapshots();
+        return snapshots.isEmpty() ? null : snapshots.get(snapshots.size() - 1);
+    }
+
+    private List<Path> listSnapshots() throws IOException {
+        List<Path> result = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+                SNAPSHOT_PREFIX + "*" + SNAPSHOT_SUFFIX)) {
+            for (Path path : stream) {
+                if (isComplete(path)) {
+                    result.add(path);
+                }
+            }
+        }
+        result.sort(Comparator.comparingLong(ChatPersistence::sequenceOf));
+        return result;
+    }
+
+    // Una instantánea solo es válida si termina con el registro de cierre
+    private static boolean isComplete(Path snapshot) throws IOException {
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int endFrame = MessageLog.HEADER_BYTES + 1;
+            if (size < endFrame) {
+                return false;
+            }
+            ByteBuffer tail = ByteBuffer.allocate(endFrame);
+            channel.read(tail, size - endFrame);
+            return tail.getInt(0) == 1 && tail.get(MessageLog.HEADER_BYTES - 1) == SNAPSHOT_END;
+        }
+    }
+
+    private static long sequenceOf(Path snapshot) {
+        String name = snapshot.getFileName().toString();
+        return Long.parseLong(name.substring(SNAPSHOT_PREFIX.length(), name.length() - SNAPSHOT_SUFFIX.length()));
+    }
+}
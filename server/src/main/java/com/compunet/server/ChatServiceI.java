@@ -2,13 +2,30 @@ package com.compunet.server;
 
 import compunet.*;
 import com.zeroc.Ice.Current;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class ChatServiceI implements ChatService {
+    private static final ChatLog log = ChatLog.forClass(ChatServiceI.class);
+
     private final ChatCore chatCore;
+    private final Cluster cluster;
+    private final Admission admission;
 
     public ChatServiceI(ChatCore chatCore) {
+        this(chatCore, Cluster.standalone());
+    }
+
+    public ChatServiceI(ChatCore chatCore, Cluster cluster) {
+        this(chatCore, cluster, Admission.unlimited());
+    }
+
+    // En clúster, las operaciones sobre conversaciones de otro nodo se reenvían a ese nodo
+    public ChatServiceI(ChatCore chatCore, Cluster cluster, Admission admission) {
         this.chatCore = chatCore;
+        this.cluster = cluster;
+        this.admission = admission;
     }
 
     @Override
@@ -16,7 +33,7 @@ public class ChatServiceI implements ChatService {
         try {
             chatCore.registerUser(userId, userName);
         } catch (Exception e) {
-            System.err.println("Error al registrar usuario: " + e.getMessage());
+            log.warn("Error al registrar usuario: {}", e.getMessage());
             throw e;
         }
     }
@@ -26,7 +43,7 @@ public class ChatServiceI implements ChatService {
         try {
             return chatCore.getUser(userId);
         } catch (Exception e) {
-            System.err.println("Error al obtener usuario: " + e.getMessage());
+            log.warn("Error al obtener usuario: {}", e.getMessage());
             throw e;
         }
     }
@@ -37,27 +54,148 @@ public class ChatServiceI implements ChatService {
             List<User> users = chatCore.getAllUsers();
             return users.toArray(new User[0]);
         } catch (Exception e) {
-            System.err.println("Error al obtener usuarios: " + e.getMessage());
+            log.warn("Error al obtener usuarios: {}", e.getMessage());
+            throw e;
+        }
+    }
+
+    @Override
+    public UserDelta getUsersSince(long version, Current current) {
+        try {
+            return chatCore.getUsersSince(version);
+        } catch (Exception e) {
+            log.warn("Error al obtener cambios de usuarios: {}", e.getMessage());
             throw e;
         }
     }
 
     @Override
-    public void sendDirectMessage(String fromUserId, String toUserId, String content, Current current) {
+    public User[] searchUsers(String prefix, int limit, Current current) {
         try {
+            List<User> users = chatCore.searchUsers(prefix, limit);
+            return users.toArray(new User[0]);
+        } catch (Exception e) {
+            log.warn("Error al buscar usuarios: {}", e.getMessage());
+            throw e;
+        }
+    }
+
+    @Override
+    public void sendDirectMessage(String fromUserId, String toUserId, String content,
+            Current current) throws RateLimitExceeded {
+        // La admisión la aplica solo el nodo dueño de la conversación: un envío reenviado se cobra una vez
+        ChatServicePrx owner = cluster.chatServiceFor(ChatCore.getChatKey(fromUserId, toUserId));
+        if (owner == null) {
+            admission.checkUser(fromUserId);
+        }
+        try {
+            if (owner != null) {
+                owner.sendDirectMessage(fromUserId, toUserId, content);
+                return;
+            }
             chatCore.sendDirectMessage(fromUserId, toUserId, content);
         } catch (Exception e) {
-            System.err.println("Error al enviar mensaje directo: " + e.getMessage());
+            log.warn("Error al enviar mensaje directo: {}", e.getMessage());
             throw e;
         }
     }
 
     @Override
-    public void sendDirectAudio(String fromUserId, String toUserId, String audioData, int duration, Current current) {
+    public void sendDirectAudio(String fromUserId, String toUserId, String audioData, int duration,
+            Current current) throws RateLimitExceeded {
+        ChatServicePrx owner = cluster.chatServiceFor(ChatCore.getChatKey(fromUserId, toUserId));
+        if (owner == null) {
+            admission.checkUser(fromUserId);
+        }
         try {
+            if (owner != null) {
+                owner.sendDirectAudio(fromUserId, toUserId, audioData, duration);
+                return;
+            }
             chatCore.sendDirectAudio(fromUserId, toUserId, audioData, duration);
         } catch (Exception e) {
-            System.err.println("Error al enviar audio directo: " + e.getMessage());
+            log.warn("Error al enviar audio directo: {}", e.getMessage());
+            throw e;
+        }
+    }
+
+    @Override
+    public String uploadAudio(String userId, byte[] data, Current current) throws RateLimitExceeded {
+        admission.checkUser(userId);
+        try {
+            return chatCore.uploadAudio(userId, data);
+        } catch (Exception e) {
+            log.warn("Error al subir audio: {}", e.getMessage());
+            throw e;
+        }
+    }
+
+    @Override
+    public String beginAudioUpload(String userId, long size, Current current) throws RateLimitExceeded {
+        admission.checkUser(userId);
+        try {
+            return chatCore.beginAudioUpload(userId, size);
+        } catch (Exception e) {
+            log.warn("Error al iniciar la subida de audio: {}", e.getMessage());
+            throw e;
+        }
+    }
+
+    @Override
+    public void appendAudioUpload(String uploadId, long offset, byte[] chunk, Current current) {
+        try {
+            chatCore.appendAudioUpload(uploadId, offset, chunk);
+        } catch (Exception e) {
+            log.warn("Error al subir parte de audio: {}", e.getMessage());
+            throw e;
+        }
+    }
+
+    @Override
+    public String commitAudioUpload(String uploadId, Current current) {
+        try {
+            return chatCore.commitAudioUpload(uploadId);
+        } catch (Exception e) {
+            log.warn("Error al completar la subida de audio: {}", e.getMessage());
+            throw e;
+        }
+    }
+
+    @Override
+    public void sendDirectAudioRef(String fromUserId, String toUserId, String audioRef, int duration,
+            Current current) throws RateLimitExceeded {
+        ChatServicePrx owner = cluster.chatServiceFor(ChatCore.getChatKey(fromUserId, toUserId));
+        if (owner == null) {
+            admission.checkUser(fromUserId);
+        }
+        try {
+            if (owner != null) {
+                owner.sendDirectAudioRef(fromUserId, toUserId, audioRef, duration);
+                return;
+            }
+            chatCore.sendDirectAudioRef(fromUserId, toUserId, audioRef, duration);
+        } catch (Exception e) {
+            log.warn("Error al enviar audio directo: {}", e.getMessage());
+            throw e;
+        }
+    }
+
+    @Override
+    public long getAudioSize(String audioRef, Current current) {
+        try {
+            return chatCore.getAudioSize(audioRef);
+        } catch (Exception e) {
+            log.warn("Error al obtener tamaño de audio: {}", e.getMessage());
+            throw e;
+        }
+    }
+
+    @Override
+    public byte[] downloadAudioChunk(String audioRef, long offset, int length, Current current) {
+        try {
+            return chatCore.downloadAudioChunk(audioRef, offset, length);
+        } catch (Exception e) {
+            log.warn("Error al descargar audio: {}", e.getMessage());
             throw e;
         }
     }
@@ -65,10 +203,29 @@ public class ChatServiceI implements ChatService {
     @Override
     public Message[] getDirectChatMessages(String userId, String otherUserId, Current current) {
         try {
-            List<Message> messages = chatCore.getDirectChatMessages(userId, otherUserId);
+            ChatServicePrx owner = cluster.chatServiceFor(ChatCore.getChatKey(userId, otherUserId));
+            if (owner != null) {
+                return owner.getDirectChatMessages(userId, otherUserId);
+            }
+            return chatCore.getDirectChatMessages(userId, otherUserId).toArray(new Message[0]);
+        } catch (Exception e) {
+            log.warn("Error al obtener mensajes directos: {}", e.getMessage());
+            throw e;
+        }
+    }
+
+    @Override
+    public Message[] getDirectChatMessagesPage(String userId, String otherUserId, long cursor,
+            PageDirection direction, int limit, Current current) {
+        try {
+            ChatServicePrx owner = cluster.chatServiceFor(ChatCore.getChatKey(userId, otherUserId));
+            if (owner != null) {
+                return owner.getDirectChatMessagesPage(userId, otherUserId, cursor, direction, limit);
+            }
+            List<Message> messages = chatCore.getDirectChatMessagesPage(userId, otherUserId, cursor, direction, limit);
             return messages.toArray(new Message[0]);
         } catch (Exception e) {
-            System.err.println("Error al obtener mensajes directos: " + e.getMessage());
+            log.warn("Error al obtener página de mensajes directos: {}", e.getMessage());
             throw e;
         }
     }
@@ -76,12 +233,241 @@ public class ChatServiceI implements ChatService {
     @Override
     public ChatSummary[] getUserDirectChats(String userId, Current current) {
         try {
+            ChatServicePrx owner = cluster.chatServiceFor(userId);
+            if (owner != null) {
+                return owner.getUserDirectChats(userId);
+            }
             List<ChatSummary> chats = chatCore.getUserDirectChats(userId);
             return chats.toArray(new ChatSummary[0]);
         } catch (Exception e) {
-            System.err.println("Error al obtener chats directos: " + e.getMessage());
+            log.warn("Error al obtener chats directos: {}", e.getMessage());
+            throw e;
+        }
+    }
+
+    @Override
+    public void sendMessages(String fromUserId, OutgoingMessage[] messages, Current current) throws RateLimitExceeded {
+        try {
+            // Tramos consecutivos del mismo nodo: una llamada por tramo y se conserva el orden.
+            // Cada tramo lo admite (y lo cobra entero) el nodo que lo guarda; sin clúster es un solo tramo
+            ChatServicePrx[] owners = new ChatServicePrx[messages.length];
+            for (int i = 0; i < messages.length; i++) {
+                owners[i] = cluster.chatServiceFor(conversationKey(fromUserId, messages[i].chatId, messages[i].isGroup));
+            }
+            int start = 0;
+            while (start < messages.length) {
+                int end = start + 1;
+                while (end < messages.length && owners[end] == owners[start]) {
+                    end++;
+                }
+                OutgoingMessage[] run = Arrays.copyOfRange(messages, start, end);
+                if (owners[start] != null) {
+                    owners[start].sendMessages(fromUserId, run);
+                } else {
+                    admitBatch(fromUserId, run);
+                    chatCore.sendMessages(fromUserId, run);
+                }
+                start = end;
+            }
+        } catch (Exception e) {
+            log.warn("Error al enviar lote de mensajes: {}", e.getMessage());
+            throw e;
+        }
+    }
+
+    private void admitBatch(String fromUserId, OutgoingMessage[] messages) throws RateLimitExceeded {
+        Map<String, Integer> groupMessages = new HashMap<>();
+        for (OutgoingMessage message : messages) {
+            if (message.isGroup) {
+                groupMessages.merge(message.chatId, 1, Integer::sum);
+            }
+        }
+        admission.checkSend(fromUserId, messages.length, groupMessages);
+    }
+
+    @Override
+    public ConversationHead[] getConversationHeads(String userId, ConversationRef[] conversations, int limit,
+            Current current) {
+        try {
+            ConversationHead[] heads = new ConversationHead[conversations.length];
+
+            // Las conversaciones de otros nodos se piden en paralelo, una llamada por nodo
+            ChatServicePrx[] owners = new ChatServicePrx[conversations.length];
+            Map<ChatServicePrx, List<Integer>> remote = new HashMap<>();
+            for (int i = 0; i < conversations.length; i++) {
+                owners[i] = cluster.chatServiceFor(
+                        conversationKey(userId, conversations[i].chatId, conversations[i].isGroup));
+                if (owners[i] != null) {
+                    remote.computeIfAbsent(owners[i], k -> new ArrayList<>()).add(i);
+                }
+            }
+            Map<List<Integer>, CompletableFuture<ConversationHead[]>> pending = new HashMap<>();
+            for (Map.Entry<ChatServicePrx, List<Integer>> entry : remote.entrySet()) {
+                List<Integer> indexes = entry.getValue();
+                ConversationRef[] batch = new ConversationRef[indexes.size()];
+                for (int i = 0; i < batch.length; i++) {
+                    batch[i] = conversations[indexes.get(i)];
+                }
+                pending.put(indexes, entry.getKey().getConversationHeadsAsync(userId, batch, limit));
+            }
+
+            for (int i = 0; i < conversations.length; i++) {
+                if (owners[i] == null) {
+                    heads[i] = chatCore.getConversationHead(userId, conversations[i], limit);
+                }
+            }
+
+            for (Map.Entry<List<Integer>, CompletableFuture<ConversationHead[]>> entry : pending.entrySet()) {
+                ConversationHead[] batch = join(entry.getValue());
+                List<Integer> indexes = entry.getKey();
+                for (int i = 0; i < batch.length; i++) {
+                    heads[indexes.get(i)] = batch[i];
+                }
+            }
+            return heads;
+        } catch (Exception e) {
+            log.warn("Error al obtener últimos mensajes: {}", e.getMessage());
+            throw e;
+        }
+    }
+
+    @Override
+    public Inbox getInbox(String userId, Current current) {
+        try {
+            ChatServicePrx owner = cluster.chatServiceFor(userId);
+            if (owner != null) {
+                return owner.getInbox(userId);
+            }
+            return chatCore.getInbox(userId);
+        } catch (Exception e) {
+            log.warn("Error al obtener bandeja de entrada: {}", e.getMessage());
             throw e;
         }
     }
 
+    @Override
+    public SearchPage searchMessages(String userId, String query, String cursor, int limit, Current current) {
+        try {
+            if (!cluster.isEnabled()) {
+                return chatCore.searchMessages(userId, query, parseCursor(cursor), limit);
+            }
+            return searchCluster(userId, query, cursor, limit);
+        } catch (Exception e) {
+            log.warn("Error al buscar mensajes: {}", e.getMessage());
+            throw e;
+        }
+    }
+
+    // El cursor viene del cliente: uno mal formado se rechaza con un error claro
+    static long parseCursor(String cursor) {
+        if (cursor.isEmpty()) {
+            return 0;
+        }
+        try {
+            long position = Long.parseLong(cursor);
+            if (position >= 0) {
+                return position;
+            }
+        } catch (NumberFormatException e) {
+            // Se informa abajo
+        }
+        throw new RuntimeException("Cursor de búsqueda inválido: " + cursor);
+    }
+
+    static Map<String, Long> parseClusterCursor(String cursor) {
+        Map<String, Long> positions = new TreeMap<>();
+        for (String part : cursor.split(",")) {
+            int separator = part.lastIndexOf('=');
+            if (separator <= 0 || separator == part.length() - 1) {
+                throw new RuntimeException("Cursor de búsqueda inválido: " + cursor);
+            }
+            positions.put(part.substring(0, separator), parseCursor(part.substring(separator + 1)));
+        }
+        return positions;
+    }
+
+    // Cada nodo indexa sus propias conversaciones: se consulta a todos en paralelo y se mezclan
+    // los resultados por id de mensaje (comparables entre nodos). El cursor guarda la posición
+    // de cada nodo ("nodo=posición,..."); un nodo que no aparece ya no tiene más resultados.
+    private SearchPage searchCluster(String userId, String query, String cursor, int limit) {
+        String localNodeId = cluster.getLocalNodeId();
+        Map<String, ChatNodePrx> peers = cluster.getPeerNodes();
+        Map<String, Long> positions = new TreeMap<>();
+        if (cursor.isEmpty()) {
+            positions.put(localNodeId, 0L);
+            for (String nodeId : peers.keySet()) {
+                positions.put(nodeId, 0L);
+            }
+        } else {
+            positions.putAll(parseClusterCursor(cursor));
+        }
+
+        Map<String, CompletableFuture<SearchPage>> pending = new TreeMap<>();
+        for (Map.Entry<String, Long> entry : positions.entrySet()) {
+            ChatNodePrx node = peers.get(entry.getKey());
+            if (node != null) {
+                pending.put(entry.getKey(), node.searchLocalAsync(userId, query, entry.getValue(), limit));
+            }
+        }
+        Map<String, SearchPage> pages = new TreeMap<>();
+        if (positions.containsKey(localNodeId)) {
+            pages.put(localNodeId, chatCore.searchMessages(userId, query, positions.get(localNodeId), limit));
+        }
+        for (Map.Entry<String, CompletableFuture<SearchPage>> entry : pending.entrySet()) {
+            pages.put(entry.getKey(), join(entry.getValue()));
+        }
+
+        List<SearchHit> merged = new ArrayList<>();
+        Map<SearchHit, String> nodeOf = new IdentityHashMap<>();
+        for (Map.Entry<String, SearchPage> entry : pages.entrySet()) {
+            for (SearchHit hit : entry.getValue().hits) {
+                merged.add(hit);
+                nodeOf.put(hit, entry.getKey());
+            }
+        }
+        merged.sort((a, b) -> Long.compare(Long.parseLong(b.message.id), Long.parseLong(a.message.id)));
+        List<SearchHit> taken = merged.subList(0, Math.min(merged.size(), ChatCore.pageSize(limit)));
+
+        Map<String, Integer> takenPerNode = new HashMap<>();
+        Map<String, Long> lastTaken = new HashMap<>();
+        for (SearchHit hit : taken) {
+            takenPerNode.merge(nodeOf.get(hit), 1, Integer::sum);
+            lastTaken.put(nodeOf.get(hit), hit.position);
+        }
+
+        StringBuilder next = new StringBuilder();
+        for (Map.Entry<String, SearchPage> entry : pages.entrySet()) {
+            String nodeId = entry.getKey();
+            SearchPage page = entry.getValue();
+            String position;
+            if (takenPerNode.getOrDefault(nodeId, 0) == page.hits.length) {
+                position = page.nextCursor;
+            } else if (lastTaken.containsKey(nodeId)) {
+                position = String.valueOf(lastTaken.get(nodeId));
+            } else {
+                // No se tomó nada de este nodo: se retoma desde su primer resultado
+                position = String.valueOf(page.hits[0].position + 1);
+            }
+            // La posición 0 no deja nada por debajo
+            if (!position.isEmpty() && !position.equals("0")) {
+                next.append(next.length() == 0 ? "" : ",").append(nodeId).append('=').append(position);
+            }
+        }
+        return new SearchPage(taken.toArray(new SearchHit[0]), next.toString());
+    }
+
+    private static String conversationKey(String userId, String chatId, boolean isGroup) {
+        return isGroup ? chatId : ChatCore.getChatKey(userId, chatId);
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,253 @@
+package com.compunet.server;
+
+import com.zeroc.Ice.Communicator;
+import com.zeroc.Ice.InvocationTimeoutException;
+import com.zeroc.Ice.Properties;
+import compunet.*;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+// Modo clúster: usuarios y conversaciones se reparten entre nodos por hash consistente.
+// Cada nodo guarda las conversaciones que le tocan y atiende el WebSocket de sus usuarios;
+// usuarios y grupos se replican a todos. Entre nodos se habla por Ice (interfaz ChatNode).
+// Sin Chat.Cluster.NodeId el servidor funciona como un solo nodo.
+public class Cluster {
+    private static final ChatLog log = ChatLog.forClass(Cluster.class);
+
+    // Los ids de mensaje reservan 4 bits para el índice del nodo
+    public static final int MAX_NODES = 16;
+
+    private static final class Peer {
+        final String id;
+        final String webSocketUrl;
+        final ChatServicePrx chatService;
+        final GroupServicePrx groupService;
+        final ChatNodePrx node;
+        final ChatNodePrx onewayNode;
+
+        Peer(String id, String webSocketUrl, ChatServicePrx chatService, GroupServicePrx groupService,
+                ChatNodePrx node, int invocationTimeoutMs) {
+            this.id = id;
+            this.webSocketUrl = webSocketUrl;
+            // Historiales, búsquedas y replicación viajan comprimidos (Ice no comprime mensajes de
+            // menos de 100 bytes); las entregas oneway y la señalización, que son pequeñas, no.
+            // Las llamadas con respuesta tienen timeout: un nodo colgado no bloquea a quien lo llama
+            this.chatService = chatService.ice_compress(true).ice_invocationTimeout(invocationTimeoutMs);
+            this.groupService = groupService.ice_compress(true).ice_invocationTimeout(invocationTimeoutMs);
+            this.node = node.ice_compress(true).ice_invocationTimeout(invocationTimeoutMs);
+            this.onewayNode = node.ice_oneway();
+        }
+    }
+
+    private final String localNodeId;
+    private final int localNodeIndex;
+    private final HashRing ring;
+    private final Map<String, Peer> peers;
+
+    Cluster(String localNodeId, int localNodeIndex, HashRing ring, Map<String, Peer> peers) {
+        this.localNodeId = localNodeId;
+        this.localNodeIndex = localNodeIndex;
+        this.ring = ring;
+        this.peers = peers;
+    }
+
+    public static Cluster standalone() {
+        return new Cluster(null, 0, null, Collections.emptyMap());
+    }
+
+    // Chat.Cluster.Nodes debe ser la misma lista, en el mismo orden, en todos los nodos
+    public static Cluster fromProperties(Communicator communicator, Properties properties) {
+        String localNodeId = properties.getPropertyWithDefault("Chat.Cluster.NodeId", "");
+        if (localNodeId.isEmpty()) {
+            return standalone();
+        }
+
+        List<String> nodeIds = new ArrayList<>();
+        for (String nodeId : properties.getPropertyWithDefault("Chat.Cluster.Nodes", localNodeId).split(",")) {
+            if (!nodeId.trim().isEmpty()) {
+                nodeIds.add(nodeId.trim());
+            }
+        }
+        if (!nodeIds.contains(localNodeId)) {
+            throw new RuntimeException("El nodo " + localNodeId + " no está en Chat.Cluster.Nodes");
+        }
+        if (nodeIds.size() > MAX_NODES) {
+            throw new RuntimeException("El clúster admite como máximo " + MAX_NODES + " nodos");
+        }
+
+        int invocationTimeoutMs = properties.getPropertyAsIntWithDefault("Chat.Cluster.InvocationTimeoutMs", 5000);
+        Map<String, Peer> peers = new HashMap<>();
+        for (String nodeId : nodeIds) {
+            if (nodeId.equals(localNodeId)) {
+                continue;
+            }
+            String endpoints = properties.getProperty("Chat.Cluster.Node." + nodeId + ".Endpoints");
+            if (endpoints.isEmpty()) {
+                throw new RuntimeException("Falta Chat.Cluster.Node." + nodeId + ".Endpoints");
+            }
+            peers.put(nodeId, new Peer(
+                    nodeId,
+                    properties.getProperty("Chat.Cluster.Node." + nodeId + ".WebSocket"),
+                    ChatServicePrx.uncheckedCast(communicator.stringToProxy("chat:" + endpoints)),
+                    GroupServicePrx.uncheckedCast(communicator.stringToProxy("group:" + endpoints)),
+                    ChatNodePrx.uncheckedCast(communicator.stringToProxy("node:" + endpoints)),
+                    invocationTimeoutMs));
+        }
+
+        HashRing ring = new HashRing(nodeIds,
+                properties.getPropertyAsIntWithDefault("Chat.Cluster.VirtualNodes", 128));
+        log.info("Nodo {} del clúster ({} nodos)", localNodeId, nodeIds.size());
+
+        return new Cluster(localNodeId, nodeIds.indexOf(localNodeId), ring, peers);
+    }
+
+    public boolean isEnabled() {
+        return ring != null;
+    }
+
+    public String getLocalNodeId() {
+        return localNodeId;
+    }
+
+    public int getLocalNodeIndex() {
+        return localNodeIndex;
+    }
+
+    // Proxies de los demás nodos por id, para operaciones que consultan a todo el clúster
+    public Map<String, ChatNodePrx> getPeerNodes() {
+        Map<String, ChatNodePrx> nodes = new TreeMap<>();
+        for (Peer peer : peers.values()) {
+            nodes.put(peer.id, peer.node);
+        }
+        return nodes;
+    }
+
+    // Proxy del nodo dueño de la clave, o null si la clave es de este nodo
+    public ChatServicePrx chatServiceFor(String key) {
+        Peer peer = ownerPeer(key);
+        return peer != null ? peer.chatService : null;
+    }
+
+    public GroupServicePrx groupServiceFor(String key) {
+        Peer peer = ownerPeer(key);
+        return peer != null ? peer.groupService : null;
+    }
+
+    // URL del WebSocket donde debe conectarse el usuario, o null si es este nodo
+    public String webSocketUrlFor(String userId) {
+        Peer peer = ownerPeer(userId);
+        return peer != null ? peer.webSocketUrl : null;
+    }
+
+    // Envía a cada nodo sus destinatarios y devuelve los que atiende este nodo
+    public Collection<String> routeMessage(Message message, Collection<String> recipients, String excludedUserId) {
+        if (ring == null) {
+            return recipients;
+        }
+
+        List<String> local = new ArrayList<>();
+        Map<Peer, List<String>> remote = partition(recipients, local);
+        for (Map.Entry<Peer, List<String>> entry : remote.entrySet()) {
+            Peer peer = entry.getKey();
+            String[] batch = entry.getValue().toArray(new String[0]);
+            report(peer, "mensaje", peer.onewayNode.deliverMessageAsync(message, batch,
+                    excludedUserId == null ? "" : excludedUserId));
+        }
+        return local;
+    }
+
+    public Collection<String> routeNewGroup(ChatSummary chatSummary, Collection<String> recipients) {
+        if (ring == null) {
+            return recipients;
+        }
+
+        List<String> local = new ArrayList<>();
+        Map<Peer, List<String>> remote = partition(recipients, local);
+        for (Map.Entry<Peer, List<String>> entry : remote.entrySet()) {
+            Peer peer = entry.getKey();
+            String[] batch = entry.getValue().toArray(new String[0]);
+            report(peer, "grupo", peer.onewayNode.deliverNewGroupAsync(chatSummary, batch));
+        }
+        return local;
+    }
+
+    // Devuelve false si el destinatario es de este nodo
+    public boolean forwardSignal(String toUserId, String frame) {
+        Peer peer = ownerPeer(toUserId);
+        if (peer == null) {
+            return false;
+        }
+        report(peer, "señalización", peer.onewayNode.deliverSignalAsync(toUserId, frame));
+        return true;
+    }
+
+    public boolean forwardSignal(String toUserId, byte[] frame) {
+        Peer peer = ownerPeer(toUserId);
+        if (peer == null) {
+            return false;
+        }
+        report(peer, "señalización", peer.onewayNode.deliverSignalBytesAsync(toUserId, frame));
+        return true;
+    }
+
+    // Espera la confirmación de los demás nodos: al volver, el usuario o grupo ya existe en todo
+    // el clúster y una operación que se reenvíe a otro nodo lo encuentra. Un nodo caído o que no
+    // responde dentro de Chat.Cluster.InvocationTimeoutMs solo se registra.
+    public void replicate(LogRecord record) {
+        if (peers.isEmpty()) {
+            return;
+        }
+
+        byte[] payload = record.encode();
+        Map<Peer, CompletableFuture<Void>> sent = new HashMap<>(peers.size());
+        for (Peer peer : peers.values()) {
+            sent.put(peer, report(peer, "replicación", peer.node.replicateAsync(record.type, payload)));
+        }
+
+        List<String> timedOut = new ArrayList<>();
+        for (Map.Entry<Peer, CompletableFuture<Void>> entry : sent.entrySet()) {
+            try {
+                entry.getValue().join();
+            } catch (CompletionException e) {
+                // El resto de los errores ya quedó registrado en report
+                if (e.getCause() instanceof InvocationTimeoutException) {
+                    timedOut.add(entry.getKey().id);
+                }
+            }
+        }
+        if (!timedOut.isEmpty()) {
+            Collections.sort(timedOut);
+            log.warn("Replicación sin confirmar por timeout en los nodos {}", timedOut);
+        }
+    }
+
+    private Peer ownerPeer(String key) {
+        if (ring == null) {
+            return null;
+        }
+        String owner = ring.ownerOf(key);
+        return owner.equals(localNodeId) ? null : peers.get(owner);
+    }
+
+    private Map<Peer, List<String>> partition(Collection<String> recipients, List<String> local) {
+        Map<Peer, List<String>> remote = new HashMap<>();
+        for (String userId : recipients) {
+            Peer peer = ownerPeer(userId);
+            if (peer == null) {
+                local.add(userId);
+            } else {
+                remote.computeIfAbsent(peer, k -> new ArrayList<>()).add(userId);
+            }
+        }
+        return remote;
+    }
+
+    private static CompletableFuture<Void> report(Peer peer, String what, CompletableFuture<Void> sent) {
+        return sent.whenComplete((result, failure) -> {
+            if (failure != null) {
+                log.warn("No se pudo enviar {} al nodo {}: {}", what, peer.id, failure.toString());
+            }
+        });
+    }
+}
@@ -0,0 +1,293 @@
+package com.compunet.server;
+
+import compunet.Message;
+import compunet.PageDirection;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongFunction;
+import java.util.function.LongSupplier;
+
+// Historial de una conversación: un escritor a la vez, lecturas sin locks.
+// Arreglo por bloques de solo agregar; la longitud publicada (volatile) marca
+// hasta dónde es visible, así que cada lectura ve un prefijo consistente.
+// Los mensajes se guardan como StoredMessage y se convierten a Message al leerlos.
+// Con un HistoryCache, los bloques llenos más antiguos pueden bajar a disco: se conservan
+// sus ids (para las búsquedas binarias) y los mensajes se vuelven a leer al consultarlos.
+public class ConversationHistory {
+    private static final int CHUNK_SHIFT = 8;
+    static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private static final class Chunk {
+        final long[] ids = new long[CHUNK_SIZE];
+        // null mientras el bloque está solo en disco
+        volatile StoredMessage[] messages = new StoredMessage[CHUNK_SIZE];
+        long bytes;
+        // Ubicación en el archivo de desalojo (-1 = nunca escrito o ya no vigente)
+        long spillOffset = -1;
+        int spillLength;
+    }
+
+    private final HistoryCache cache;
+    private volatile Chunk[] chunks = new Chunk[0];
+    private volatile int length;
+    private final AtomicLong estimatedBytes = new AtomicLong();
+    private volatile long lastAccess;
+
+    public ConversationHistory() {
+        this(null);
+    }
+
+    public ConversationHistory(HistoryCache cache) {
+        this.cache = cache;
+        if (cache != null) {
+            cache.register(this);
+        }
+    }
+
+    // Asigna el id dentro del lock para que el orden de ids coincida con el de inserción
+    public synchronized Message append(LongSupplier nextId, LongFunction<Message> factory) {
+        long id = nextId.getAsLong();
+        Message message = factory.apply(id);
+        store(length, id, StoredMessage.of(id, message));
+        touch();
+        return message;
+    }
+
+    // Solo para la recuperación: todavía no hay lectores concurrentes
+    public synchronized void restore(Message message) {
+        long id = Long.parseLong(message.id);
+        int size = length;
+        Chunk[] current = chunks;
+
+        if (size == 0 || idAt(current, size - 1) < id) {
+            store(size, id, StoredMessage.of(id, message));
+            return;
+        }
+
+        int position = firstIndexAtLeast(current, id, size);
+        if (position < size && idAt(current, position) == id) {
+            return;
+        }
+
+        ensureCapacity(size);
+        current = chunks;
+        // Los bloques desplazados cambian: se traen a memoria y su copia en disco deja de valer
+        for (int c = position >>> CHUNK_SHIFT; c <= size >>> CHUNK_SHIFT; c++) {
+            messagesOf(current[c]);
+            current[c].spillOffset = -1;
+        }
+        for (int i = size; i > position; i--) {
+            current[i >>> CHUNK_SHIFT].messages[i & CHUNK_MASK] = current[(i - 1) >>> CHUNK_SHIFT].messages[(i - 1) & CHUNK_MASK];
+            current[i >>> CHUNK_SHIFT].ids[i & CHUNK_MASK] = current[(i - 1) >>> CHUNK_SHIFT].ids[(i - 1) & CHUNK_MASK];
+        }
+        current[position >>> CHUNK_SHIFT].messages[position & CHUNK_MASK] = StoredMessage.of(id, message);
+        current[position >>> CHUNK_SHIFT].ids[position & CHUNK_MASK] = id;
+        length = size + 1;
+        for (int c = position >>> CHUNK_SHIFT; c <= size >>> CHUNK_SHIFT; c++) {
+            recount(current[c], size + 1, c);
+        }
+    }
+
+    private void store(int index, long id, StoredMessage message) {
+        ensureCapacity(index);
+        Chunk chunk = chunks[index >>> CHUNK_SHIFT];
+        chunk.messages[index & CHUNK_MASK] = message;
+        chunk.ids[index & CHUNK_MASK] = id;
+        account(chunk, message.estimateBytes());
+        // Publicar después de escribir el elemento
+        length = index + 1;
+    }
+
+    private void ensureCapacity(int index) {
+        Chunk[] current = chunks;
+        if ((index >>> CHUNK_SHIFT) >= current.length) {
+            // Solo se copia el directorio de bloques, no los mensajes
+            Chunk[] grown = Arrays.copyOf(current, current.length + 1);
+            grown[current.length] = new Chunk();
+            chunks = grown;
+        }
+    }
+
+    private void recount(Chunk chunk, int size, int chunkIndex) {
+        long bytes = 0;
+        int count = Math.min(CHUNK_SIZE, size - (chunkIndex << CHUNK_SHIFT));
+        for (int i = 0; i < count; i++) {
+            bytes += chunk.messages[i].estimateBytes();
+        }
+        account(chunk, bytes - chunk.bytes);
+    }
+
+    private void account(Chunk chunk, long delta) {
+        chunk.bytes += delta;
+        estimatedBytes.addAndGet(delta);
+        if (cache != null) {
+            cache.adjustResident(delta);
+        }
+    }
+
+    // Vista inmutable de los mensajes visibles en este instante, sin copiarlos
+    public List<Message> snapshot() {
+        int size = length;
+        touch();
+        return new View(this, chunks, 0, size);
+    }
+
+    public List<Message> page(long cursor, PageDirection direction, int limit) {
+        int size = length;
+        Chunk[] current = chunks;
+        int from;
+        int to;
+
+        if (direction == PageDirection.Newer) {
+            from = cursor <= 0 ? 0 : firstIndexAtLeast(current, cursor + 1, size);
+            to = Math.min(size, from + limit);
+        } else {
+            to = cursor <= 0 ? size : firstIndexAtLeast(current, cursor, size);
+            from = Math.max(0, to - limit);
+        }
+
+        touch();
+        return new View(this, current, from, to);
+    }
+
+    // Mensajes con id mayor a afterId, sin marcar acceso (la instantánea no debe calentar la caché)
+    List<Message> newerThan(long afterId) {
+        int size = length;
+        Chunk[] current = chunks;
+        int from = afterId <= 0 ? 0 : firstIndexAtLeast(current, afterId + 1, size);
+        return new View(this, current, from, size);
+    }
+
+    public Message last() {
+        int size = length;
+        return size == 0 ? null : messagesOf(chunks[(size - 1) >>> CHUNK_SHIFT])[(size - 1) & CHUNK_MASK].toMessage();
+    }
+
+    public boolean contains(long id) {
+        int size = length;
+        Chunk[] current = chunks;
+        int index = firstIndexAtLeast(current, id, size);
+        return index < size && idAt(current, index) == id;
+    }
+
+    public Message find(long id) {
+        int size = length;
+        Chunk[] current = chunks;
+        int index = firstIndexAtLeast(current, id, size);
+        if (index >= size || idAt(current, index) != id) {
+            return null;
+        }
+        touch();
+        return messagesOf(current[index >>> CHUNK_SHIFT])[index & CHUNK_MASK].toMessage();
+    }
+
+    public int size() {
+        return length;
+    }
+
+    public long getEstimatedBytes() {
+        return estimatedBytes.get();
+    }
+
+    long getLastAccess() {
+        return lastAccess;
+    }
+
+    // Baja a disco los bloques llenos salvo el más reciente; devuelve los bytes liberados
+    synchronized long evictColdChunks() {
+        Chunk[] current = chunks;
+        int evictable = (length >>> CHUNK_SHIFT) - 1;
+        long freed = 0;
+        for (int c = 0; c < evictable; c++) {
+            freed += spill(current[c]);
+        }
+        return freed;
+    }
+
+    private long spill(Chunk chunk) {
+        synchronized (chunk) {
+            StoredMessage[] messages = chunk.messages;
+            if (messages == null) {
+                return 0;
+            }
+            if (chunk.spillOffset < 0) {
+                long[] location = cache.write(messages);
+                chunk.spillOffset = location[0];
+                chunk.spillLength = (int) location[1];
+            }
+            chunk.messages = null;
+            long bytes = chunk.bytes;
+            estimatedBytes.addAndGet(-bytes);
+            cache.adjustResident(-bytes);
+            return bytes;
+        }
+    }
+
+    private StoredMessage[] messagesOf(Chunk chunk) {
+        StoredMessage[] messages = chunk.messages;
+        if (messages != null) {
+            return messages;
+        }
+        synchronized (chunk) {
+            if (chunk.messages == null) {
+                chunk.messages = cache.read(chunk.spillOffset, chunk.spillLength);
+                estimatedBytes.addAndGet(chunk.bytes);
+                cache.adjustResident(chunk.bytes);
+            }
+            return chunk.messages;
+        }
+    }
+
+    private void touch() {
+        if (cache != null) {
+            lastAccess = cache.tick();
+        }
+    }
+
+    private static long idAt(Chunk[] current, int index) {
+        return current[index >>> CHUNK_SHIFT].ids[index & CHUNK_MASK];
+    }
+
+    private static int firstIndexAtLeast(Chunk[] current, long id, int size) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (idAt(current, mid) < id) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static final class View extends AbstractList<Message> implements RandomAccess {
+        private final ConversationHistory history;
+        private final Chunk[] chunks;
+        private final int from;
+        private final int to;
+
+        View(ConversationHistory history, Chunk[] chunks, int from, int to) {
+            this.history = history;
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public Message get(int index) {
+            if (index < 0 || index >= to - from) {
+                throw new IndexOutOfBoundsException("Índice " + index + " fuera de [0, " + (to - from) + ")");
+            }
+            int absolute = from + index;
+            return history.messagesOf(chunks[absolute >>> CHUNK_SHIFT])[absolute & CHUNK_MASK].toMessage();
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.compunet.server;
+
+import compunet.ChatSummary;
+import compunet.Message;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+// Entrega asíncrona de notificaciones: el hilo de Ice solo reparte los destinatarios
+// en carriles y retorna; cada carril es un hilo con cola acotada. Un usuario siempre
+// cae en el mismo carril, así que sus notificaciones llegan en orden.
+public class DeliveryPipeline implements AutoCloseable {
+    private static final ChatLog log = ChatLog.forClass(DeliveryPipeline.class);
+
+    private final WebSocketHandler webSocketHandler;
+    private final ThreadPoolExecutor[] lanes;
+    private final Metrics metrics;
+
+    private final AtomicLong submittedBatches = new AtomicLong(0);
+    private final AtomicLong deliveredNotifications = new AtomicLong(0);
+    private final AtomicLong blockedSubmissions = new AtomicLong(0);
+
+    public DeliveryPipeline(WebSocketHandler webSocketHandler, int workers, int queueCapacity) {
+        this(webSocketHandler, workers, queueCapacity, new Metrics());
+    }
+
+    public DeliveryPipeline(WebSocketHandler webSocketHandler, int workers, int queueCapacity, Metrics metrics) {
+        this.webSocketHandler = webSocketHandler;
+        this.metrics = metrics;
+        this.lanes = new ThreadPoolExecutor[workers];
+
+        for (int i = 0; i < workers; i++) {
+            String name = "chat-delivery-" + i;
+            lanes[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity),
+                    r -> {
+                        Thread thread = new Thread(r, name);
+                        thread.setDaemon(true);
+                        return thread;
+                    },
+                    this::waitForCapacity);
+        }
+    }
+
+    public void deliverMessage(Message message, Collection<String> recipients, String excludedUserId) {
+        SharedFrame frame = new SharedFrame(() -> webSocketHandler.encodeNewMessage(message));
+        dispatch(recipients, excludedUserId, batch -> webSocketHandler.sendToUsers(batch, frame.get(), message));
+    }
+
+    public void deliverNewGroup(ChatSummary chatSummary, Collection<String> recipients, String excludedUserId) {
+        SharedFrame frame = new SharedFrame(() -> webSocketHandler.encodeNewGroup(chatSummary));
+        dispatch(recipients, excludedUserId, batch -> webSocketHandler.sendToUsers(batch, frame.get(), null));
+    }
+
+    // El primer carril que lo necesita codifica el frame; los demás lo reutilizan
+    private static final class SharedFrame {
+        private Supplier<String> encoder;
+        private volatile String frame;
+
+        SharedFrame(Supplier<String> encoder) {
+            this.encoder = encoder;
+        }
+
+        String get() {
+            String result = frame;
+            if (result == null) {
+                synchronized (this) {
+                    result = frame;
+                    if (result == null) {
+                        result = encoder.get();
+                        frame = result;
+                        encoder = null;
+                    }
+                }
+            }
+            return result;
+        }
+    }
+
+    private interface BatchTask {
+        void deliver(List<String> batch);
+    }
+
+    private void dispatch(Collection<String> recipients, String excludedUserId, BatchTask task) {
+        List<String>[] batches = partition(recipients, excludedUserId);
+        metrics.recordFanOut(recipients.size());
+
+        for (int lane = 0; lane < batches.length; lane++) {
+            List<String> batch = batches[lane];
+            if (batch == null) {
+                continue;
+            }
+
+            submittedBatches.incrementAndGet();
+            lanes[lane].execute(() -> {
+                try {
+                    task.deliver(batch);
+                    deliveredNotifications.addAndGet(batch.size());
+                } catch (Exception e) {
+                    log.warn("Error entregando notificaciones: {}", e.getMessage());
+                }
+            });
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<String>[] partition(Collection<String> recipients, String excludedUserId) {
+        List<String>[] batches = new List[lanes.length];
+        for (String userId : recipients) {
+            if (userId.equals(excludedUserId)) {
+                continue;
+            }
+            int lane = laneOf(userId);
+            if (batches[lane] == null) {
+                batches[lane] = new ArrayList<>();
+            }
+            batches[lane].add(userId);
+        }
+        return batches;
+    }
+
+    private int laneOf(String userId) {
+        return (userId.hashCode() & Integer.MAX_VALUE) % lanes.length;
+    }
+
+    // Contrapresión: si un carril está lleno, quien envía espera a que haya espacio
+    private void waitForCapacity(Runnable task, ThreadPoolExecutor lane) {
+        if (lane.isShutdown()) {
+            throw new RejectedExecutionException("Pipeline de entrega detenido");
+        }
+
+        blockedSubmissions.incrementAndGet();
+        try {
+            lane.getQueue().put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrumpido esperando espacio en la cola de entrega", e);
+        }
+    }
+
+    public int getQueueDepth() {
+        int depth = 0;
+        for (ThreadPoolExecutor lane : lanes) {
+            depth += lane.getQueue().size();
+        }
+        return depth;
+    }
+
+    public long getSubmittedBatches() {
+        return submittedBatches.get();
+    }
+
+    public long getDeliveredNotifications() {
+        return deliveredNotifications.get();
+    }
+
+    public long getBlockedSubmissions() {
+        return blockedSubmissions.get();
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        for (ThreadPoolExecutor lane : lanes) {
+            lane.shutdown();
+        }
+        for (ThreadPoolExecutor lane : lanes) {
+            lane.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.compunet.server;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Miembros de los grupos. Por grupo, un arreglo ordenado e inmutable que se reemplaza entero en
+// cada cambio: la difusión lo recorre sin copiarlo ni bloquear y nunca ve un cambio a medias.
+// Además, el índice inverso usuario → grupos, con el mismo esquema. Los cambios se serializan.
+public class GroupMembership {
+    private static final String[] NONE = new String[0];
+
+    private final Map<String, String[]> membersByGroup = new ConcurrentHashMap<>();
+    private final Map<String, String[]> groupsByUser = new ConcurrentHashMap<>();
+
+    // Ignora a quienes ya eran miembros; devuelve cuántos se agregaron
+    public synchronized int add(String groupId, Collection<String> userIds) {
+        String[] current = membersByGroup.getOrDefault(groupId, NONE);
+        TreeSet<String> added = new TreeSet<>();
+        for (String userId : userIds) {
+            if (Arrays.binarySearch(current, userId) < 0) {
+                added.add(userId);
+            }
+        }
+        if (added.isEmpty()) {
+            return 0;
+        }
+
+        String[] members = Arrays.copyOf(current, current.length + added.size());
+        int i = current.length;
+        for (String userId : added) {
+            members[i++] = userId;
+            groupsByUser.put(userId, insert(groupsByUser.getOrDefault(userId, NONE), groupId));
+        }
+        Arrays.sort(members);
+        membersByGroup.put(groupId, members);
+        return added.size();
+    }
+
+    // Arreglo compartido: no debe modificarse
+    public String[] members(String groupId) {
+        return membersByGroup.getOrDefault(groupId, NONE);
+    }
+
+    public boolean isMember(String groupId, String userId) {
+        return Arrays.binarySearch(members(groupId), userId) >= 0;
+    }
+
+    // Arreglo compartido: no debe modificarse
+    public String[] groupsOf(String userId) {
+        return groupsByUser.getOrDefault(userId, NONE);
+    }
+
+    private static String[] insert(String[] sorted, String value) {
+        int position = Arrays.binarySearch(sorted, value);
+        if (position >= 0) {
+            return sorted;
+        }
+        position = -position - 1;
+        String[] result = new String[sorted.length + 1];
+        System.arraycopy(sorted, 0, result, 0, position);
+        result[position] = value;
+        System.arraycopy(sorted, position, result, position + 1, sorted.length - position);
+        return result;
+    }
+}
@@ -5,28 +5,46 @@ import com.zeroc.Ice.Current;
 import java.util.List;
 
 public class GroupServiceI implements GroupService {
+    private static final ChatLog log = ChatLog.forClass(GroupServiceI.class);
+
     private final ChatCore chatCore;
+    private final Cluster cluster;
+    private final Admission admission;
 
     public GroupServiceI(ChatCore chatCore) {
+        this(chatCore, Cluster.standalone());
+    }
+
+    public GroupServiceI(ChatCore chatCore, Cluster cluster) {
+        this(chatCore, cluster, Admission.unlimited());
+    }
+
+    // En clúster, los mensajes e historiales de un grupo los atiende el nodo dueño del grupo
+    public GroupServiceI(ChatCore chatCore, Cluster cluster, Admission admission) {
         this.chatCore = chatCore;
+        this.cluster = cluster;
+        this.admission = admission;
     }
 
     @Override
-    public String createGroup(String ownerId, String groupName, String[] memberIds, Current current) {
+    public String createGroup(String ownerId, String groupName, String[] memberIds,
+            Current current) throws RateLimitExceeded {
+        admission.checkUser(ownerId);
         try {
             return chatCore.createGroup(ownerId, groupName, memberIds);
         } catch (Exception e) {
-            System.err.println("Error al crear grupo: " + e.getMessage());
+            log.warn("Error al crear grupo: {}", e.getMessage());
             throw e;
         }
     }
 
     @Override
-    public void addMembersToGroup(String groupId, String[] memberIds, Current current) {
+    public void addMembersToGroup(String groupId, String[] memberIds, Current current) throws RateLimitExceeded {
+        admission.checkGroup(groupId);
         try {
             chatCore.addMembersToGroup(groupId, memberIds);
         } catch (Exception e) {
-            System.err.println("Error al agregar miembros al grupo: " + e.getMessage());
+            log.warn("Error al agregar miembros al grupo: {}", e.getMessage());
             throw e;
         }
     }
@@ -36,27 +54,65 @@ public class GroupServiceI implements GroupService {
         try {
             return chatCore.getGroupMembers(groupId);
         } catch (Exception e) {
-            System.err.println("Error al obtener miembros del grupo: " + e.getMessage());
+            log.warn("Error al obtener miembros del grupo: {}", e.getMessage());
             throw e;
         }
     }
 
     @Override
-    public void sendGroupMessage(String fromUserId, String groupId, String content, Current current) {
+    public void sendGroupMessage(String fromUserId, String groupId, String content,
+            Current current) throws RateLimitExceeded {
+        // La admisión la aplica solo el nodo dueño del grupo: un envío reenviado se cobra una vez
+        GroupServicePrx owner = cluster.groupServiceFor(groupId);
+        if (owner == null) {
+            admission.checkGroupSend(fromUserId, groupId);
+        }
         try {
+            if (owner != null) {
+                owner.sendGroupMessage(fromUserId, groupId, content);
+                return;
+            }
             chatCore.sendGroupMessage(fromUserId, groupId, content);
         } catch (Exception e) {
-            System.err.println("Error al enviar mensaje al grupo: " + e.getMessage());
+            log.warn("Error al enviar mensaje al grupo: {}", e.getMessage());
             throw e;
         }
     }
 
     @Override
-    public void sendGroupAudio(String fromUserId, String groupId, String audioData, int duration, Current current) {
+    public void sendGroupAudio(String fromUserId, String groupId, String audioData, int duration,
+            Current current) throws RateLimitExceeded {
+        GroupServicePrx owner = cluster.groupServiceFor(groupId);
+        if (owner == null) {
+            admission.checkGroupSend(fromUserId, groupId);
+        }
         try {
+            if (owner != null) {
+                owner.sendGroupAudio(fromUserId, groupId, audioData, duration);
+                return;
+            }
             chatCore.sendGroupAudio(fromUserId, groupId, audioData, duration);
         } catch (Exception e) {
-            System.err.println("Error al enviar audio de grupo: " + e.getMessage());
+            log.warn("Error al enviar audio de grupo: {}", e.getMessage());
+            throw e;
+        }
+    }
+
+    @Override
+    public void sendGroupAudioRef(String fromUserId, String groupId, String audioRef, int duration,
+            Current current) throws RateLimitExceeded {
+        GroupServicePrx owner = cluster.groupServiceFor(groupId);
+        if (owner == null) {
+            admission.checkGroupSend(fromUserId, groupId);
+        }
+        try {
+            if (owner != null) {
+                owner.sendGroupAudioRef(fromUserId, groupId, audioRef, duration);
+                return;
+            }
+            chatCore.sendGroupAudioRef(fromUserId, groupId, audioRef, duration);
+        } catch (Exception e) {
+            log.warn("Error al enviar audio de grupo: {}", e.getMessage());
             throw e;
         }
     }
@@ -64,10 +120,29 @@ public class GroupServiceI implements GroupService {
     @Override
     public Message[] getGroupChatMessages(String groupId, Current current) {
         try {
-            List<Message> messages = chatCore.getGroupChatMessages(groupId);
+            GroupServicePrx owner = cluster.groupServiceFor(groupId);
+            if (owner != null) {
+                return owner.getGroupChatMessages(groupId);
+            }
+            return chatCore.getGroupChatMessages(groupId).toArray(new Message[0]);
+        } catch (Exception e) {
+            log.warn("Error al obtener mensajes del grupo: {}", e.getMessage());
+            throw e;
+        }
+    }
+
+    @Override
+    public Message[] getGroupChatMessagesPage(String groupId, long cursor, PageDirection direction, int limit,
+            Current current) {
+        try {
+            GroupServicePrx owner = cluster.groupServiceFor(groupId);
+            if (owner != null) {
+                return owner.getGroupChatMessagesPage(groupId, cursor, direction, limit);
+            }
+            List<Message> messages = chatCore.getGroupChatMessagesPage(groupId, cursor, direction, limit);
             return messages.toArray(new Message[0]);
         } catch (Exception e) {
-            System.err.println("Error al obtener mensajes del grupo: " + e.getMessage());
+            log.warn("Error al obtener página de mensajes del grupo: {}", e.getMessage());
             throw e;
         }
     }
@@ -75,10 +150,14 @@ public class GroupServiceI implements GroupService {
     @Override
     public ChatSummary[] getUserGroupChats(String userId, Current current) {
         try {
+            GroupServicePrx owner = cluster.groupServiceFor(userId);
+            if (owner != null) {
+                return owner.getUserGroupChats(userId);
+            }
             List<ChatSummary> chats = chatCore.getUserGroupChats(userId);
             return chats.toArray(new ChatSummary[0]);
         } catch (Exception e) {
-            System.err.println("Error al obtener grupos del usuario: " + e.getMessage());
+            log.warn("Error al obtener grupos del usuario: {}", e.getMessage());
             throw e;
         }
     }
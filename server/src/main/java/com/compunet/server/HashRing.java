@@ -0,0 +1,60 @@
+package com.compunet.server;
+
+import java.util.*;
+
+// Anillo de hash consistente con nodos virtuales: cada nodo ocupa varios puntos del anillo
+// y una clave pertenece al primer punto en sentido horario. Todos los nodos deben usar
+// la misma lista de nodos para que coincidan en el dueño de cada clave.
+public class HashRing {
+    private final long[] points;
+    private final String[] owners;
+
+    public HashRing(List<String> nodeIds, int virtualNodes) {
+        if (nodeIds.isEmpty()) {
+            throw new IllegalArgumentException("El anillo necesita al menos un nodo");
+        }
+
+        int total = nodeIds.size() * virtualNodes;
+        long[] hashes = new long[total];
+        String[] nodes = new String[total];
+        Integer[] order = new Integer[total];
+        for (int n = 0, i = 0; n < nodeIds.size(); n++) {
+            for (int v = 0; v < virtualNodes; v++, i++) {
+                hashes[i] = hash(nodeIds.get(n) + "#" + v);
+                nodes[i] = nodeIds.get(n);
+                order[i] = i;
+            }
+        }
+        Arrays.sort(order, Comparator.comparingLong(i -> hashes[i]));
+
+        points = new long[total];
+        owners = new String[total];
+        for (int i = 0; i < total; i++) {
+            points[i] = hashes[order[i]];
+            owners[i] = nodes[order[i]];
+        }
+    }
+
+    public String ownerOf(String key) {
+        int index = Arrays.binarySearch(points, hash(key));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return owners[index == points.length ? 0 : index];
+    }
+
+    // FNV-1a de 64 bits con mezcla final para repartir bien claves parecidas ("user1", "user2")
+    static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,197 @@
+package com.compunet.server;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+// Presupuesto de memoria para los historiales. Cuando los mensajes en memoria superan el presupuesto,
+// un hilo baja a disco los bloques antiguos de las conversaciones usadas hace más tiempo (LRU por
+// conversación) hasta quedar por debajo del 90 %; cada conversación conserva sus mensajes recientes.
+// Cada bloque se escribe una sola vez, comprimido, en un archivo de solo agregar que se recrea al
+// arrancar: la fuente de verdad sigue siendo la persistencia.
+public class HistoryCache implements AutoCloseable {
+    private static final ChatLog log = ChatLog.forClass(HistoryCache.class);
+
+    private static final String SPILL_FILE = "history.spill";
+    private static final long CHECK_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+    private final long budgetBytes;
+    private final long targetBytes;
+    private final Path file;
+    private final FileChannel channel;
+    private final AtomicLong spillEnd = new AtomicLong();
+    private final AtomicLong residentBytes = new AtomicLong();
+    private final LongAdder spilledChunks = new LongAdder();
+    private final LongAdder loadedChunks = new LongAdder();
+    private final Set<ConversationHistory> histories = ConcurrentHashMap.newKeySet();
+    private final Thread evictor;
+    private volatile boolean closed;
+    private boolean overBudgetReported;
+
+    public HistoryCache(Path directory, long budgetBytes) throws IOException {
+        this.budgetBytes = budgetBytes;
+        this.targetBytes = budgetBytes / 10 * 9;
+        Files.createDirectories(directory);
+        this.file = directory.resolve(SPILL_FILE);
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+        this.evictor = new Thread(this::evictLoop, "chat-history-evictor");
+        evictor.setDaemon(true);
+        evictor.start();
+        log.info("Caché de historial: {} MB en memoria, desalojo en {}", budgetBytes / (1024 * 1024), directory);
+    }
+
+    void register(ConversationHistory history) {
+        histories.add(history);
+    }
+
+    long tick() {
+        return System.nanoTime();
+    }
+
+    void adjustResident(long delta) {
+        if (residentBytes.addAndGet(delta) > budgetBytes && delta > 0) {
+            LockSupport.unpark(evictor);
+        }
+    }
+
+    // Devuelve {offset, longitud} del bloque escrito
+    long[] write(StoredMessage[] messages) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 * 1024);
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes))) {
+            out.writeInt(messages.length);
+            for (StoredMessage message : messages) {
+                message.write(out);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        byte[] data = bytes.toByteArray();
+        long offset = spillEnd.getAndAdd(data.length);
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, offset + buffer.position());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo escribir el historial en disco", e);
+        }
+        spilledChunks.increment();
+        return new long[] { offset, data.length };
+    }
+
+    StoredMessage[] read(long offset, int length) {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        try {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    throw new EOFException("Bloque de historial incompleto en " + offset);
+                }
+            }
+            try (DataInputStream in = new DataInputStream(
+                    new InflaterInputStream(new ByteArrayInputStream(buffer.array())))) {
+                StoredMessage[] messages = new StoredMessage[in.readInt()];
+                for (int i = 0; i < messages.length; i++) {
+                    messages[i] = StoredMessage.read(in);
+                }
+                loadedChunks.increment();
+                return messages;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo leer el historial desde disco", e);
+        }
+    }
+
+    public long getResidentBytes() {
+        return residentBytes.get();
+    }
+
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    public long getSpillFileBytes() {
+        return spillEnd.get();
+    }
+
+    public long getSpilledChunks() {
+        return spilledChunks.sum();
+    }
+
+    public long getLoadedChunks() {
+        return loadedChunks.sum();
+    }
+
+    private void evictLoop() {
+        while (!closed) {
+            if (residentBytes.get() > budgetBytes) {
+                try {
+                    evict();
+                } catch (RuntimeException e) {
+                    log.error("Error al desalojar historial", e);
+                }
+            } else {
+                overBudgetReported = false;
+            }
+            LockSupport.parkNanos(this, CHECK_INTERVAL_NANOS);
+        }
+    }
+
+    private void evict() {
+        ConversationHistory[] candidates = histories.toArray(new ConversationHistory[0]);
+
+        // Se copia el último acceso antes de ordenar: sigue cambiando mientras tanto
+        long[] lastAccess = new long[candidates.length];
+        Integer[] order = new Integer[candidates.length];
+        for (int i = 0; i < candidates.length; i++) {
+            lastAccess[i] = candidates[i].getLastAccess();
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(lastAccess[a], lastAccess[b]));
+
+        long freed = 0;
+        int evicted = 0;
+        for (Integer index : order) {
+            if (residentBytes.get() <= targetBytes) {
+                break;
+            }
+            long bytes = candidates[index].evictColdChunks();
+            if (bytes > 0) {
+                freed += bytes;
+                evicted++;
+            }
+        }
+
+        log.debug("Historial desalojado: {} KB de {} conversaciones", freed / 1024, evicted);
+        // Solo quedan ventanas recientes: se avisa una vez hasta volver a estar dentro del presupuesto
+        if (residentBytes.get() > budgetBytes && !overBudgetReported) {
+            log.warn("Los mensajes recientes ocupan {} MB, más que el presupuesto del historial",
+                    residentBytes.get() / (1024 * 1024));
+            overBudgetReported = true;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        LockSupport.unpark(evictor);
+        try {
+            evictor.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+        Files.deleteIfExists(file);
+    }
+}
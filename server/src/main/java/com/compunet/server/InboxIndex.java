@@ -0,0 +1,93 @@
+package com.compunet.server;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Índice de conversaciones ordenado por el último mensaje. Los chats directos van por usuario;
+// la recencia de un grupo se guarda una sola vez y cada miembro la consulta a través de sus grupos,
+// así que un mensaje a un grupo cuesta lo mismo sin importar cuántos miembros tenga.
+public class InboxIndex {
+
+    public static class Entry {
+        public final String chatId;
+        public final boolean isGroup;
+        public final String lastMessageContent;
+        public final long lastMessageTimestamp;
+        private final long sequence;
+
+        Entry(String chatId, boolean isGroup, String lastMessageContent, long lastMessageTimestamp, long sequence) {
+            this.chatId = chatId;
+            this.isGroup = isGroup;
+            this.lastMessageContent = lastMessageContent;
+            this.lastMessageTimestamp = lastMessageTimestamp;
+            this.sequence = sequence;
+        }
+    }
+
+    // Más reciente primero; la secuencia desempata mensajes del mismo milisegundo
+    private static final Comparator<Entry> BY_RECENCY = (a, b) -> {
+        int cmp = Long.compare(b.lastMessageTimestamp, a.lastMessageTimestamp);
+        return cmp != 0 ? cmp : Long.compare(b.sequence, a.sequence);
+    };
+
+    private static class Inbox {
+        private final Map<String, Entry> byChat = new HashMap<>();
+        private final TreeSet<Entry> byRecency = new TreeSet<>(BY_RECENCY);
+
+        synchronized void record(Entry entry) {
+            Entry previous = byChat.get(entry.chatId);
+            if (previous != null) {
+                if (previous.lastMessageTimestamp > entry.lastMessageTimestamp) {
+                    return;
+                }
+                byRecency.remove(previous);
+            }
+            byChat.put(entry.chatId, entry);
+            byRecency.add(entry);
+        }
+
+        synchronized List<Entry> entries() {
+            return new ArrayList<>(byRecency);
+        }
+    }
+
+    private final Map<String, Inbox> inboxes = new ConcurrentHashMap<>();
+    private final Map<String, Entry> groupChats = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong(0);
+
+    public void recordDirect(String userId, String otherUserId, String lastMessageContent, long lastMessageTimestamp) {
+        Entry entry = new Entry(otherUserId, false, lastMessageContent, lastMessageTimestamp, sequence.incrementAndGet());
+        inboxes.computeIfAbsent(userId, k -> new Inbox()).record(entry);
+    }
+
+    public void recordGroup(String groupId, String lastMessageContent, long lastMessageTimestamp) {
+        Entry entry = new Entry(groupId, true, lastMessageContent, lastMessageTimestamp, sequence.incrementAndGet());
+        groupChats.merge(groupId, entry,
+                (previous, next) -> previous.lastMessageTimestamp > next.lastMessageTimestamp ? previous : next);
+    }
+
+    // Para grupos sin mensajes: no pisa una entrada existente
+    public void recordGroupIfAbsent(String groupId, String lastMessageContent, long lastMessageTimestamp) {
+        groupChats.computeIfAbsent(groupId,
+                k -> new Entry(groupId, true, lastMessageContent, lastMessageTimestamp, sequence.incrementAndGet()));
+    }
+
+    public List<Entry> getDirectChats(String userId) {
+        Inbox inbox = inboxes.get(userId);
+        return inbox != null ? inbox.entries() : new ArrayList<>();
+    }
+
+    // Entradas de los grupos indicados, más reciente primero; omite los que aún no tienen entrada
+    public List<Entry> getGroupChats(String[] groupIds) {
+        List<Entry> result = new ArrayList<>(groupIds.length);
+        for (String groupId : groupIds) {
+            Entry entry = groupChats.get(groupId);
+            if (entry != null) {
+                result.add(entry);
+            }
+        }
+        result.sort(BY_RECENCY);
+        return result;
+    }
+}
@@ -0,0 +1,46 @@
+package com.compunet.server;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Tabla de handles: cada valor distinto recibe un entero estable (0, 1, 2, ...) y se recupera
+// por su handle sin locks. Los valores no se eliminan nunca.
+final class Interner<T> {
+    private static final int CHUNK_SHIFT = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final Map<T, Integer> handles = new ConcurrentHashMap<>();
+    private volatile Object[][] chunks = new Object[0][];
+    private int size;
+
+    int handle(T value) {
+        Integer handle = handles.get(value);
+        if (handle != null) {
+            return handle;
+        }
+        synchronized (this) {
+            handle = handles.get(value);
+            if (handle != null) {
+                return handle;
+            }
+            int next = size;
+            if ((next >>> CHUNK_SHIFT) == chunks.length) {
+                Object[][] grown = Arrays.copyOf(chunks, chunks.length + 1);
+                grown[chunks.length] = new Object[CHUNK_SIZE];
+                chunks = grown;
+            }
+            // El valor queda escrito antes de que el handle sea visible para otros hilos
+            chunks[next >>> CHUNK_SHIFT][next & CHUNK_MASK] = value;
+            size = next + 1;
+            handles.put(value, next);
+            return next;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    T get(int handle) {
+        return (T) chunks[handle >>> CHUNK_SHIFT][handle & CHUNK_MASK];
+    }
+}
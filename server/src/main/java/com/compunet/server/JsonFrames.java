@@ -0,0 +1,160 @@
+package com.compunet.server;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+// Frames JSON del WebSocket sin árboles de Gson: los entrantes se leen con JsonReader directo a sus
+// campos y los salientes se escriben con JsonWriter sobre un búfer por hilo que se reutiliza.
+// El texto generado es el mismo que producía Gson.toJson(JsonObject) (escape HTML, sin nulls).
+final class JsonFrames {
+    // Alcanza para una nota de voz en línea de ~30 s (base64); un búfer que creció más no se conserva
+    private static final int MAX_RETAINED_CHARS = 1024 * 1024;
+
+    private static final ThreadLocal<Buffer> BUFFERS = ThreadLocal.withInitial(Buffer::new);
+
+    private JsonFrames() {
+    }
+
+    // Campos que usa algún tipo de mensaje entrante; el resto se descarta sin materializarlo
+    static final class Inbound {
+        String type;
+        String userId;
+        String signaling;
+        String from;
+        String to;
+        String offer;
+        String answer;
+        String candidate;
+        boolean batching;
+        boolean hasLastMessageId;
+        long lastMessageId;
+
+        static String require(String value, String field) {
+            if (value == null) {
+                throw new IllegalArgumentException("Campo requerido: " + field);
+            }
+            return value;
+        }
+    }
+
+    interface Body {
+        void write(JsonWriter out) throws IOException;
+    }
+
+    static Inbound parse(String text) {
+        Inbound frame = new Inbound();
+        try {
+            JsonReader in = new JsonReader(new StringReader(text));
+            in.setLenient(true);
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                    continue;
+                }
+                switch (name) {
+                    case "type":
+                        frame.type = in.nextString();
+                        break;
+                    case "userId":
+                        frame.userId = in.nextString();
+                        break;
+                    case "signaling":
+                        frame.signaling = in.nextString();
+                        break;
+                    case "from":
+                        frame.from = in.nextString();
+                        break;
+                    case "to":
+                        frame.to = in.nextString();
+                        break;
+                    case "offer":
+                        frame.offer = in.nextString();
+                        break;
+                    case "answer":
+                        frame.answer = in.nextString();
+                        break;
+                    case "candidate":
+                        frame.candidate = in.nextString();
+                        break;
+                    case "batching":
+                        frame.batching = in.nextBoolean();
+                        break;
+                    case "lastMessageId":
+                        frame.lastMessageId = in.nextLong();
+                        frame.hasLastMessageId = true;
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            throw new IllegalArgumentException("Frame JSON inválido: " + e.getMessage(), e);
+        }
+        Inbound.require(frame.type, "type");
+        return frame;
+    }
+
+    // El cuerpo no debe llamar a write: usaría el mismo búfer
+    static String write(Body body) {
+        Buffer buffer = BUFFERS.get();
+        buffer.text.setLength(0);
+        try {
+            JsonWriter out = new JsonWriter(buffer);
+            out.setHtmlSafe(true);
+            out.setSerializeNulls(false);
+            body.write(out);
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        String json = buffer.text.toString();
+        if (buffer.text.capacity() > MAX_RETAINED_CHARS) {
+            BUFFERS.remove();
+        }
+        return json;
+    }
+
+    // Writer sin sincronización sobre un StringBuilder reutilizable
+    private static final class Buffer extends Writer {
+        final StringBuilder text = new StringBuilder(1024);
+
+        @Override
+        public void write(char[] chars, int offset, int length) {
+            text.append(chars, offset, length);
+        }
+
+        @Override
+        public void write(String string, int offset, int length) {
+            text.append(string, offset, offset + length);
+        }
+
+        @Override
+        public void write(int c) {
+            text.append((char) c);
+        }
+
+        @Override
+        public Writer append(CharSequence chars) {
+            text.append(chars);
+            return this;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
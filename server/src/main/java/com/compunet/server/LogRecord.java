@@ -0,0 +1,160 @@
+package com.compunet.server;
+
+import compunet.Message;
+import compunet.User;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Registro persistente: se usa tanto en el log como en las instantáneas
+public class LogRecord {
+    public static final byte USER = 1;
+    public static final byte GROUP = 2;
+    public static final byte GROUP_MEMBERS = 3;
+    public static final byte MESSAGE = 4;
+
+    public final byte type;
+    public final User user;
+    public final String groupId;
+    public final String groupName;
+    public final String ownerId;
+    public final String[] memberIds;
+    public final long timestamp;
+    public final Message message;
+
+    private LogRecord(byte type, User user, String groupId, String groupName, String ownerId, String[] memberIds,
+            long timestamp, Message message) {
+        this.type = type;
+        this.user = user;
+        this.groupId = groupId;
+        this.groupName = groupName;
+        this.ownerId = ownerId;
+        this.memberIds = memberIds;
+        this.timestamp = timestamp;
+        this.message = message;
+    }
+
+    public static LogRecord user(User user) {
+        return new LogRecord(USER, user, null, null, null, null, 0, null);
+    }
+
+    public static LogRecord group(String groupId, String groupName, String ownerId, String[] memberIds,
+            long createdAt) {
+        return new LogRecord(GROUP, null, groupId, groupName, ownerId, memberIds, createdAt, null);
+    }
+
+    public static LogRecord groupMembers(String groupId, String[] memberIds, long timestamp) {
+        return new LogRecord(GROUP_MEMBERS, null, groupId, null, null, memberIds, timestamp, null);
+    }
+
+    public static LogRecord message(Message message) {
+        return new LogRecord(MESSAGE, null, null, null, null, null, message.timestamp, message);
+    }
+
+    public byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            switch (type) {
+                case USER:
+                    writeString(out, user.id);
+                    writeString(out, user.name);
+                    break;
+
+                case GROUP:
+                    writeString(out, groupId);
+                    writeString(out, groupName);
+                    writeString(out, ownerId);
+                    writeStrings(out, memberIds);
+                    out.writeLong(timestamp);
+                    break;
+
+                case GROUP_MEMBERS:
+                    writeString(out, groupId);
+                    writeStrings(out, memberIds);
+                    out.writeLong(timestamp);
+                    break;
+
+                case MESSAGE:
+                    writeString(out, message.id);
+                    writeString(out, message.senderId);
+                    writeString(out, message.senderName);
+                    writeString(out, message.content);
+                    out.writeLong(message.timestamp);
+                    writeString(out, message.chatId);
+                    out.writeBoolean(message.isGroupMessage);
+                    out.writeBoolean(message.isAudio);
+                    writeString(out, message.audioData);
+                    out.writeInt(message.audioDuration);
+                    break;
+
+                default:
+                    throw new IllegalStateException("Tipo de registro desconocido: " + type);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static LogRecord decode(byte type, ByteBuffer payload) {
+        switch (type) {
+            case USER:
+                return user(new User(readString(payload), readString(payload)));
+
+            case GROUP:
+                return group(readString(payload), readString(payload), readString(payload), readStrings(payload),
+                        payload.getLong());
+
+            case GROUP_MEMBERS:
+                return groupMembers(readString(payload), readStrings(payload), payload.getLong());
+
+            case MESSAGE:
+                return message(new Message(
+                        readString(payload),
+                        readString(payload),
+                        readString(payload),
+                        readString(payload),
+                        payload.getLong(),
+                        readString(payload),
+                        payload.get() != 0,
+                        payload.get() != 0,
+                        readString(payload),
+                        payload.getInt()));
+
+            default:
+                throw new IllegalStateException("Tipo de registro desconocido: " + type);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeStrings(DataOutputStream out, String[] values) throws IOException {
+        out.writeInt(values.length);
+        for (String value : values) {
+            writeString(out, value);
+        }
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String[] readStrings(ByteBuffer in) {
+        String[] values = new String[in.getInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = readString(in);
+        }
+        return values;
+    }
+}
@@ -0,0 +1,415 @@
+package com.compunet.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+// Log de solo escritura al final, dividido en segmentos y con fsync agrupado
+public class MessageLog implements AutoCloseable {
+    private static final ChatLog log = ChatLog.forClass(MessageLog.class);
+
+    // Formato de cada registro: [longitud][crc32][secuencia][tipo][payload]
+    static final int HEADER_BYTES = 4 + 4 + 8 + 1;
+    static final int MAX_PAYLOAD_BYTES = 64 * 1024 * 1024;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final long READ_WINDOW_BYTES = 256L * 1024 * 1024;
+    private static final long MAX_PENDING_BYTES = 64L * 1024 * 1024;
+
+    public interface FrameConsumer {
+        void accept(long sequence, byte type, ByteBuffer payload);
+    }
+
+    private static class PendingRecord {
+        final long sequence;
+        final byte type;
+        final byte[] payload;
+
+        PendingRecord(long sequence, byte type, byte[] payload) {
+            this.sequence = sequence;
+            this.type = type;
+            this.payload = payload;
+        }
+    }
+
+    private final Path directory;
+    private final long segmentBytes;
+
+    private final Object lock = new Object();
+    private List<PendingRecord> pending = new ArrayList<>();
+    private long pendingBytes;
+    private long lastSequence;
+    private volatile long durableSequence;
+    private boolean closed;
+    // Primer error de escritura: el escritor se detiene y nada posterior se da por durable
+    private IOException failure;
+
+    // Solo el hilo escritor toca el segmento activo
+    private FileChannel activeSegment;
+    private long activeSegmentSize;
+    private ByteBuffer writeBuffer = ByteBuffer.allocateDirect(1024 * 1024);
+
+    private final Thread writer;
+
+    private MessageLog(Path directory, long segmentBytes, long lastSequence) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.lastSequence = lastSequence;
+        this.durableSequence = lastSequence;
+
+        this.writer = new Thread(this::writeLoop, "chat-log-writer");
+        this.writer.setDaemon(true);
+    }
+
+    public static MessageLog open(Path directory, long segmentBytes, long lastSequence) throws IOException {
+        Files.createDirectories(directory);
+        MessageLog log = new MessageLog(directory, segmentBytes, lastSequence);
+        log.writer.start();
+        return log;
+    }
+
+    // Encola el registro y retorna su secuencia; el fsync ocurre en el hilo escritor
+    public long append(LogRecord record) {
+        byte[] payload = record.encode();
+        if (payload.length > MAX_PAYLOAD_BYTES) {
+            throw new IllegalArgumentException("Registro demasiado grande: " + payload.length + " bytes");
+        }
+
+        synchronized (lock) {
+            checkWritable();
+
+            // Contrapresión: solo se bloquea si el disco no da abasto
+            while (pendingBytes > MAX_PENDING_BYTES && !closed && failure == null) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            checkWritable();
+
+            long sequence = ++lastSequence;
+            pending.add(new PendingRecord(sequence, record.type, payload));
+            pendingBytes += payload.length + HEADER_BYTES;
+            lock.notifyAll();
+            return sequence;
+        }
+    }
+
+    private void checkWritable() {
+        if (failure != null) {
+            throw new IllegalStateException("El log de mensajes falló al escribir: " + failure.getMessage(), failure);
+        }
+        if (closed) {
+            throw new IllegalStateException("El log de mensajes está cerrado");
+        }
+    }
+
+    public long getLastSequence() {
+        synchronized (lock) {
+            return lastSequence;
+        }
+    }
+
+    public long getDurableSequence() {
+        return durableSequence;
+    }
+
+    // Espera a que todo lo encolado hasta ahora esté en disco; falla si el escritor no pudo escribirlo
+    public void flush() throws InterruptedException, IOException {
+        long target = getLastSequence();
+        synchronized (lock) {
+            while (durableSequence < target && failure == null && writer.isAlive()) {
+                lock.wait(100);
+            }
+            if (durableSequence < target) {
+                throw new IOException("Registros no escritos en el log de mensajes", failure);
+            }
+        }
+    }
+
+    private void writeLoop() {
+        while (true) {
+            List<PendingRecord> batch;
+            synchronized (lock) {
+                while (pending.isEmpty() && !closed) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (pending.isEmpty()) {
+                    break;
+                }
+                batch = pending;
+                pending = new ArrayList<>();
+                pendingBytes = 0;
+                lock.notifyAll();
+            }
+
+            try {
+                writeBatch(batch);
+            } catch (IOException e) {
+                // El lote (y lo que quede en cola) no llegó al disco: no se avanza durableSequence
+                log.error("Error escribiendo el log de mensajes; se detiene el escritor", e);
+                synchronized (lock) {
+                    failure = e;
+                    pending.clear();
+                    pendingBytes = 0;
+                    lock.notifyAll();
+                }
+                break;
+            }
+
+            synchronized (lock) {
+                durableSequence = batch.get(batch.size() - 1).sequence;
+                lock.notifyAll();
+            }
+        }
+
+        try {
+            closeActiveSegment();
+        } catch (IOException e) {
+            log.warn("Error cerrando el segmento activo: {}", e.getMessage());
+        }
+    }
+
+    private void writeBatch(List<PendingRecord> batch) throws IOException {
+        CRC32 crc = new CRC32();
+        writeBuffer.clear();
+
+        for (PendingRecord record : batch) {
+            int frameBytes = HEADER_BYTES + record.payload.length;
+
+            if (activeSegment == null || activeSegmentSize + writeBuffer.position() + frameBytes > segmentBytes) {
+                drainWriteBuffer();
+                rollSegment(record.sequence);
+            }
+            if (writeBuffer.remaining() < frameBytes) {
+                drainWriteBuffer();
+                if (writeBuffer.capacity() < frameBytes) {
+                    writeBuffer = ByteBuffer.allocateDirect(frameBytes);
+                }
+            }
+
+            crc.reset();
+            updateLong(crc, record.sequence);
+            crc.update(record.type);
+            crc.update(record.payload);
+
+            writeBuffer.putInt(record.payload.length);
+            writeBuffer.putInt((int) crc.getValue());
+            writeBuffer.putLong(record.sequence);
+            writeBuffer.put(record.type);
+            writeBuffer.put(record.payload);
+        }
+
+        drainWriteBuffer();
+        // Un solo fsync por lote (group commit)
+        if (activeSegment != null) {
+            activeSegment.force(false);
+        }
+    }
+
+    private void drainWriteBuffer() throws IOException {
+        writeBuffer.flip();
+        if (activeSegment != null) {
+            while (writeBuffer.hasRemaining()) {
+                activeSegmentSize += activeSegment.write(writeBuffer);
+            }
+        }
+        writeBuffer.clear();
+    }
+
+    private void rollSegment(long firstSequence) throws IOException {
+        closeActiveSegment();
+
+        Path segment = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstSequence, SEGMENT_SUFFIX));
+        activeSegment = FileChannel.open(segment, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        activeSegmentSize = 0;
+    }
+
+    private void closeActiveSegment() throws IOException {
+        if (activeSegment != null) {
+            activeSegment.force(true);
+            activeSegment.close();
+            activeSegment = null;
+        }
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        writer.join();
+    }
+
+    // Borra los segmentos cuyos registros están todos cubiertos por una instantánea hasta la secuencia dada.
+    // El último segmento (el activo) nunca se borra.
+    public static int deleteCoveredSegments(Path directory, long sequence) throws IOException {
+        List<Path> segmentFiles = listSegments(directory);
+        int deleted = 0;
+        for (int i = 0; i < segmentFiles.size() - 1; i++) {
+            if (firstSequenceOf(segmentFiles.get(i + 1)) > sequence + 1) {
+                break;
+            }
+            Files.deleteIfExists(segmentFiles.get(i));
+            deleted++;
+        }
+        return deleted;
+    }
+
+    // Recorre los registros de todos los segmentos con secuencia mayor a afterSequence
+    public static long replay(Path directory, long afterSequence, FrameConsumer consumer) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return afterSequence;
+        }
+
+        List<Path> segmentFiles = listSegments(directory);
+        long lastSequence = afterSequence;
+
+        for (int i = 0; i < segmentFiles.size(); i++) {
+            Path segment = segmentFiles.get(i);
+            boolean lastSegment = i == segmentFiles.size() - 1;
+
+            // Segmento completamente cubierto por la instantánea
+            if (!lastSegment && firstSequenceOf(segmentFiles.get(i + 1)) <= afterSequence + 1) {
+                continue;
+            }
+
+            long[] maxSequence = { lastSequence };
+            try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                long validBytes = readFrames(channel, (sequence, type, payload) -> {
+                    if (sequence > afterSequence) {
+                        consumer.accept(sequence, type, payload);
+                    }
+                    maxSequence[0] = Math.max(maxSequence[0], sequence);
+                });
+
+                if (validBytes < channel.size()) {
+                    // Escritura incompleta por una caída: se descarta la cola dañada
+                    log.warn("Segmento truncado en {} ({} de {} bytes válidos)", segment.getFileName(), validBytes,
+                            channel.size());
+                    channel.truncate(validBytes);
+                }
+            }
+            lastSequence = maxSequence[0];
+        }
+
+        return lastSequence;
+    }
+
+    // Lee registros usando ventanas mapeadas en memoria; retorna el último byte válido
+    static long readFrames(FileChannel channel, FrameConsumer consumer) throws IOException {
+        long size = channel.size();
+        long position = 0;
+        CRC32 crc = new CRC32();
+
+        while (position < size) {
+            long windowEnd = Math.min(size, position + READ_WINDOW_BYTES);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, windowEnd - position);
+
+            while (window.remaining() >= HEADER_BYTES) {
+                int start = window.position();
+                int length = window.getInt(start);
+                if (length <= 0 || length > MAX_PAYLOAD_BYTES) {
+                    return position + start;
+                }
+                if (window.remaining() < HEADER_BYTES + length) {
+                    break;
+                }
+
+                int checksum = window.getInt(start + 4);
+                long sequence = window.getLong(start + 8);
+                byte type = window.get(start + 16);
+
+                ByteBuffer payload = window.duplicate();
+                payload.position(start + HEADER_BYTES).limit(start + HEADER_BYTES + length);
+
+                crc.reset();
+                updateLong(crc, sequence);
+                crc.update(type);
+                crc.update(payload.duplicate());
+                if ((int) crc.getValue() != checksum) {
+                    return position + start;
+                }
+
+                consumer.accept(sequence, type, payload.slice());
+                window.position(start + HEADER_BYTES + length);
+            }
+
+            if (window.position() == 0 || windowEnd == size) {
+                return position + window.position();
+            }
+            position += window.position();
+        }
+
+        return position;
+    }
+
+    static void writeFrame(FileChannel channel, ByteBuffer buffer, long sequence, byte type, byte[] payload)
+            throws IOException {
+        if (buffer.remaining() < HEADER_BYTES + payload.length) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        CRC32 crc = new CRC32();
+        updateLong(crc, sequence);
+        crc.update(type);
+        crc.update(payload);
+
+        ByteBuffer target = buffer.remaining() >= HEADER_BYTES + payload.length
+                ? buffer
+                : ByteBuffer.allocate(HEADER_BYTES + payload.length);
+        target.putInt(payload.length);
+        target.putInt((int) crc.getValue());
+        target.putLong(sequence);
+        target.put(type);
+        target.put(payload);
+
+        if (target != buffer) {
+            target.flip();
+            while (target.hasRemaining()) {
+                channel.write(target);
+            }
+        }
+    }
+
+    private static List<Path> listSegments(Path directory) throws IOException {
+        List<Path> result = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+                SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                result.add(path);
+            }
+        }
+        result.sort(Comparator.comparingLong(MessageLog::firstSequenceOf));
+        return result;
+    }
+
+    private static long firstSequenceOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static void updateLong(CRC32 crc, long value) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            crc.update((int) (value >>> shift));
+        }
+    }
+}
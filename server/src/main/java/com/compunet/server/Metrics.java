@@ -0,0 +1,142 @@
+package com.compunet.server;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.LongSupplier;
+
+// Registro de métricas del servidor, exportado en formato de texto de Prometheus.
+// Latencias por operación (Ice y WebSocket), tamaños de fan-out y medidores que se leen al exportar.
+public class Metrics {
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+    private static final double NANOS_PER_SECOND = 1_000_000_000.0;
+
+    // Valor que se lee al exportar: "gauge" o "counter" mantenido por otro componente
+    private static final class Sampled {
+        final String name;
+        final String help;
+        final String type;
+        final LongSupplier value;
+
+        Sampled(String name, String help, String type, LongSupplier value) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.value = value;
+        }
+    }
+
+    public static final class OperationStats {
+        public final Histogram latency = new Histogram();
+        public final LongAdder failures = new LongAdder();
+    }
+
+    private final Map<String, Map<String, OperationStats>> iceOperations = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> webSocketMessages = new ConcurrentHashMap<>();
+    private final Histogram fanOut = new Histogram();
+    private final List<Sampled> sampled = new CopyOnWriteArrayList<>();
+
+    // Nombre bajo el que se cuentan las operaciones que el servant no conoce
+    public static final String UNKNOWN_OPERATION = "unknown";
+
+    // Operaciones de un servicio Ice, registradas de antemano: el nombre de la operación lo elige el
+    // cliente, así que el mapa no crece al despachar y lo desconocido va a UNKNOWN_OPERATION
+    public Map<String, OperationStats> iceService(String service, Collection<String> operations) {
+        Map<String, OperationStats> stats = new HashMap<>();
+        for (String operation : operations) {
+            stats.put(operation, new OperationStats());
+        }
+        stats.put(UNKNOWN_OPERATION, new OperationStats());
+        Map<String, OperationStats> registered = Collections.unmodifiableMap(stats);
+        iceOperations.put(service, registered);
+        return registered;
+    }
+
+    public Histogram webSocketMessage(String type) {
+        return webSocketMessages.computeIfAbsent(type, k -> new Histogram());
+    }
+
+    public void recordFanOut(int recipients) {
+        fanOut.record(recipients);
+    }
+
+    public void gauge(String name, String help, LongSupplier value) {
+        sampled.add(new Sampled(name, help, "gauge", value));
+    }
+
+    public void counter(String name, String help, LongSupplier value) {
+        sampled.add(new Sampled(name, help, "counter", value));
+    }
+
+    public String scrape() {
+        StringBuilder out = new StringBuilder(8 * 1024);
+
+        header(out, "chat_ice_operation_seconds", "Latencia de las operaciones Ice por servicio", "summary");
+        forEachOperation((labels, stats) ->
+                summary(out, "chat_ice_operation_seconds", labels, stats.latency, NANOS_PER_SECOND));
+
+        header(out, "chat_ice_operation_failures_total", "Operaciones Ice que terminaron en error", "counter");
+        forEachOperation((labels, stats) ->
+                sample(out, "chat_ice_operation_failures_total", labels, stats.failures.sum()));
+
+        header(out, "chat_websocket_message_seconds", "Tiempo de procesamiento de mensajes WebSocket por tipo",
+                "summary");
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(webSocketMessages).entrySet()) {
+            summary(out, "chat_websocket_message_seconds", "type=\"" + entry.getKey() + "\"", entry.getValue(),
+                    NANOS_PER_SECOND);
+        }
+
+        header(out, "chat_notification_fanout_recipients", "Destinatarios por notificación", "summary");
+        summary(out, "chat_notification_fanout_recipients", "", fanOut, 1);
+
+        for (Sampled metric : sampled) {
+            header(out, metric.name, metric.help, metric.type);
+            sample(out, metric.name, "", metric.value.getAsLong());
+        }
+
+        return out.toString();
+    }
+
+    private void forEachOperation(BiConsumer<String, OperationStats> action) {
+        for (Map.Entry<String, Map<String, OperationStats>> service : new TreeMap<>(iceOperations).entrySet()) {
+            for (Map.Entry<String, OperationStats> operation : new TreeMap<>(service.getValue()).entrySet()) {
+                action.accept("service=\"" + service.getKey() + "\",operation=\"" + operation.getKey() + "\"",
+                        operation.getValue());
+            }
+        }
+    }
+
+    private static void header(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void summary(StringBuilder out, String name, String labels, Histogram histogram, double scale) {
+        String separator = labels.isEmpty() ? "" : ",";
+        for (double quantile : QUANTILES) {
+            out.append(name).append('{').append(labels).append(separator)
+                    .append("quantile=\"").append(quantile).append("\"} ")
+                    .append(histogram.getQuantile(quantile) / scale).append('\n');
+        }
+        sample(out, name + "_sum", labels, histogram.getSum() / scale);
+        sample(out, name + "_count", labels, histogram.getCount());
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, long value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+}
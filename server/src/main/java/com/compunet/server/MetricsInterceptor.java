@@ -0,0 +1,81 @@
+package com.compunet.server;
+
+import com.zeroc.Ice.Current;
+import com.zeroc.Ice.DispatchInterceptor;
+import com.zeroc.Ice.OutputStream;
+import com.zeroc.Ice.Request;
+import com.zeroc.Ice.UserException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletionStage;
+
+// Envuelve un servant y mide cada despacho de Ice: latencia por operación y errores
+public class MetricsInterceptor extends DispatchInterceptor {
+    private final com.zeroc.Ice.Object servant;
+    private final Map<String, Metrics.OperationStats> operations;
+
+    public MetricsInterceptor(com.zeroc.Ice.Object servant, String service, Metrics metrics) {
+        this.servant = servant;
+        this.operations = metrics.iceService(service, operationsOf(servant.getClass()));
+    }
+
+    // Las operaciones Slice del servant: los métodos de sus interfaces Ice que reciben un Current al final
+    // (incluye las ice_* heredadas de com.zeroc.Ice.Object)
+    static Set<String> operationsOf(Class<?> servantClass) {
+        Set<String> operations = new TreeSet<>();
+        for (Class<?> type = servantClass; type != null; type = type.getSuperclass()) {
+            for (Class<?> iface : type.getInterfaces()) {
+                collectOperations(iface, operations);
+            }
+        }
+        return operations;
+    }
+
+    private static void collectOperations(Class<?> iface, Set<String> operations) {
+        if (!com.zeroc.Ice.Object.class.isAssignableFrom(iface)) {
+            return;
+        }
+        for (Method method : iface.getMethods()) {
+            Class<?>[] parameters = method.getParameterTypes();
+            if (!Modifier.isStatic(method.getModifiers()) && !method.getName().startsWith("_")
+                    && parameters.length > 0 && parameters[parameters.length - 1] == Current.class) {
+                operations.add(method.getName());
+            }
+        }
+    }
+
+    @Override
+    public CompletionStage<OutputStream> dispatch(Request request) throws UserException {
+        Metrics.OperationStats stats = statsFor(request.getCurrent().operation);
+        long start = System.nanoTime();
+
+        CompletionStage<OutputStream> result;
+        try {
+            result = servant.ice_dispatch(request);
+        } catch (UserException | RuntimeException e) {
+            stats.failures.increment();
+            stats.latency.recordSince(start);
+            throw e;
+        }
+
+        if (result == null) {
+            stats.latency.recordSince(start);
+        } else {
+            result.whenComplete((output, failure) -> {
+                if (failure != null) {
+                    stats.failures.increment();
+                }
+                stats.latency.recordSince(start);
+            });
+        }
+        return result;
+    }
+
+    private Metrics.OperationStats statsFor(String operation) {
+        Metrics.OperationStats stats = operations.get(operation);
+        return stats != null ? stats : operations.get(Metrics.UNKNOWN_OPERATION);
+    }
+}
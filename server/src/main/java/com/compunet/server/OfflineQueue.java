@@ -0,0 +1,101 @@
+package com.compunet.server;
+
+import compunet.Message;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Notificaciones pendientes de usuarios desconectados, acotadas por usuario.
+// Si se desborda se descartan las más antiguas y el cliente debe resincronizar.
+public class OfflineQueue {
+
+    public static class Replay {
+        public final List<Message> messages;
+        public final boolean overflowed;
+
+        Replay(List<Message> messages, boolean overflowed) {
+            this.messages = messages;
+            this.overflowed = overflowed;
+        }
+    }
+
+    private static class Pending {
+        final ArrayDeque<Message> messages = new ArrayDeque<>();
+        boolean overflowed;
+        boolean drained;
+    }
+
+    private static final Replay EMPTY = new Replay(Collections.emptyList(), false);
+
+    private final Map<String, Pending> pendingByUser = new ConcurrentHashMap<>();
+    private final AtomicInteger pendingCount = new AtomicInteger(0);
+    private final int capacityPerUser;
+
+    public OfflineQueue(int capacityPerUser) {
+        this.capacityPerUser = capacityPerUser;
+    }
+
+    public void enqueue(String userId, Message message) {
+        while (true) {
+            Pending pending = pendingByUser.computeIfAbsent(userId, k -> new Pending());
+            synchronized (pending) {
+                // Si otro hilo la acaba de vaciar, se reintenta con una nueva
+                if (pending.drained) {
+                    continue;
+                }
+
+                if (pending.messages.size() >= capacityPerUser) {
+                    pending.messages.pollFirst();
+                    pending.overflowed = true;
+                } else {
+                    pendingCount.incrementAndGet();
+                }
+                pending.messages.addLast(message);
+                return;
+            }
+        }
+    }
+
+    // Notificaciones que se perdieron sin pasar por la cola: al reconectarse, el usuario debe resincronizar
+    public void markOverflowed(String userId) {
+        while (true) {
+            Pending pending = pendingByUser.computeIfAbsent(userId, k -> new Pending());
+            synchronized (pending) {
+                if (pending.drained) {
+                    continue;
+                }
+                pending.overflowed = true;
+                return;
+            }
+        }
+    }
+
+    // Retira los pendientes del usuario con id mayor al último que el cliente confirmó
+    public Replay drain(String userId, long lastAckedMessageId) {
+        Pending pending = pendingByUser.remove(userId);
+        if (pending == null) {
+            return EMPTY;
+        }
+
+        synchronized (pending) {
+            pending.drained = true;
+            pendingCount.addAndGet(-pending.messages.size());
+
+            List<Message> messages = new ArrayList<>(pending.messages.size());
+            for (Message message : pending.messages) {
+                if (Long.parseLong(message.id) > lastAckedMessageId) {
+                    messages.add(message);
+                }
+            }
+            return new Replay(messages, pending.overflowed);
+        }
+    }
+
+    public void discard(String userId) {
+        drain(userId, Long.MAX_VALUE);
+    }
+
+    public int getPendingCount() {
+        return pendingCount.get();
+    }
+}
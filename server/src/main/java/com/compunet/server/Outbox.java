@@ -0,0 +1,257 @@
+package com.compunet.server;
+
+import compunet.Message;
+import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+// Cola de salida acotada de una conexión registrada. Mientras el socket tiene poco pendiente los frames
+// se escriben directo; si no, esperan aquí y el hilo de vaciado del WebSocketHandler los escribe cuando
+// el socket se descarga, juntando los new-message consecutivos en un frame new-messages.
+// Si la cola supera su límite se aplica la política de consumidor lento.
+final class Outbox {
+    private static final ChatLog log = ChatLog.forClass(Outbox.class);
+
+    // Mensajes y tamaño aproximado por frame new-messages; un mensaje más grande va solo en su frame
+    private static final int MAX_BATCH = 100;
+    private static final long MAX_BATCH_BYTES = 256 * 1024;
+    // Costo aproximado de un elemento en cola además de su texto
+    private static final long ITEM_OVERHEAD = 96;
+    // Código de cierre 1013 (Try Again Later)
+    private static final int CLOSE_TRY_AGAIN_LATER = 1013;
+
+    enum Policy {
+        // Se descartan las notificaciones en cola y el cliente recibe resync-required
+        RESYNC,
+        // Se cierra la conexión; al reconectarse el cliente debe resincronizar
+        DISCONNECT
+    }
+
+    static final class Limits {
+        final long socketBytes;
+        final long queueBytes;
+        final Policy policy;
+
+        Limits(long socketBytes, long queueBytes, Policy policy) {
+            this.socketBytes = socketBytes;
+            this.queueBytes = queueBytes;
+            this.policy = policy;
+        }
+    }
+
+    interface Encoder {
+        String encodeNewMessage(Message message);
+
+        String encodeNewMessages(List<Message> messages);
+
+        String encodeResyncRequired();
+
+        // Tamaño aproximado del mensaje ya codificado, con el audio como se envía (incrustado si es un blob)
+        long estimateBytes(Message message);
+    }
+
+    // Un frame ya codificado (texto o binario) o un mensaje que se codifica al escribirlo
+    private static final class Item {
+        final String text;
+        final ByteBuffer binary;
+        final Message message;
+        // La señalización de llamadas sobrevive a un resync
+        final boolean signal;
+        final boolean resync;
+        final long bytes;
+
+        Item(String text, ByteBuffer binary, Message message, long payloadBytes, boolean signal, boolean resync) {
+            this.text = text;
+            this.binary = binary;
+            this.message = message;
+            this.signal = signal;
+            this.resync = resync;
+            this.bytes = ITEM_OVERHEAD + payloadBytes;
+        }
+    }
+
+    private final WebSocket conn;
+    private final String userId;
+    private final Limits limits;
+    private final Encoder encoder;
+    private final boolean batching;
+    private final Runnable onSlowConsumer;
+    private final ArrayDeque<Item> items = new ArrayDeque<>();
+    private volatile long queuedBytes;
+    private boolean resyncPending;
+    private boolean closed;
+
+    Outbox(WebSocket conn, String userId, Limits limits, Encoder encoder, boolean batching,
+            Runnable onSlowConsumer) {
+        this.conn = conn;
+        this.userId = userId;
+        this.limits = limits;
+        this.encoder = encoder;
+        this.batching = batching;
+        this.onSlowConsumer = onSlowConsumer;
+    }
+
+    WebSocket connection() {
+        return conn;
+    }
+
+    // Para la difusión: si es true el frame compartido puede ir directo al socket
+    synchronized boolean canWriteDirectly() {
+        return items.isEmpty() && !closed && socketBacklog() < limits.socketBytes;
+    }
+
+    // Devuelven true si el elemento quedó en cola y hay que programar un vaciado
+    synchronized boolean send(String frame, boolean signal) {
+        if (canWriteDirectly()) {
+            write(conn, frame);
+            return false;
+        }
+        return enqueue(new Item(frame, null, null, frame.length(), signal, false));
+    }
+
+    synchronized boolean send(ByteBuffer frame) {
+        if (canWriteDirectly()) {
+            write(conn, frame);
+            return false;
+        }
+        return enqueue(new Item(null, frame, null, frame.remaining(), true, false));
+    }
+
+    synchronized boolean send(Message message) {
+        if (canWriteDirectly()) {
+            write(conn, encoder.encodeNewMessage(message));
+            return false;
+        }
+        return enqueue(new Item(null, null, message, encoder.estimateBytes(message), false, false));
+    }
+
+    // Con el frame ya codificado para todos los destinatarios; si hay que esperar se encola el mensaje
+    synchronized boolean send(String frame, Message message) {
+        if (canWriteDirectly()) {
+            write(conn, frame);
+            return false;
+        }
+        return enqueue(new Item(null, null, message, encoder.estimateBytes(message), false, false));
+    }
+
+    private boolean enqueue(Item item) {
+        if (closed || !conn.isOpen()) {
+            return false;
+        }
+        // Mientras espera el resync, el cliente recargará todo lo que no sea señalización
+        if (resyncPending && !item.signal) {
+            return true;
+        }
+        items.addLast(item);
+        queuedBytes += item.bytes;
+        if (queuedBytes > limits.queueBytes) {
+            overflow();
+        }
+        return !closed;
+    }
+
+    private void overflow() {
+        onSlowConsumer.run();
+        if (limits.policy == Policy.DISCONNECT) {
+            log.warn("Cliente lento, se cierra la conexión de: {}", userId);
+            clear();
+            closed = true;
+            conn.close(CLOSE_TRY_AGAIN_LATER, "Cliente lento");
+            return;
+        }
+
+        log.warn("Cliente lento, se descartan sus notificaciones y se pide resincronización: {}", userId);
+        for (Iterator<Item> it = items.iterator(); it.hasNext();) {
+            Item queued = it.next();
+            if (!queued.signal) {
+                it.remove();
+                queuedBytes -= queued.bytes;
+            }
+        }
+        String frame = encoder.encodeResyncRequired();
+        Item resync = new Item(frame, null, null, frame.length(), false, true);
+        items.addFirst(resync);
+        queuedBytes += resync.bytes;
+        resyncPending = true;
+    }
+
+    // Hilo de vaciado: escribe lo que el socket admita; devuelve true si queda algo en cola
+    synchronized boolean flush() {
+        while (!items.isEmpty() && conn.isOpen() && socketBacklog() < limits.socketBytes) {
+            Item head = items.pollFirst();
+            queuedBytes -= head.bytes;
+
+            if (head.message == null) {
+                if (head.text != null) {
+                    write(conn, head.text);
+                } else {
+                    write(conn, head.binary);
+                }
+                if (head.resync) {
+                    resyncPending = false;
+                }
+                continue;
+            }
+
+            List<Message> batch = new ArrayList<>();
+            batch.add(head.message);
+            long batchBytes = head.bytes;
+            while (batching && batch.size() < MAX_BATCH && !items.isEmpty() && items.peekFirst().message != null
+                    && batchBytes + items.peekFirst().bytes <= MAX_BATCH_BYTES) {
+                Item next = items.pollFirst();
+                queuedBytes -= next.bytes;
+                batchBytes += next.bytes;
+                batch.add(next.message);
+            }
+            write(conn, batch.size() == 1
+                    ? encoder.encodeNewMessage(batch.get(0))
+                    : encoder.encodeNewMessages(batch));
+        }
+
+        if (!conn.isOpen()) {
+            clear();
+            return false;
+        }
+        return !items.isEmpty();
+    }
+
+    // Toda escritura de datos a una conexión pasa por aquí. Con permessage-deflate cada conexión comprime
+    // con su propio Deflater, que Java-WebSocket usa sin sincronizar: las escrituras se serializan por conexión
+    static void write(WebSocket conn, String frame) {
+        synchronized (conn) {
+            conn.send(frame);
+        }
+    }
+
+    static void write(WebSocket conn, ByteBuffer frame) {
+        synchronized (conn) {
+            conn.send(frame);
+        }
+    }
+
+    long getQueuedBytes() {
+        return queuedBytes;
+    }
+
+    private void clear() {
+        items.clear();
+        queuedBytes = 0;
+    }
+
+    // Bytes que Java-WebSocket tiene encolados para este socket
+    private long socketBacklog() {
+        if (!(conn instanceof WebSocketImpl)) {
+            return 0;
+        }
+        long bytes = 0;
+        for (ByteBuffer buffer : ((WebSocketImpl) conn).outQueue) {
+            bytes += buffer.remaining();
+        }
+        return bytes;
+    }
+}
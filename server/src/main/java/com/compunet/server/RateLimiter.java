@@ -0,0 +1,144 @@
+package com.compunet.server;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Token bucket por clave (usuario, grupo, conexión) sin bloqueos. Cada cubeta es un solo AtomicLong con
+// el instante teórico en que vuelve a estar llena (GCRA): admitir es leer el mapa y hacer un CAS.
+// Las claves se reparten en franjas para que la limpieza de cubetas llenas recorra una franja a la vez.
+final class RateLimiter {
+    private static final int STRIPES = 16;
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+    // Respuesta cuando se piden más permisos que la ráfaga: ese lote no se admitiría nunca
+    static final long TOO_LARGE = -1;
+
+    // Tiempo que tarda en reponerse un permiso y tolerancia de ráfaga, en nanosegundos
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final int burst;
+    private final boolean enabled;
+    @SuppressWarnings("unchecked")
+    private final Map<String, AtomicLong>[] stripes = new Map[STRIPES];
+    private final AtomicLong nextSweep = new AtomicLong(System.nanoTime() + SWEEP_INTERVAL_NANOS);
+    private volatile int sweepStripe;
+    private final LongAdder rejected = new LongAdder();
+
+    // permitsPerSecond <= 0 desactiva el límite
+    RateLimiter(double permitsPerSecond, int burst) {
+        this.enabled = permitsPerSecond > 0;
+        this.intervalNanos = enabled ? Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond)) : 0;
+        this.burst = Math.max(1, burst);
+        this.burstNanos = intervalNanos * this.burst;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ConcurrentHashMap<>();
+        }
+    }
+
+    static RateLimiter disabled() {
+        return new RateLimiter(0, 0);
+    }
+
+    // 0 si se admite; si no, los milisegundos hasta que haya permisos suficientes, o TOO_LARGE.
+    // Un lote consume todos sus permisos: agrupar envíos no permite superar el límite.
+    long tryAcquire(String key, int permits) {
+        if (!enabled) {
+            return 0;
+        }
+        if (permits > burst) {
+            rejected.increment();
+            return TOO_LARGE;
+        }
+        long now = System.nanoTime();
+        if (now - nextSweep.get() >= 0) {
+            sweep(now);
+        }
+
+        Map<String, AtomicLong> stripe = stripes[stripeOf(key)];
+        AtomicLong bucket = stripe.get(key);
+        if (bucket == null) {
+            bucket = stripe.computeIfAbsent(key, k -> new AtomicLong(now));
+        }
+
+        long cost = intervalNanos * Math.max(1, permits);
+        while (true) {
+            long full = bucket.get();
+            long next = Math.max(full, now) + cost;
+            long excess = next - now - burstNanos;
+            if (excess > 0) {
+                rejected.increment();
+                return Math.max(1, TimeUnit.NANOSECONDS.toMillis(excess));
+            }
+            if (bucket.compareAndSet(full, next)) {
+                return 0;
+            }
+        }
+    }
+
+    // Lo que respondería tryAcquire, sin consumir permisos
+    long check(String key, int permits) {
+        if (!enabled) {
+            return 0;
+        }
+        if (permits > burst) {
+            rejected.increment();
+            return TOO_LARGE;
+        }
+        long now = System.nanoTime();
+        AtomicLong bucket = stripes[stripeOf(key)].get(key);
+        long full = bucket != null ? bucket.get() : now;
+        long excess = Math.max(full, now) + intervalNanos * Math.max(1, permits) - now - burstNanos;
+        if (excess > 0) {
+            rejected.increment();
+            return Math.max(1, TimeUnit.NANOSECONDS.toMillis(excess));
+        }
+        return 0;
+    }
+
+    // Devuelve los permisos de un tryAcquire admitido cuyo envío no se hizo
+    void release(String key, int permits) {
+        if (!enabled) {
+            return;
+        }
+        AtomicLong bucket = stripes[stripeOf(key)].get(key);
+        if (bucket != null) {
+            bucket.addAndGet(-intervalNanos * Math.max(1, permits));
+        }
+    }
+
+    long getRejected() {
+        return rejected.sum();
+    }
+
+    int getTrackedKeys() {
+        int keys = 0;
+        for (Map<String, AtomicLong> stripe : stripes) {
+            keys += stripe.size();
+        }
+        return keys;
+    }
+
+    // Una cubeta llena equivale a una nueva: se quita para que las claves inactivas no se acumulen.
+    // Si se consume justo mientras se quita, ese permiso no queda contado (como mucho uno por clave).
+    private void sweep(long now) {
+        long scheduled = nextSweep.get();
+        if (now - scheduled < 0 || !nextSweep.compareAndSet(scheduled, now + SWEEP_INTERVAL_NANOS / STRIPES)) {
+            return;
+        }
+        int index = sweepStripe;
+        sweepStripe = (index + 1) % STRIPES;
+        for (Iterator<AtomicLong> it = stripes[index].values().iterator(); it.hasNext();) {
+            if (it.next().get() - now <= 0) {
+                it.remove();
+            }
+        }
+    }
+
+    private static int stripeOf(String key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+}
@@ -0,0 +1,359 @@
+package com.compunet.server;
+
+import java.text.Normalizer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+// Índice invertido incremental sobre el contenido de los mensajes de texto.
+// Cada mensaje indexado recibe una posición (orden de llegada); cada término guarda la lista
+// de posiciones donde aparece. Las listas se sellan en bloques inmutables de 128 posiciones
+// codificadas como varint con deltas (unos pocos bytes por aparición), un formato que puede
+// escribirse tal cual a disco. Un solo escritor a la vez; las búsquedas no bloquean.
+public class SearchIndex {
+    private static final int BLOCK_SIZE = 128;
+    private static final int DOC_CHUNK_SHIFT = 12;
+    private static final int DOC_CHUNK_SIZE = 1 << DOC_CHUNK_SHIFT;
+    private static final int DOC_CHUNK_MASK = DOC_CHUNK_SIZE - 1;
+    private static final int MIN_TERM_LENGTH = 2;
+    private static final int MAX_TERM_LENGTH = 32;
+    private static final int MAX_QUERY_TERMS = 8;
+    // Tope de pasos por búsqueda; al alcanzarlo se devuelve un cursor para seguir
+    private static final int MAX_SCANNED = 50_000;
+
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{Nd}]+");
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final Block[] NO_BLOCKS = new Block[0];
+
+    // Decide si quien busca puede ver una conversación (se consulta una vez por conversación)
+    public interface Access {
+        boolean allows(String conversationKey, boolean isGroup);
+    }
+
+    public static final class Hit {
+        public final int position;
+        public final long messageId;
+        public final String conversationKey;
+        public final boolean isGroup;
+
+        Hit(int position, long messageId, String conversationKey, boolean isGroup) {
+            this.position = position;
+            this.messageId = messageId;
+            this.conversationKey = conversationKey;
+            this.isGroup = isGroup;
+        }
+    }
+
+    public static final class Result {
+        public final List<Hit> hits;
+        // Posición desde la que continuar (exclusiva), o -1 si no hay más resultados
+        public final int nextCursor;
+
+        Result(List<Hit> hits, int nextCursor) {
+            this.hits = hits;
+            this.nextCursor = nextCursor;
+        }
+    }
+
+    private static final class Conversation {
+        final String key;
+        final boolean isGroup;
+
+        Conversation(String key, boolean isGroup) {
+            this.key = key;
+            this.isGroup = isGroup;
+        }
+    }
+
+    // Bloque sellado: primera posición absoluta y luego deltas, todo en varint
+    private static final class Block {
+        final byte[] data;
+        final int first;
+        final int count;
+
+        Block(byte[] data, int first, int count) {
+            this.data = data;
+            this.first = first;
+            this.count = count;
+        }
+    }
+
+    // Estado publicado de una lista: los bloques sellados no cambian y la cola solo crece;
+    // al sellar o agrandar la cola se publica un estado nuevo
+    private static final class PostingsState {
+        final Block[] sealed;
+        final int[] tail;
+        volatile int tailCount;
+
+        PostingsState(Block[] sealed, int[] tail, int tailCount) {
+            this.sealed = sealed;
+            this.tail = tail;
+            this.tailCount = tailCount;
+        }
+    }
+
+    private static final class Postings {
+        volatile PostingsState state = new PostingsState(NO_BLOCKS, new int[2], 0);
+
+        void add(int position) {
+            PostingsState current = state;
+            int count = current.tailCount;
+            if (count == current.tail.length) {
+                if (count < BLOCK_SIZE) {
+                    current = new PostingsState(current.sealed, Arrays.copyOf(current.tail, count * 2), count);
+                } else {
+                    Block[] sealed = Arrays.copyOf(current.sealed, current.sealed.length + 1);
+                    sealed[current.sealed.length] = encode(current.tail, count);
+                    current = new PostingsState(sealed, new int[2], 0);
+                }
+                count = current.tailCount;
+                current.tail[count] = position;
+                current.tailCount = count + 1;
+                state = current;
+                return;
+            }
+            current.tail[count] = position;
+            current.tailCount = count + 1;
+        }
+    }
+
+    private final Map<String, Postings> terms = new ConcurrentHashMap<>();
+    private final Map<String, Integer> conversationOrdinals = new HashMap<>();
+    private volatile Conversation[] conversations = new Conversation[16];
+
+    private volatile long[][] docIds = new long[0][];
+    private volatile int[][] docConversations = new int[0][];
+    private volatile int documentCount;
+
+    public void add(String conversationKey, boolean isGroup, long messageId, String content) {
+        // Se tokeniza fuera del lock
+        Collection<String> messageTerms = tokenize(content, Integer.MAX_VALUE);
+        if (messageTerms.isEmpty()) {
+            return;
+        }
+
+        synchronized (this) {
+            int position = documentCount;
+            int conversation = conversationOrdinal(conversationKey, isGroup);
+            int chunk = position >>> DOC_CHUNK_SHIFT;
+            if (chunk == docIds.length) {
+                long[][] ids = Arrays.copyOf(docIds, chunk + 1);
+                int[][] convs = Arrays.copyOf(docConversations, chunk + 1);
+                ids[chunk] = new long[DOC_CHUNK_SIZE];
+                convs[chunk] = new int[DOC_CHUNK_SIZE];
+                docIds = ids;
+                docConversations = convs;
+            }
+            docIds[chunk][position & DOC_CHUNK_MASK] = messageId;
+            docConversations[chunk][position & DOC_CHUNK_MASK] = conversation;
+            // El documento se publica antes que las listas que lo referencian
+            documentCount = position + 1;
+
+            for (String term : messageTerms) {
+                terms.computeIfAbsent(term, k -> new Postings()).add(position);
+            }
+        }
+    }
+
+    // Mensajes que contienen todos los términos, del más reciente al más antiguo,
+    // empezando antes de la posición "cursor" (Integer.MAX_VALUE = desde el final)
+    public Result search(String query, int cursor, int limit, Access access) {
+        List<Hit> hits = new ArrayList<>();
+        Collection<String> queryTerms = tokenize(query, MAX_QUERY_TERMS);
+        if (queryTerms.isEmpty() || cursor <= 0) {
+            return new Result(hits, -1);
+        }
+
+        Cursor[] cursors = new Cursor[queryTerms.size()];
+        int i = 0;
+        for (String term : queryTerms) {
+            Postings postings = terms.get(term);
+            if (postings == null) {
+                return new Result(hits, -1);
+            }
+            cursors[i++] = new Cursor(postings);
+        }
+        // La lista más corta dirige el recorrido
+        Arrays.sort(cursors, Comparator.comparingInt(c -> c.size));
+
+        // Leídos después de las listas: incluyen todo documento que estas referencian
+        long[][] ids = docIds;
+        int[][] convs = docConversations;
+        Conversation[] knownConversations = conversations;
+        byte[] allowed = new byte[knownConversations.length]; // 0 = sin consultar, 1 = sí, 2 = no
+        int scanned = 0;
+        int below = cursor;
+
+        while (cursors[0].advance(below)) {
+            if (++scanned > MAX_SCANNED) {
+                return new Result(hits, below);
+            }
+            int candidate = cursors[0].current;
+            boolean matches = true;
+            for (int c = 1; c < cursors.length; c++) {
+                if (!cursors[c].advance(candidate + 1)) {
+                    return new Result(hits, -1);
+                }
+                if (cursors[c].current < candidate) {
+                    matches = false;
+                    below = cursors[c].current + 1;
+                    break;
+                }
+            }
+            if (!matches) {
+                continue;
+            }
+            below = candidate;
+
+            int conversation = convs[candidate >>> DOC_CHUNK_SHIFT][candidate & DOC_CHUNK_MASK];
+            if (allowed[conversation] == 0) {
+                Conversation target = knownConversations[conversation];
+                allowed[conversation] = access.allows(target.key, target.isGroup) ? (byte) 1 : (byte) 2;
+            }
+            if (allowed[conversation] == 1) {
+                Conversation target = knownConversations[conversation];
+                long messageId = ids[candidate >>> DOC_CHUNK_SHIFT][candidate & DOC_CHUNK_MASK];
+                hits.add(new Hit(candidate, messageId, target.key, target.isGroup));
+                if (hits.size() >= limit) {
+                    return new Result(hits, candidate);
+                }
+            }
+        }
+        return new Result(hits, -1);
+    }
+
+    public int getDocumentCount() {
+        return documentCount;
+    }
+
+    public int getTermCount() {
+        return terms.size();
+    }
+
+    // Minúsculas, sin tildes y partido en letras/dígitos; cada término una sola vez
+    static Collection<String> tokenize(String text, int maxTerms) {
+        Set<String> result = new LinkedHashSet<>();
+        if (text == null || text.isEmpty()) {
+            return result;
+        }
+        String normalized = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("")
+                .toLowerCase(Locale.ROOT);
+        for (String token : SEPARATORS.split(normalized)) {
+            if (token.length() >= MIN_TERM_LENGTH && token.length() <= MAX_TERM_LENGTH) {
+                result.add(token);
+                if (result.size() >= maxTerms) {
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    private int conversationOrdinal(String key, boolean isGroup) {
+        Integer ordinal = conversationOrdinals.get(key);
+        if (ordinal != null) {
+            return ordinal;
+        }
+        int next = conversationOrdinals.size();
+        Conversation[] current = conversations;
+        if (next == current.length) {
+            current = Arrays.copyOf(current, next * 2);
+        }
+        current[next] = new Conversation(key, isGroup);
+        conversations = current;
+        conversationOrdinals.put(key, next);
+        return next;
+    }
+
+    private static Block encode(int[] positions, int count) {
+        byte[] buffer = new byte[count * 5];
+        int length = writeVarint(buffer, 0, positions[0]);
+        for (int i = 1; i < count; i++) {
+            length = writeVarint(buffer, length, positions[i] - positions[i - 1]);
+        }
+        return new Block(Arrays.copyOf(buffer, length), positions[0], count);
+    }
+
+    private static int writeVarint(byte[] buffer, int offset, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[offset++] = (byte) value;
+        return offset;
+    }
+
+    // Recorre una lista de mayor a menor posición sobre una foto consistente de su estado
+    private static final class Cursor {
+        final Block[] sealed;
+        final int[] tail;
+        final int size;
+        final int[] decoded = new int[BLOCK_SIZE];
+
+        int segment;      // sealed.length = la cola
+        int[] values;     // posiciones del segmento cargado, o null
+        int index;
+        int current = -1;
+
+        Cursor(Postings postings) {
+            PostingsState state = postings.state;
+            int tailCount = state.tailCount;
+            this.sealed = state.sealed;
+            this.tail = Arrays.copyOf(state.tail, tailCount);
+            this.size = sealed.length * BLOCK_SIZE + tailCount;
+            this.segment = sealed.length;
+        }
+
+        // Se mueve a la mayor posición menor que "below"; false si no queda ninguna
+        boolean advance(int below) {
+            if (current >= 0 && current < below) {
+                return true;
+            }
+            while (segment >= 0) {
+                if (values == null) {
+                    if (segment == sealed.length) {
+                        values = tail;
+                        index = tail.length - 1;
+                    } else if (sealed[segment].first >= below) {
+                        // Bloque entero fuera de rango: se salta sin decodificar
+                        segment--;
+                        continue;
+                    } else {
+                        values = decode(sealed[segment]);
+                        index = sealed[segment].count - 1;
+                    }
+                }
+                while (index >= 0 && values[index] >= below) {
+                    index--;
+                }
+                if (index >= 0) {
+                    current = values[index];
+                    return true;
+                }
+                values = null;
+                segment--;
+            }
+            current = -1;
+            return false;
+        }
+
+        private int[] decode(Block block) {
+            byte[] data = block.data;
+            int offset = 0;
+            int previous = 0;
+            for (int i = 0; i < block.count; i++) {
+                int value = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data[offset++];
+                    value |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                previous = i == 0 ? value : previous + value;
+                decoded[i] = previous;
+            }
+            return decoded;
+        }
+    }
+}
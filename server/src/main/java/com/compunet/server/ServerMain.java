@@ -2,71 +2,267 @@ package com.compunet.server;
 
 import com.zeroc.Ice.*;
 
+import java.nio.file.Paths;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
 public class ServerMain {
+    private static final ChatLog log = ChatLog.forClass(ServerMain.class);
+
     public static void main(String[] args) {
         int status = 0;
         Communicator communicator = null;
         WebSocketHandler webSocketHandler = null;
+        ChatPersistence persistence = null;
+        HistoryCache historyCache = null;
+        DeliveryPipeline deliveryPipeline = null;
+        AdminServer adminServer = null;
+        ExecutorService virtualThreads = null;
+        CountDownLatch stopped = new CountDownLatch(1);
 
         try {
-            System.out.println("===========================================");
-            System.out.println("    Iniciando Servidor de Chat");
-            System.out.println("===========================================");
+            InitializationData initData = new InitializationData();
+            initData.properties = Util.createProperties(args);
+            Properties properties = initData.properties;
+
+            ChatLog.configure(
+                    ChatLog.Level.valueOf(properties.getPropertyWithDefault("Chat.Log.Level", "INFO").toUpperCase()),
+                    properties.getPropertyAsIntWithDefault("Chat.Log.TraceSampleEvery", 100));
+            log.info("Iniciando Servidor de Chat");
+
+            // platform: pool de Ice y decodificadores de WebSocket; virtual: cada despacho en su propio hilo virtual
+            String threadMode = properties.getPropertyWithDefault("Chat.Threads.Mode", "platform");
+            if (threadMode.equalsIgnoreCase("virtual")) {
+                try {
+                    virtualThreads = VirtualThreads.newExecutor("chat-dispatch");
+                    ExecutorService dispatcher = virtualThreads;
+                    initData.executor = (call, connection) -> dispatcher.execute(call);
+                    log.info("Despacho de Ice y WebSocket en hilos virtuales");
+                } catch (UnsupportedOperationException e) {
+                    log.warn("{}; se usan los pools de hilos", e.getMessage());
+                }
+            } else if (!threadMode.equalsIgnoreCase("platform")) {
+                throw new IllegalArgumentException("Chat.Threads.Mode inválido: " + threadMode);
+            }
+
+            communicator = Util.initialize(initData);
+
+            // Ctrl+C / SIGTERM: se apaga el comunicador y se espera a que el cierre ordenado del finally termine
+            // (instantánea final incluida) antes de dejar salir a la JVM
+            Communicator shutdownTarget = communicator;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    shutdownTarget.shutdown();
+                } catch (CommunicatorDestroyedException e) {
+                    // Salida normal: el finally ya cerró todo
+                }
+                try {
+                    stopped.await(60, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "chat-shutdown"));
 
             ChatCore chatCore = new ChatCore();
+            Cluster cluster = Cluster.fromProperties(communicator, properties);
+            chatCore.setCluster(cluster);
+            chatCore.setAudioStore(new AudioBlobStore(
+                    Paths.get(properties.getPropertyWithDefault("Chat.Audio.Dir", "data/audio"))));
 
-            webSocketHandler = new WebSocketHandler(8080, chatCore);
-            chatCore.setWebSocketHandler(webSocketHandler);
-            webSocketHandler.start();
+            String dataDir = properties.getPropertyWithDefault("Chat.Persistence.Dir", "data");
+            int historyCacheMB = properties.getPropertyAsIntWithDefault("Chat.History.CacheMB", 256);
+            if (historyCacheMB > 0) {
+                historyCache = new HistoryCache(
+                        Paths.get(properties.getPropertyWithDefault("Chat.History.SpillDir", dataDir + "/spill")),
+                        historyCacheMB * 1024L * 1024L);
+                chatCore.setHistoryCache(historyCache);
+            }
 
-            System.out.println(" Servidor WebSocket iniciado en puerto 8080");
+            if (properties.getPropertyAsIntWithDefault("Chat.Persistence.Enabled", 1) > 0) {
+                persistence = new ChatPersistence(
+                        Paths.get(dataDir),
+                        properties.getPropertyAsIntWithDefault("Chat.Persistence.SegmentSizeMB", 64) * 1024L * 1024L,
+                        properties.getPropertyAsIntWithDefault("Chat.Persistence.SnapshotIntervalSeconds", 300));
+                persistence.recover(chatCore);
+            }
 
-            communicator = Util.initialize(args);
+            Metrics metrics = new Metrics();
+
+            webSocketHandler = new WebSocketHandler(properties.getPropertyAsIntWithDefault("Chat.WebSocket.Port", 8080),
+                    chatCore,
+                    properties.getPropertyAsIntWithDefault("Chat.Offline.QueueCapacity", 500), metrics,
+                    properties.getPropertyAsIntWithDefault("Chat.WebSocket.Compression", 1) > 0
+                            ? properties.getPropertyAsIntWithDefault("Chat.WebSocket.CompressionThreshold", 1024)
+                            : -1);
+            deliveryPipeline = new DeliveryPipeline(
+                    webSocketHandler,
+                    properties.getPropertyAsIntWithDefault("Chat.Delivery.Workers",
+                            Runtime.getRuntime().availableProcessors()),
+                    properties.getPropertyAsIntWithDefault("Chat.Delivery.QueueCapacity", 10000),
+                    metrics);
+            chatCore.setDeliveryPipeline(deliveryPipeline);
+            webSocketHandler.setCluster(cluster);
+            webSocketHandler.setOutboundLimits(new Outbox.Limits(
+                    properties.getPropertyAsIntWithDefault("Chat.WebSocket.SocketBufferKB", 256) * 1024L,
+                    properties.getPropertyAsIntWithDefault("Chat.WebSocket.OutboxKB", 1024) * 1024L,
+                    Outbox.Policy.valueOf(properties.getPropertyWithDefault("Chat.WebSocket.SlowConsumerPolicy",
+                            "resync").toUpperCase())));
+            webSocketHandler.setExecutor(virtualThreads);
+            webSocketHandler.setInboundRateLimit(
+                    properties.getPropertyAsIntWithDefault("Chat.RateLimit.WebSocketPerSecond", 50),
+                    properties.getPropertyAsIntWithDefault("Chat.RateLimit.WebSocketBurst", 200));
+            webSocketHandler.start();
 
             ObjectAdapter adapter = communicator.createObjectAdapterWithEndpoints(
                     "ChatAdapter",
-                    "ws -h localhost -p 10000:tcp -h localhost -p 10001");
+                    properties.getPropertyWithDefault("ChatAdapter.Endpoints",
+                            "ws -h localhost -p 10000:tcp -h localhost -p 10001"));
 
-            ChatServiceI chatService = new ChatServiceI(chatCore);
-            GroupServiceI groupService = new GroupServiceI(chatCore);
+            Admission admission = Admission.fromProperties(properties);
+            ChatServiceI chatService = new ChatServiceI(chatCore, cluster, admission);
+            GroupServiceI groupService = new GroupServiceI(chatCore, cluster, admission);
 
-            adapter.add(chatService, Util.stringToIdentity("chat"));
-            adapter.add(groupService, Util.stringToIdentity("group"));
+            adapter.add(new MetricsInterceptor(chatService, "chat", metrics), Util.stringToIdentity("chat"));
+            adapter.add(new MetricsInterceptor(groupService, "group", metrics), Util.stringToIdentity("group"));
+            if (cluster.isEnabled()) {
+                adapter.add(new MetricsInterceptor(new ChatNodeI(chatCore, webSocketHandler), "node", metrics),
+                        Util.stringToIdentity("node"));
+            }
 
             // Activar el adapter
             adapter.activate();
 
-            System.out.println("===========================================");
-            System.out.println("Presiona Ctrl+C para detener el servidor");
-            System.out.println();
+            int adminPort = properties.getPropertyAsIntWithDefault("Chat.Admin.Port", 9090);
+            if (adminPort > 0) {
+                registerGauges(metrics, chatCore, webSocketHandler, deliveryPipeline, historyCache, admission);
+                adminServer = new AdminServer(
+                        properties.getPropertyWithDefault("Chat.Admin.Host", "localhost"), adminPort, metrics);
+                adminServer.start();
+            }
+
+            log.info("Servidor listo. Presiona Ctrl+C para detenerlo");
 
             communicator.waitForShutdown();
 
         } catch (java.lang.Exception e) {
-            System.err.println(" Error en el servidor: " + e.getMessage());
-            e.printStackTrace();
+            log.error("Error en el servidor", e);
             status = 1;
         } finally {
+            // Orden de cierre: entrada de clientes, persistencia (instantánea final), clúster, admin y por último el log
+
+            if (deliveryPipeline != null) {
+                try {
+                    deliveryPipeline.close();
+                } catch (java.lang.Exception e) {
+                    log.warn("Error al detener el pipeline de entrega: {}", e.getMessage());
+                }
+            }
 
             if (webSocketHandler != null) {
                 try {
                     webSocketHandler.stop();
-                    System.out.println(" Servidor WebSocket detenido");
+                    log.info("Servidor WebSocket detenido");
+                } catch (java.lang.Exception e) {
+                    log.warn("Error al detener WebSocket: {}", e.getMessage());
+                }
+            }
+
+            if (persistence != null) {
+                try {
+                    persistence.close();
+                    log.info("Persistencia cerrada");
+                } catch (java.lang.Exception e) {
+                    log.warn("Error al cerrar la persistencia: {}", e.getMessage());
+                }
+            }
+
+            // Después de la persistencia: la última instantánea puede leer bloques desalojados
+            if (historyCache != null) {
+                try {
+                    historyCache.close();
                 } catch (java.lang.Exception e) {
-                    System.err.println("Error al detener WebSocket: " + e.getMessage());
+                    log.warn("Error al cerrar la caché de historial: {}", e.getMessage());
                 }
             }
 
+            // Cierra también las conexiones con los nodos del clúster
             if (communicator != null) {
                 try {
                     communicator.destroy();
                 } catch (java.lang.Exception e) {
-                    System.err.println("Error al destruir el comunicador: " + e.getMessage());
+                    log.warn("Error al destruir el comunicador: {}", e.getMessage());
                     status = 1;
                 }
             }
+
+            if (adminServer != null) {
+                adminServer.close();
+            }
+
+            // Al final: el comunicador ya terminó sus despachos
+            if (virtualThreads != null) {
+                virtualThreads.shutdown();
+            }
+
+            ChatLog.flush(2000);
+            stopped.countDown();
         }
 
         System.exit(status);
     }
+
+    private static void registerGauges(Metrics metrics, ChatCore chatCore, WebSocketHandler webSocketHandler,
+            DeliveryPipeline deliveryPipeline, HistoryCache historyCache, Admission admission) {
+        metrics.gauge("chat_websocket_connected_users", "Usuarios conectados por WebSocket",
+                webSocketHandler::getConnectedUsersCount);
+        metrics.gauge("chat_websocket_outbound_queued_frames", "Frames pendientes de escribir en los sockets",
+                webSocketHandler::getOutboundQueuedFrames);
+        metrics.gauge("chat_websocket_outbox_bytes", "Bytes estimados en las colas de salida por conexión",
+                webSocketHandler::getOutboxQueuedBytes);
+        metrics.counter("chat_websocket_slow_consumers_total", "Colas de salida desbordadas por clientes lentos",
+                webSocketHandler::getSlowConsumerEvents);
+        metrics.counter("chat_ratelimit_websocket_rejected_total", "Frames WebSocket rechazados por límite de tasa",
+                webSocketHandler::getRateLimitedFrames);
+        metrics.counter("chat_ratelimit_user_rejected_total", "Llamadas rechazadas por el límite del remitente",
+                admission::getRejectedUserRequests);
+        metrics.counter("chat_ratelimit_group_rejected_total", "Llamadas rechazadas por el límite del grupo",
+                admission::getRejectedGroupRequests);
+        metrics.gauge("chat_ratelimit_tracked_keys", "Usuarios y grupos con cubeta de límite activa",
+                admission::getTrackedKeys);
+        metrics.gauge("chat_offline_pending_messages", "Notificaciones en cola para usuarios desconectados",
+                webSocketHandler::getOfflinePendingCount);
+        metrics.gauge("chat_delivery_queue_depth", "Lotes esperando en los carriles de entrega",
+                deliveryPipeline::getQueueDepth);
+        metrics.counter("chat_delivery_batches_total", "Lotes enviados al pipeline de entrega",
+                deliveryPipeline::getSubmittedBatches);
+        metrics.counter("chat_delivery_notifications_total", "Notificaciones entregadas",
+                deliveryPipeline::getDeliveredNotifications);
+        metrics.counter("chat_delivery_blocked_submissions_total", "Envíos que esperaron por cola llena",
+                deliveryPipeline::getBlockedSubmissions);
+        metrics.gauge("chat_store_messages", "Mensajes almacenados en memoria", chatCore::getStoredMessageCount);
+        metrics.gauge("chat_store_conversations", "Conversaciones en memoria", chatCore::getConversationCount);
+        metrics.gauge("chat_store_estimated_bytes", "Memoria estimada de los historiales de mensajes",
+                chatCore::getStoredMessageBytes);
+        if (historyCache != null) {
+            metrics.gauge("chat_history_resident_bytes", "Memoria estimada de los bloques de historial en memoria",
+                    historyCache::getResidentBytes);
+            metrics.gauge("chat_history_budget_bytes", "Presupuesto de memoria del historial",
+                    historyCache::getBudgetBytes);
+            metrics.gauge("chat_history_spill_file_bytes", "Tamaño del archivo de desalojo del historial",
+                    historyCache::getSpillFileBytes);
+            metrics.counter("chat_history_spilled_chunks_total", "Bloques de historial escritos a disco",
+                    historyCache::getSpilledChunks);
+            metrics.counter("chat_history_loaded_chunks_total", "Bloques de historial leídos desde disco",
+                    historyCache::getLoadedChunks);
+        }
+        metrics.gauge("chat_search_indexed_messages", "Mensajes en el índice de búsqueda",
+                chatCore::getIndexedMessageCount);
+        metrics.gauge("chat_search_terms", "Términos distintos en el índice de búsqueda",
+                chatCore::getIndexedTermCount);
+        metrics.counter("chat_log_dropped_events_total", "Eventos de log descartados por saturación",
+                ChatLog::getDroppedEvents);
+        metrics.gauge("jvm_heap_used_bytes", "Heap de la JVM en uso",
+                () -> Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory());
+    }
 }
\ No newline at end of file
@@ -0,0 +1,85 @@
+package com.compunet.server;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Frame binario de señalización de llamadas, para los clientes que lo negocian al registrarse:
+//   [tipo: u8][largo de from: u16][from UTF-8][largo de to: u16][to UTF-8][payload]
+// El payload (oferta, respuesta o candidato ICE) es opaco: se reenvía tal cual sin decodificarlo.
+final class SignalFrame {
+    static final String PROTOCOL = "binary-v1";
+
+    // Índice = código de tipo en el frame
+    private static final String[] TYPES = { null, "call-offer", "call-answer", "ice-candidate", "call-end",
+            "call-reject" };
+    // Campo JSON en el que viaja el payload para los clientes sin protocolo binario
+    private static final String[] PAYLOAD_FIELDS = { null, "offer", "answer", "candidate", null, null };
+
+    final int type;
+    final String from;
+    final String to;
+    private final ByteBuffer frame;
+    private final int payloadOffset;
+
+    private SignalFrame(int type, String from, String to, ByteBuffer frame, int payloadOffset) {
+        this.type = type;
+        this.from = from;
+        this.to = to;
+        this.frame = frame;
+        this.payloadOffset = payloadOffset;
+    }
+
+    static SignalFrame parse(ByteBuffer frame) {
+        ByteBuffer header = frame.duplicate();
+        try {
+            int type = header.get() & 0xFF;
+            if (type <= 0 || type >= TYPES.length) {
+                throw new IllegalArgumentException("Tipo de señalización desconocido: " + type);
+            }
+            String from = readString(header);
+            String to = readString(header);
+            return new SignalFrame(type, from, to, frame, header.position());
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Frame de señalización incompleto", e);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xFFFF;
+        if (length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        ByteBuffer value = buffer.slice();
+        value.limit(length);
+        buffer.position(buffer.position() + length);
+        return StandardCharsets.UTF_8.decode(value).toString();
+    }
+
+    String typeName() {
+        return TYPES[type];
+    }
+
+    // El frame completo, listo para escribirse otra vez sin copiarlo
+    ByteBuffer frame() {
+        return frame.duplicate();
+    }
+
+    byte[] toBytes() {
+        ByteBuffer copy = frame.duplicate();
+        byte[] bytes = new byte[copy.remaining()];
+        copy.get(bytes);
+        return bytes;
+    }
+
+    // Mismo contenido en el formato JSON de los clientes antiguos (solo aquí se decodifica el payload)
+    String toJson() {
+        String payload = null;
+        if (PAYLOAD_FIELDS[type] != null) {
+            ByteBuffer bytes = frame.duplicate();
+            bytes.position(payloadOffset);
+            payload = StandardCharsets.UTF_8.decode(bytes).toString();
+        }
+        return WebSocketHandler.encodeSignal(TYPES[type], from, PAYLOAD_FIELDS[type], payload);
+    }
+}
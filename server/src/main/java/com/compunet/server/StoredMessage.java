@@ -0,0 +1,134 @@
+package com.compunet.server;
+
+import compunet.Message;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+// Forma en que se guarda un mensaje en memoria: id numérico, emisor (id y nombre) y chat como
+// handles internados, y textos en UTF-8. Un mensaje de texto son dos objetos (el registro y su
+// contenido) en lugar de los ~10 de un Message; se convierte a Message solo al salir del núcleo.
+final class StoredMessage {
+    private static final byte GROUP = 1;
+    private static final byte AUDIO = 2;
+
+    // Emisor con el nombre que tenía al enviar, como en Message.senderName
+    private static final class Sender {
+        final String id;
+        final String name;
+
+        Sender(String id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Sender)) {
+                return false;
+            }
+            Sender sender = (Sender) other;
+            return id.equals(sender.id) && name.equals(sender.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(id, name);
+        }
+    }
+
+    // Los handles valen mientras viva el proceso (el archivo de desalojo se recrea al arrancar)
+    private static final Interner<Sender> senders = new Interner<>();
+    private static final Interner<String> chats = new Interner<>();
+
+    final long id;
+    final long timestamp;
+    final int sender;
+    final int chat;
+    final byte flags;
+    final int audioDuration;
+    final byte[] content;
+    final byte[] audioData; // null si no hay audio
+
+    private StoredMessage(long id, long timestamp, int sender, int chat, byte flags, int audioDuration,
+            byte[] content, byte[] audioData) {
+        this.id = id;
+        this.timestamp = timestamp;
+        this.sender = sender;
+        this.chat = chat;
+        this.flags = flags;
+        this.audioDuration = audioDuration;
+        this.content = content;
+        this.audioData = audioData;
+    }
+
+    static StoredMessage of(long id, Message message) {
+        byte flags = (byte) ((message.isGroupMessage ? GROUP : 0) | (message.isAudio ? AUDIO : 0));
+        return new StoredMessage(
+                id,
+                message.timestamp,
+                senders.handle(new Sender(message.senderId, message.senderName)),
+                chats.handle(message.chatId),
+                flags,
+                message.audioDuration,
+                message.content.getBytes(StandardCharsets.UTF_8),
+                message.audioData == null || message.audioData.isEmpty()
+                        ? null
+                        : message.audioData.getBytes(StandardCharsets.UTF_8));
+    }
+
+    Message toMessage() {
+        Sender from = senders.get(sender);
+        return new Message(
+                String.valueOf(id),
+                from.id,
+                from.name,
+                new String(content, StandardCharsets.UTF_8),
+                timestamp,
+                chats.get(chat),
+                (flags & GROUP) != 0,
+                (flags & AUDIO) != 0,
+                audioData == null ? "" : new String(audioData, StandardCharsets.UTF_8),
+                audioDuration);
+    }
+
+    // Cabecera y campos del registro más los arreglos de texto
+    long estimateBytes() {
+        return 56 + 16 + content.length + (audioData == null ? 0 : 16 + audioData.length);
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeLong(id);
+        out.writeLong(timestamp);
+        out.writeInt(sender);
+        out.writeInt(chat);
+        out.writeByte(flags);
+        out.writeInt(audioDuration);
+        out.writeInt(content.length);
+        out.write(content);
+        out.writeInt(audioData == null ? -1 : audioData.length);
+        if (audioData != null) {
+            out.write(audioData);
+        }
+    }
+
+    static StoredMessage read(DataInput in) throws IOException {
+        long id = in.readLong();
+        long timestamp = in.readLong();
+        int sender = in.readInt();
+        int chat = in.readInt();
+        byte flags = in.readByte();
+        int audioDuration = in.readInt();
+        byte[] content = new byte[in.readInt()];
+        in.readFully(content);
+        int audioLength = in.readInt();
+        byte[] audioData = null;
+        if (audioLength >= 0) {
+            audioData = new byte[audioLength];
+            in.readFully(audioData);
+        }
+        return new StoredMessage(id, timestamp, sender, chat, flags, audioDuration, content, audioData);
+    }
+}
@@ -0,0 +1,116 @@
+package com.compunet.server;
+
+import compunet.User;
+import compunet.UserDelta;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+// Directorio de usuarios versionado. Cada alta o cambio recibe una versión creciente y queda
+// en un registro de cambios con una sola entrada por usuario (la última), así getUsersSince
+// devuelve solo lo que cambió. Las lecturas no bloquean; las escrituras se serializan.
+// La versión vive en memoria y vuelve a empezar al reiniciar; la época (distinta en cada arranque)
+// le indica al cliente que sus versiones anteriores ya no sirven.
+public class UserDirectory {
+    private static final char KEY_SEPARATOR = '\u0000';
+
+    private static final class Entry {
+        final User user;
+        final long version;
+
+        Entry(User user, long version) {
+            this.user = user;
+            this.version = version;
+        }
+    }
+
+    private final Map<String, Entry> byId = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Long, String> changes = new ConcurrentSkipListMap<>();
+    // Claves "nombre o id en minúsculas" + separador + id, para buscar por prefijo
+    private final ConcurrentSkipListMap<String, String> searchIndex = new ConcurrentSkipListMap<>();
+    private final String epoch = UUID.randomUUID().toString();
+    private volatile long version;
+
+    // Devuelve false si el usuario ya existía con el mismo nombre (no cambia la versión)
+    public synchronized boolean put(User user) {
+        Entry previous = byId.get(user.id);
+        if (previous != null && previous.user.name.equals(user.name)) {
+            return false;
+        }
+
+        long next = version + 1;
+        // Se guarda una sola instancia por usuario y se comparte en todas las respuestas
+        User interned = new User(user.id.intern(), user.name.intern());
+        byId.put(interned.id, new Entry(interned, next));
+        changes.put(next, interned.id);
+
+        if (previous != null) {
+            changes.remove(previous.version);
+            searchIndex.remove(searchKey(previous.user.name, previous.user.id));
+        }
+        searchIndex.put(searchKey(interned.id, interned.id), interned.id);
+        searchIndex.put(searchKey(interned.name, interned.id), interned.id);
+
+        // Se publica al final: quien lea esta versión ya ve su entrada en changes
+        version = next;
+        return true;
+    }
+
+    public User get(String userId) {
+        Entry entry = byId.get(userId);
+        return entry != null ? entry.user : null;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return byId.size();
+    }
+
+    public List<User> getAll() {
+        List<User> users = new ArrayList<>(byId.size());
+        for (Entry entry : byId.values()) {
+            users.add(entry.user);
+        }
+        return users;
+    }
+
+    // Usuarios creados o cambiados después de "since", junto con la versión hasta la que llega el delta
+    public UserDelta getSince(long since) {
+        long current = version;
+        List<User> users = new ArrayList<>();
+        if (since < current) {
+            for (String userId : changes.subMap(Math.max(since, 0), false, current, true).values()) {
+                users.add(get(userId));
+            }
+        }
+        return new UserDelta(epoch, current, users.toArray(new User[0]));
+    }
+
+    // Busca por prefijo del nombre o del id, sin distinguir mayúsculas
+    public List<User> search(String prefix, int limit) {
+        String from = prefix.toLowerCase(Locale.ROOT);
+        Set<String> found = new LinkedHashSet<>();
+        for (Map.Entry<String, String> entry : searchIndex.tailMap(from, true).entrySet()) {
+            if (found.size() >= limit || !entry.getKey().startsWith(from)) {
+                break;
+            }
+            found.add(entry.getValue());
+        }
+
+        List<User> users = new ArrayList<>(found.size());
+        for (String userId : found) {
+            User user = get(userId);
+            if (user != null) {
+                users.add(user);
+            }
+        }
+        return users;
+    }
+
+    private static String searchKey(String text, String userId) {
+        return text.toLowerCase(Locale.ROOT) + KEY_SEPARATOR + userId;
+    }
+}
@@ -0,0 +1,29 @@
+package com.compunet.server;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+// Hilos virtuales (Java 21+). El proyecto compila para Java 11, así que se obtienen por reflexión
+// y solo se usan si la JVM en la que corre el servidor los ofrece.
+final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    // Un hilo virtual nuevo por tarea, con nombres "<prefijo>-0", "<prefijo>-1", ...
+    static ExecutorService newExecutor(String namePrefix) {
+        try {
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, namePrefix + "-", 0L);
+            ThreadFactory factory = (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, factory);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // En Java 19 y 20 existen como preview y fallan si no se activó
+            throw new UnsupportedOperationException(
+                    "Hilos virtuales no disponibles en Java " + System.getProperty("java.version"), e);
+        }
+    }
+}
@@ -1,54 +1,200 @@
 package com.compunet.server;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
 import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.extensions.permessage_deflate.PerMessageDeflateExtension;
 import org.java_websocket.handshake.ClientHandshake;
 import org.java_websocket.server.WebSocketServer;
 
+import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.Deflater;
 
 public class WebSocketHandler extends WebSocketServer {
+    private static final ChatLog log = ChatLog.forClass(WebSocketHandler.class);
+    private static final long FLUSH_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
 
     private final Map<String, WebSocket> userConnections = new ConcurrentHashMap<>();
-    private final Gson gson = new Gson();
+    // Conexiones que negociaron la señalización binaria (SignalFrame)
+    private final Set<WebSocket> binarySignaling = ConcurrentHashMap.newKeySet();
     private final ChatCore chatCore;
+    private final OfflineQueue offlineQueue;
+    private final Metrics metrics;
+    private Cluster cluster = Cluster.standalone();
+    // Con permessage-deflate no se usa broadcast (ver sendToUsers)
+    private final boolean compression;
+    // Con un executor, los mensajes se procesan fuera de los hilos decodificadores, en orden por conexión
+    private Executor executor;
+    private final Map<WebSocket, SerialExecutor> connectionExecutors = new ConcurrentHashMap<>();
+    // Colas de salida de las conexiones registradas y las que tienen frames esperando al socket
+    private final Map<WebSocket, Outbox> outboxes = new ConcurrentHashMap<>();
+    private final Set<Outbox> pendingOutboxes = ConcurrentHashMap.newKeySet();
+    // Último mensaje que confirmó cada conexión al registrarse; los pendientes posteriores se le reenvían
+    private final Map<WebSocket, Long> replayAfter = new ConcurrentHashMap<>();
+    private Outbox.Limits outboundLimits = new Outbox.Limits(256 * 1024, 1024 * 1024, Outbox.Policy.RESYNC);
+    private final LongAdder slowConsumerEvents = new LongAdder();
+    // Frames entrantes por usuario registrado (o por dirección remota antes del registro)
+    private RateLimiter inboundLimiter = RateLimiter.disabled();
+    private final Thread flusher;
+    private volatile boolean stopped;
+
+    private final Outbox.Encoder encoder = new Outbox.Encoder() {
+        @Override
+        public String encodeNewMessage(compunet.Message message) {
+            return WebSocketHandler.this.encodeNewMessage(message);
+        }
+
+        @Override
+        public String encodeNewMessages(List<compunet.Message> messages) {
+            return WebSocketHandler.this.encodeNewMessages(messages);
+        }
+
+        @Override
+        public String encodeResyncRequired() {
+            return JsonFrames.write(out -> out.beginObject().name("type").value("resync-required").endObject());
+        }
+
+        @Override
+        public long estimateBytes(compunet.Message message) {
+            return message.content.length() + message.audioData.length();
+        }
+    };
 
     public WebSocketHandler(int port, ChatCore chatCore) {
-        super(new InetSocketAddress(port));
+        this(port, chatCore, 500, new Metrics());
+    }
+
+    public WebSocketHandler(int port, ChatCore chatCore, int offlineQueueCapacity, Metrics metrics) {
+        this(port, chatCore, offlineQueueCapacity, metrics, -1);
+    }
+
+    // compressionThreshold: frames desde ese tamaño en bytes van con permessage-deflate si el cliente
+    // lo negocia (los navegadores lo ofrecen siempre); < 0 lo desactiva
+    public WebSocketHandler(int port, ChatCore chatCore, int offlineQueueCapacity, Metrics metrics,
+            int compressionThreshold) {
+        super(new InetSocketAddress(port), drafts(compressionThreshold));
         this.chatCore = chatCore;
-        System.out.println(" Servidor WebSocket iniciado en puerto " + port);
+        this.offlineQueue = new OfflineQueue(offlineQueueCapacity);
+        this.metrics = metrics;
+        this.compression = compressionThreshold >= 0;
+        this.flusher = new Thread(this::flushLoop, "chat-ws-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+        log.info("Servidor WebSocket iniciado en puerto {}", port);
+    }
+
+    private static List<Draft> drafts(int compressionThreshold) {
+        if (compressionThreshold < 0) {
+            return Collections.singletonList(new Draft_6455());
+        }
+        // Nivel 1 como Ice.Compression.Level: la mayor parte del ahorro en JSON con poco CPU.
+        // Los clientes sin la extensión siguen sin comprimir.
+        PerMessageDeflateExtension deflate = new PerMessageDeflateExtension(Deflater.BEST_SPEED);
+        deflate.setThreshold(compressionThreshold);
+        return Collections.singletonList(new Draft_6455(deflate));
+    }
+
+    // Debe configurarse antes de start(): afecta a las conexiones que se registren después
+    public void setOutboundLimits(Outbox.Limits limits) {
+        this.outboundLimits = limits;
+    }
+
+    // Debe configurarse antes de start()
+    public void setInboundRateLimit(double framesPerSecond, int burst) {
+        this.inboundLimiter = new RateLimiter(framesPerSecond, burst);
+    }
+
+    public void setCluster(Cluster cluster) {
+        this.cluster = cluster;
+    }
+
+    // Debe configurarse antes de start()
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
     }
 
     @Override
     public void onOpen(WebSocket conn, ClientHandshake handshake) {
-        System.out.println(" Nueva conexión WebSocket: " + conn.getRemoteSocketAddress());
+        log.debug("Nueva conexión WebSocket: {}", conn.getRemoteSocketAddress());
+        if (executor != null) {
+            connectionExecutors.put(conn, new SerialExecutor(executor));
+        }
     }
 
     @Override
     public void onClose(WebSocket conn, int code, String reason, boolean remote) {
-        // Buscar y eliminar el usuario desconectado
-        String disconnectedUser = null;
-        for (Map.Entry<String, WebSocket> entry : userConnections.entrySet()) {
-            if (entry.getValue() == conn) {
-                disconnectedUser = entry.getKey();
-                break;
-            }
+        // Con executor, la limpieza se encola detrás de lo que la conexión ya tenía pendiente: un
+        // "register" en cola no puede volver a registrarla (ni dejarle un Outbox) después de liberarla
+        SerialExecutor serial = connectionExecutors.remove(conn);
+        if (serial != null) {
+            serial.execute(() -> release(conn));
+        } else {
+            release(conn);
+        }
+    }
+
+    private void release(WebSocket conn) {
+        // El usuario va adjunto a la conexión; solo se elimina si sigue siendo su conexión actual
+        String disconnectedUser = conn.getAttachment();
+        binarySignaling.remove(conn);
+        Outbox outbox = outboxes.remove(conn);
+        if (outbox != null) {
+            pendingOutboxes.remove(outbox);
         }
+        replayAfter.remove(conn);
 
-        if (disconnectedUser != null) {
-            userConnections.remove(disconnectedUser);
-            System.out.println(" Usuario desconectado: " + disconnectedUser);
+        if (disconnectedUser != null && userConnections.remove(disconnectedUser, conn)) {
+            log.info("Usuario desconectado: {}", disconnectedUser);
         }
     }
 
     @Override
     public void onMessage(WebSocket conn, String message) {
+        SerialExecutor serial = connectionExecutors.get(conn);
+        if (serial != null) {
+            serial.execute(() -> handleMessage(conn, message));
+        } else {
+            handleMessage(conn, message);
+        }
+    }
+
+    // Solo la señalización de llamadas viaja en frames binarios
+    @Override
+    public void onMessage(WebSocket conn, ByteBuffer message) {
+        SerialExecutor serial = connectionExecutors.get(conn);
+        if (serial != null) {
+            serial.execute(() -> handleSignalFrame(conn, message));
+        } else {
+            handleSignalFrame(conn, message);
+        }
+    }
+
+    private void handleMessage(WebSocket conn, String message) {
+        if (!admit(conn)) {
+            return;
+        }
         try {
-            JsonObject json = gson.fromJson(message, JsonObject.class);
-            String type = json.get("type").getAsString();
+            JsonFrames.Inbound json = JsonFrames.parse(message);
+            String type = json.type;
+            long start = System.nanoTime();
 
             switch (type) {
                 case "register":
@@ -76,63 +222,231 @@ public class WebSocketHandler extends WebSocketServer {
                     break;
 
                 default:
-                    System.out.println(" Tipo de mensaje desconocido: " + type);
+                    log.warn("Tipo de mensaje desconocido: {}", type);
+                    return;
             }
+            metrics.webSocketMessage(type).recordSince(start);
         } catch (Exception e) {
-            System.err.println(" Error procesando mensaje WebSocket: " + e.getMessage());
-            e.printStackTrace();
+            log.error("Error procesando mensaje WebSocket", e);
+        }
+    }
+
+    // Se comprueba antes de decodificar el frame; el rechazo no pasa por el log
+    private boolean admit(WebSocket conn) {
+        String userId = conn.getAttachment();
+        String key;
+        if (userId != null) {
+            key = userId;
+        } else {
+            InetSocketAddress remote = conn.getRemoteSocketAddress();
+            key = remote != null ? "ip:" + remote.getAddress().getHostAddress() : "";
+        }
+        long retryAfterMs = inboundLimiter.tryAcquire(key, 1);
+        if (retryAfterMs == 0) {
+            return true;
         }
+        send(conn, JsonFrames.write(out -> out.beginObject()
+                .name("type").value("error")
+                .name("code").value("rate-limited")
+                .name("retryAfterMs").value(retryAfterMs)
+                .endObject()), false);
+        return false;
     }
 
     @Override
     public void onError(WebSocket conn, Exception ex) {
-        System.err.println(" Error en WebSocket: " + ex.getMessage());
-        ex.printStackTrace();
+        log.error("Error en WebSocket", ex);
+    }
+
+    @Override
+    public void stop(int timeout) throws InterruptedException {
+        stopped = true;
+        LockSupport.unpark(flusher);
+        super.stop(timeout);
     }
 
     @Override
     public void onStart() {
-        System.out.println(" Servidor WebSocket listo para aceptar conexiones");
+        log.info("Servidor WebSocket listo para aceptar conexiones");
         setConnectionLostTimeout(100);
     }
 
-    private void handleRegister(WebSocket conn, JsonObject json) {
-        String userId = json.get("userId").getAsString();
-        userConnections.put(userId, conn);
+    private void handleRegister(WebSocket conn, JsonFrames.Inbound json) {
+        String userId = JsonFrames.Inbound.require(json.userId, "userId");
+        // Cerrada mientras el mensaje esperaba: onClose ya la liberó
+        if (!conn.isOpen()) {
+            return;
+        }
+
+        // En clúster cada usuario se conecta al nodo que le asigna el anillo de hash
+        String ownerUrl = cluster.webSocketUrlFor(userId);
+        if (ownerUrl != null) {
+            Outbox.write(conn, JsonFrames.write(out -> out.beginObject()
+                    .name("type").value("redirect")
+                    .name("url").value(ownerUrl)
+                    .endObject()));
+            log.debug("Usuario {} redirigido a {}", userId, ownerUrl);
+            return;
+        }
+
+        // Si la conexión se re-registra con otro usuario, se libera el anterior
+        String previousUser = conn.getAttachment();
+        if (previousUser != null && !previousUser.equals(userId)) {
+            userConnections.remove(previousUser, conn);
+        }
+
+        conn.setAttachment(userId);
+
+        // El cliente ofrece el protocolo binario; los que no lo piden siguen solo con JSON
+        boolean binary = SignalFrame.PROTOCOL.equals(json.signaling);
+        if (binary) {
+            binarySignaling.add(conn);
+        } else {
+            binarySignaling.remove(conn);
+        }
+
+        Outbox outbox = new Outbox(conn, userId, outboundLimits, encoder, json.batching,
+                () -> onSlowConsumer(userId));
+        Outbox previousOutbox = outboxes.put(conn, outbox);
+        if (previousOutbox != null) {
+            pendingOutboxes.remove(previousOutbox);
+        }
+        if (json.hasLastMessageId) {
+            replayAfter.put(conn, json.lastMessageId);
+        } else {
+            replayAfter.remove(conn);
+        }
+
+        // Se publica la conexión antes de vaciar la cola offline: lo que se encole después lo reenvía el emisor
+        // (ver sendToUsers), así ningún mensaje queda varado en la cola hasta la próxima reconexión
+        WebSocket previousConn = userConnections.put(userId, conn);
+        if (previousConn != null && previousConn != conn) {
+            log.info("Conexión anterior reemplazada para: {}", userId);
+        }
+        // Sin executor, onClose corre en otro hilo y pudo liberarla mientras tanto: se deshace el registro
+        // (con executor la liberación ya está en cola detrás de esta tarea y no hace falta)
+        if (!conn.isOpen()) {
+            release(conn);
+            return;
+        }
 
-        JsonObject response = new JsonObject();
-        response.addProperty("type", "registered");
-        response.addProperty("userId", userId);
+        Outbox.write(conn, JsonFrames.write(out -> out.beginObject()
+                .name("type").value("registered")
+                .name("userId").value(userId)
+                .name("signaling").value(binary ? SignalFrame.PROTOCOL : null)
+                .endObject()));
+        log.info("Usuario registrado en WebSocket: {}", userId);
 
-        conn.send(gson.toJson(response));
-        System.out.println(" Usuario registrado en WebSocket: " + userId);
+        replayPending(conn, userId);
+    }
+
+    // Un cliente que se reconecta indica el último mensaje que recibió y solo se le envía lo posterior;
+    // sin ese dato recarga los historiales completos y los pendientes sobran
+    private void replayPending(WebSocket conn, String userId) {
+        Long lastMessageId = replayAfter.get(conn);
+        if (lastMessageId == null) {
+            offlineQueue.discard(userId);
+            return;
+        }
+
+        OfflineQueue.Replay replay = offlineQueue.drain(userId, lastMessageId);
+
+        if (replay.overflowed) {
+            send(conn, encoder.encodeResyncRequired(), false);
+            log.info("Cola offline desbordada, resincronización requerida: {}", userId);
+            return;
+        }
+
+        // Por la cola de salida: si son muchos se agrupan en frames new-messages
+        for (compunet.Message message : replay.messages) {
+            send(conn, message);
+        }
+        if (!replay.messages.isEmpty()) {
+            log.info("{} mensajes pendientes reenviados a: {}", replay.messages.size(), userId);
+        }
     }
 
     public void notifyNewMessage(String userId, compunet.Message message) {
-        WebSocket conn = userConnections.get(userId);
+        sendToUsers(Collections.singletonList(userId), encodeNewMessage(message), message);
+    }
 
-        if (conn != null && conn.isOpen()) {
-            JsonObject notification = new JsonObject();
-            notification.addProperty("type", "new-message");
-
-            JsonObject msgJson = new JsonObject();
-            msgJson.addProperty("id", message.id);
-            msgJson.addProperty("senderId", message.senderId);
-            msgJson.addProperty("senderName", message.senderName);
-            msgJson.addProperty("content", message.content);
-            msgJson.addProperty("timestamp", message.timestamp);
-            msgJson.addProperty("chatId", message.chatId);
-            msgJson.addProperty("isGroupMessage", message.isGroupMessage);
-            msgJson.addProperty("isAudio", message.isAudio);
-            msgJson.addProperty("audioData", message.audioData);
-            msgJson.addProperty("audioDuration", message.audioDuration);
-
-            notification.add("message", msgJson);
-
-            conn.send(gson.toJson(notification));
-            System.out.println(" Notificación de mensaje enviada a: " + userId);
-        } else {
-            System.out.println(" Usuario no conectado vía WebSocket: " + userId);
+    // Se codifica una sola vez y el mismo frame se escribe a todos los destinatarios
+    public String encodeNewMessage(compunet.Message stored) {
+        return JsonFrames.write(out -> {
+            out.beginObject().name("type").value("new-message").name("message");
+            writeMessage(out, stored);
+            out.endObject();
+        });
+    }
+
+    // Varios new-message de una misma conexión en un frame, para clientes que lo aceptan
+    public String encodeNewMessages(List<compunet.Message> messages) {
+        return JsonFrames.write(out -> {
+            out.beginObject().name("type").value("new-messages").name("messages").beginArray();
+            for (compunet.Message message : messages) {
+                writeMessage(out, message);
+            }
+            out.endArray().endObject();
+        });
+    }
+
+    // audioData lleva solo la referencia "blob:<hash>"; el destinatario descarga el audio al reproducirlo
+    private void writeMessage(JsonWriter out, compunet.Message message) throws IOException {
+        out.beginObject()
+                .name("id").value(message.id)
+                .name("senderId").value(message.senderId)
+                .name("senderName").value(message.senderName)
+                .name("content").value(message.content)
+                .name("timestamp").value(message.timestamp)
+                .name("chatId").value(message.chatId)
+                .name("isGroupMessage").value(message.isGroupMessage)
+                .name("isAudio").value(message.isAudio)
+                .name("audioData").value(message.audioData)
+                .name("audioDuration").value(message.audioDuration)
+                .endObject();
+    }
+
+    // Java-WebSocket arma los frames una vez por draft y los reutiliza para cada conexión.
+    // Las conexiones con frames en espera o el socket cargado reciben el suyo por su cola de salida.
+    // Con permessage-deflate no hay difusión compartida: la extensión comprime el frame en su lugar y
+    // cada destinatario después del primero recibiría datos comprimidos dos veces. Cada conexión
+    // recibe entonces el texto ya codificado por su cola de salida, que serializa sus escrituras.
+    // Si se indica el mensaje, los destinatarios desconectados lo reciben al reconectarse.
+    public void sendToUsers(Collection<String> userIds, String frame, compunet.Message pendingMessage) {
+        List<WebSocket> targets = new ArrayList<>(userIds.size());
+
+        for (String userId : userIds) {
+            WebSocket conn = userConnections.get(userId);
+            if (conn != null && conn.isOpen()) {
+                Outbox outbox = outboxes.get(conn);
+                if (!compression && (outbox == null || outbox.canWriteDirectly())) {
+                    targets.add(conn);
+                } else if (outbox == null) {
+                    Outbox.write(conn, frame);
+                } else if (pendingMessage != null) {
+                    schedule(outbox, outbox.send(frame, pendingMessage));
+                } else {
+                    schedule(outbox, outbox.send(frame, false));
+                }
+            } else if (pendingMessage != null) {
+                offlineQueue.enqueue(userId, pendingMessage);
+                log.trace("Usuario no conectado vía WebSocket, mensaje en cola: {}", userId);
+
+                // Se registró mientras tanto y pudo vaciar la cola antes de este mensaje: se le reenvía ya
+                WebSocket registered = userConnections.get(userId);
+                if (registered != null && registered.isOpen()) {
+                    replayPending(registered, userId);
+                }
+            } else {
+                log.trace("Usuario no conectado vía WebSocket: {}", userId);
+            }
+        }
+
+        if (!targets.isEmpty()) {
+            broadcast(frame, targets);
+            if (log.isTraceEnabled()) {
+                log.trace("Notificación enviada a {} conexiones", targets.size());
+            }
         }
     }
 
@@ -140,122 +454,286 @@ public class WebSocketHandler extends WebSocketServer {
         WebSocket conn = userConnections.get(userId);
 
         if (conn != null && conn.isOpen()) {
-            JsonObject notification = new JsonObject();
-            notification.addProperty("type", "new-group");
-
-            JsonObject groupJson = new JsonObject();
-            groupJson.addProperty("chatId", chatSummary.chatId);
-            groupJson.addProperty("chatName", chatSummary.chatName);
-            groupJson.addProperty("lastMessageContent", chatSummary.lastMessageContent);
-            groupJson.addProperty("lastMessageTimestamp", chatSummary.lastMessageTimestamp);
-            groupJson.addProperty("isGroup", chatSummary.isGroup);
+            send(conn, encodeNewGroup(chatSummary), false);
+            log.trace("Notificación de grupo enviada a: {}", userId);
+        }
+    }
 
-            notification.add("group", groupJson);
+    public String encodeNewGroup(compunet.ChatSummary chatSummary) {
+        return JsonFrames.write(out -> out.beginObject()
+                .name("type").value("new-group")
+                .name("group").beginObject()
+                .name("chatId").value(chatSummary.chatId)
+                .name("chatName").value(chatSummary.chatName)
+                .name("lastMessageContent").value(chatSummary.lastMessageContent)
+                .name("lastMessageTimestamp").value(chatSummary.lastMessageTimestamp)
+                .name("isGroup").value(chatSummary.isGroup)
+                .endObject()
+                .endObject());
+    }
 
-            conn.send(gson.toJson(notification));
-            System.out.println(" Notificación de grupo enviada a: " + userId);
+    // Entrega un frame de señalización al usuario, aquí o en el nodo del clúster que lo atiende
+    private boolean sendSignal(String toUser, String frame) {
+        WebSocket targetConn = userConnections.get(toUser);
+        if (targetConn != null && targetConn.isOpen()) {
+            send(targetConn, frame, true);
+            return true;
         }
+        return cluster.forwardSignal(toUser, frame);
     }
 
-    private void handleCallOffer(JsonObject json) {
-        String fromUser = json.get("from").getAsString();
-        String toUser = json.get("to").getAsString();
-        String offer = json.get("offer").getAsString();
+    // Frame JSON de señalización; field/payload se omiten en los tipos sin contenido
+    static String encodeSignal(String type, String fromUser, String field, String payload) {
+        return JsonFrames.write(out -> {
+            out.beginObject()
+                    .name("type").value(type)
+                    .name("from").value(fromUser);
+            if (field != null) {
+                out.name(field).value(payload);
+            }
+            out.endObject();
+        });
+    }
 
+    // Señalización reenviada por otro nodo del clúster
+    public void deliverSignal(String toUser, String frame) {
         WebSocket targetConn = userConnections.get(toUser);
+        if (targetConn != null && targetConn.isOpen()) {
+            send(targetConn, frame, true);
+        }
+    }
 
+    // Señalización binaria reenviada por otro nodo del clúster
+    public void deliverSignal(String toUser, byte[] frame) {
+        WebSocket targetConn = userConnections.get(toUser);
         if (targetConn != null && targetConn.isOpen()) {
-            JsonObject callNotification = new JsonObject();
-            callNotification.addProperty("type", "call-offer");
-            callNotification.addProperty("from", fromUser);
-            callNotification.addProperty("offer", offer);
+            writeSignal(targetConn, SignalFrame.parse(ByteBuffer.wrap(frame)));
+        }
+    }
 
-            targetConn.send(gson.toJson(callNotification));
-            System.out.println(" Oferta de llamada enviada de " + fromUser + " a " + toUser);
-        } else {
+    // Se lee solo la cabecera; el payload se reenvía sin tocarlo
+    private void handleSignalFrame(WebSocket conn, ByteBuffer data) {
+        if (!admit(conn)) {
+            return;
+        }
+        try {
+            long start = System.nanoTime();
+            SignalFrame signal = SignalFrame.parse(data);
+
+            WebSocket targetConn = userConnections.get(signal.to);
+            if (targetConn != null && targetConn.isOpen()) {
+                writeSignal(targetConn, signal);
+            } else if (cluster.forwardSignal(signal.to, signal.toBytes())) {
+                log.trace("Señalización {} reenviada al nodo de {}", signal.typeName(), signal.to);
+            } else if ("call-offer".equals(signal.typeName())) {
+                sendCallUnavailable(conn);
+            }
+            metrics.webSocketMessage(signal.typeName()).recordSince(start);
+        } catch (Exception e) {
+            log.error("Error procesando señalización binaria", e);
+        }
+    }
 
-            WebSocket callerConn = userConnections.get(fromUser);
-            if (callerConn != null && callerConn.isOpen()) {
-                JsonObject response = new JsonObject();
-                response.addProperty("type", "call-unavailable");
-                response.addProperty("reason", "Usuario no disponible");
-                callerConn.send(gson.toJson(response));
+    private void writeSignal(WebSocket targetConn, SignalFrame signal) {
+        if (binarySignaling.contains(targetConn)) {
+            Outbox outbox = outboxes.get(targetConn);
+            if (outbox != null) {
+                schedule(outbox, outbox.send(signal.frame()));
+            } else {
+                Outbox.write(targetConn, signal.frame());
             }
+        } else {
+            send(targetConn, signal.toJson(), true);
         }
     }
 
-    private void handleCallAnswer(JsonObject json) {
-        String fromUser = json.get("from").getAsString();
-        String toUser = json.get("to").getAsString();
-        String answer = json.get("answer").getAsString();
+    private void sendCallUnavailable(WebSocket callerConn) {
+        if (callerConn != null && callerConn.isOpen()) {
+            send(callerConn, JsonFrames.write(out -> out.beginObject()
+                    .name("type").value("call-unavailable")
+                    .name("reason").value("Usuario no disponible")
+                    .endObject()), true);
+        }
+    }
 
-        WebSocket targetConn = userConnections.get(toUser);
+    private void handleCallOffer(JsonFrames.Inbound json) {
+        String fromUser = JsonFrames.Inbound.require(json.from, "from");
+        String toUser = JsonFrames.Inbound.require(json.to, "to");
+        String offer = JsonFrames.Inbound.require(json.offer, "offer");
 
-        if (targetConn != null && targetConn.isOpen()) {
-            JsonObject answerNotification = new JsonObject();
-            answerNotification.addProperty("type", "call-answer");
-            answerNotification.addProperty("from", fromUser);
-            answerNotification.addProperty("answer", answer);
+        String frame = encodeSignal("call-offer", fromUser, "offer", offer);
 
-            targetConn.send(gson.toJson(answerNotification));
-            System.out.println(" Respuesta de llamada enviada de " + fromUser + " a " + toUser);
+        if (sendSignal(toUser, frame)) {
+            log.debug("Oferta de llamada enviada de {} a {}", fromUser, toUser);
+        } else {
+            sendCallUnavailable(userConnections.get(fromUser));
         }
     }
 
-    private void handleIceCandidate(JsonObject json) {
-        String fromUser = json.get("from").getAsString();
-        String toUser = json.get("to").getAsString();
-        String candidate = json.get("candidate").getAsString();
+    private void handleCallAnswer(JsonFrames.Inbound json) {
+        String fromUser = JsonFrames.Inbound.require(json.from, "from");
+        String toUser = JsonFrames.Inbound.require(json.to, "to");
+        String answer = JsonFrames.Inbound.require(json.answer, "answer");
 
-        WebSocket targetConn = userConnections.get(toUser);
+        String frame = encodeSignal("call-answer", fromUser, "answer", answer);
 
-        if (targetConn != null && targetConn.isOpen()) {
-            JsonObject iceNotification = new JsonObject();
-            iceNotification.addProperty("type", "ice-candidate");
-            iceNotification.addProperty("from", fromUser);
-            iceNotification.addProperty("candidate", candidate);
+        if (sendSignal(toUser, frame)) {
+            log.debug("Respuesta de llamada enviada de {} a {}", fromUser, toUser);
+        }
+    }
+
+    private void handleIceCandidate(JsonFrames.Inbound json) {
+        String fromUser = JsonFrames.Inbound.require(json.from, "from");
+        String toUser = JsonFrames.Inbound.require(json.to, "to");
+        String candidate = JsonFrames.Inbound.require(json.candidate, "candidate");
 
-            targetConn.send(gson.toJson(iceNotification));
-            System.out.println(" ICE candidate enviado de " + fromUser + " a " + toUser);
+        String frame = encodeSignal("ice-candidate", fromUser, "candidate", candidate);
+
+        if (sendSignal(toUser, frame)) {
+            log.trace("ICE candidate enviado de {} a {}", fromUser, toUser);
         }
     }
 
-    private void handleCallEnd(JsonObject json) {
-        String fromUser = json.get("from").getAsString();
-        String toUser = json.get("to").getAsString();
+    private void handleCallEnd(JsonFrames.Inbound json) {
+        String fromUser = JsonFrames.Inbound.require(json.from, "from");
+        String toUser = JsonFrames.Inbound.require(json.to, "to");
 
-        WebSocket targetConn = userConnections.get(toUser);
+        String frame = encodeSignal("call-end", fromUser, null, null);
 
-        if (targetConn != null && targetConn.isOpen()) {
-            JsonObject endNotification = new JsonObject();
-            endNotification.addProperty("type", "call-end");
-            endNotification.addProperty("from", fromUser);
+        if (sendSignal(toUser, frame)) {
+            log.debug("Llamada finalizada entre {} y {}", fromUser, toUser);
+        }
+    }
 
-            targetConn.send(gson.toJson(endNotification));
-            System.out.println(" Llamada finalizada entre " + fromUser + " y " + toUser);
+    private void handleCallReject(JsonFrames.Inbound json) {
+        String fromUser = JsonFrames.Inbound.require(json.from, "from");
+        String toUser = JsonFrames.Inbound.require(json.to, "to");
+
+        String frame = encodeSignal("call-reject", fromUser, null, null);
+
+        if (sendSignal(toUser, frame)) {
+            log.debug("Llamada rechazada entre {} y {}", fromUser, toUser);
         }
     }
 
-    private void handleCallReject(JsonObject json) {
-        String fromUser = json.get("from").getAsString();
-        String toUser = json.get("to").getAsString();
+    // Frames para conexiones registradas pasan por su cola de salida
+    private void send(WebSocket conn, String frame, boolean signal) {
+        Outbox outbox = outboxes.get(conn);
+        if (outbox != null) {
+            schedule(outbox, outbox.send(frame, signal));
+        } else {
+            Outbox.write(conn, frame);
+        }
+    }
 
-        WebSocket targetConn = userConnections.get(toUser);
+    private void send(WebSocket conn, compunet.Message message) {
+        Outbox outbox = outboxes.get(conn);
+        if (outbox != null) {
+            schedule(outbox, outbox.send(message));
+        } else {
+            Outbox.write(conn, encodeNewMessage(message));
+        }
+    }
 
-        if (targetConn != null && targetConn.isOpen()) {
-            JsonObject rejectNotification = new JsonObject();
-            rejectNotification.addProperty("type", "call-reject");
-            rejectNotification.addProperty("from", fromUser);
+    private void schedule(Outbox outbox, boolean queued) {
+        if (queued && pendingOutboxes.add(outbox)) {
+            LockSupport.unpark(flusher);
+        }
+    }
+
+    private void onSlowConsumer(String userId) {
+        slowConsumerEvents.increment();
+        // La conexión se cierra: al reconectarse, la cola offline le indicará que resincronice
+        if (outboundLimits.policy == Outbox.Policy.DISCONNECT) {
+            offlineQueue.markOverflowed(userId);
+        }
+    }
 
-            targetConn.send(gson.toJson(rejectNotification));
-            System.out.println(" Llamada rechazada entre " + fromUser + " y " + toUser);
+    // Escribe lo que esperaba en las colas de salida a medida que los sockets se descargan
+    private void flushLoop() {
+        while (!stopped) {
+            for (Outbox outbox : pendingOutboxes) {
+                // Se quita antes de vaciar: un envío concurrente la vuelve a agregar
+                pendingOutboxes.remove(outbox);
+                try {
+                    if (outbox.flush() && outboxes.get(outbox.connection()) == outbox) {
+                        pendingOutboxes.add(outbox);
+                    }
+                } catch (RuntimeException e) {
+                    log.warn("Error al vaciar la cola de salida: {}", e.getMessage());
+                }
+            }
+            LockSupport.parkNanos(this, pendingOutboxes.isEmpty() ? TimeUnit.SECONDS.toNanos(1) : FLUSH_INTERVAL_NANOS);
         }
     }
 
+    public int getOfflinePendingCount() {
+        return offlineQueue.getPendingCount();
+    }
+
     public int getConnectedUsersCount() {
         return userConnections.size();
     }
 
+    // Bytes estimados en las colas de salida (aún no entregados a Java-WebSocket)
+    public long getOutboxQueuedBytes() {
+        long bytes = 0;
+        for (Outbox outbox : outboxes.values()) {
+            bytes += outbox.getQueuedBytes();
+        }
+        return bytes;
+    }
+
+    public long getSlowConsumerEvents() {
+        return slowConsumerEvents.sum();
+    }
+
+    public long getRateLimitedFrames() {
+        return inboundLimiter.getRejected();
+    }
+
+    // Frames encolados y aún no escritos al socket, sumando todas las conexiones
+    public long getOutboundQueuedFrames() {
+        long queued = 0;
+        for (WebSocket conn : getConnections()) {
+            if (conn instanceof WebSocketImpl) {
+                queued += ((WebSocketImpl) conn).outQueue.size();
+            }
+        }
+        return queued;
+    }
+
+    // Ejecuta las tareas de una conexión de a una y en orden, sin ocupar un hilo mientras no hay trabajo
+    private static final class SerialExecutor implements Runnable {
+        private final Executor executor;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        SerialExecutor(Executor executor) {
+            this.executor = executor;
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            if (scheduled.compareAndSet(false, true)) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+            scheduled.set(false);
+            // Una tarea pudo llegar entre el último poll y la línea anterior
+            if (!tasks.isEmpty() && scheduled.compareAndSet(false, true)) {
+                executor.execute(this);
+            }
+        }
+    }
+
     public boolean isUserConnected(String userId) {
         WebSocket conn = userConnections.get(userId);
         return conn != null && conn.isOpen();
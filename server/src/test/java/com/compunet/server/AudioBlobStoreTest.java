@@ -0,0 +1,75 @@
+package com.compunet.server;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class AudioBlobStoreTest {
+    private Path directory;
+    private AudioBlobStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("audio-blob-test");
+        store = new AudioBlobStore(directory);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        MessageLogTest.deleteRecursively(directory);
+    }
+
+    @Test
+    public void chunkedUploadMatchesSingleUpload() {
+        byte[] data = audio(AudioBlobStore.MAX_CHUNK_BYTES * 2 + 1000);
+
+        String uploadId = store.beginUpload(data.length);
+        for (int offset = 0; offset < data.length; offset += AudioBlobStore.MAX_CHUNK_BYTES) {
+            int end = Math.min(data.length, offset + AudioBlobStore.MAX_CHUNK_BYTES);
+            store.append(uploadId, offset, Arrays.copyOfRange(data, offset, end));
+        }
+        // Reintento de la primera parte: no cambia el resultado
+        store.append(uploadId, 0, Arrays.copyOfRange(data, 0, AudioBlobStore.MAX_CHUNK_BYTES));
+        String reference = store.commitUpload(uploadId);
+
+        assertEquals(store.put(data), reference);
+        assertEquals(data.length, store.size(reference));
+        assertArrayEquals(Arrays.copyOfRange(data, 100, 200), store.read(reference, 100, 100));
+    }
+
+    @Test
+    public void incompleteOrOutOfOrderUploadIsRejected() {
+        byte[] data = audio(3000);
+        String uploadId = store.beginUpload(data.length);
+
+        try {
+            store.append(uploadId, 2000, Arrays.copyOfRange(data, 2000, 3000));
+            fail("Se aceptó una parte fuera de orden");
+        } catch (RuntimeException expected) {
+            // esperado
+        }
+
+        store.append(uploadId, 0, Arrays.copyOfRange(data, 0, 2000));
+        try {
+            store.commitUpload(uploadId);
+            fail("Se aceptó una subida incompleta");
+        } catch (RuntimeException expected) {
+            // esperado
+        }
+    }
+
+    private static byte[] audio(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31 + 7);
+        }
+        return data;
+    }
+}
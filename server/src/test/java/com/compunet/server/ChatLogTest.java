@@ -0,0 +1,85 @@
+package com.compunet.server;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ChatLogTest {
+
+    // Logger de slf4j que guarda el primer argumento de cada info y puede bloquear al hilo de log
+    private static final class RecordingLogger {
+        final List<Object> written = new CopyOnWriteArrayList<>();
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Logger logger = (Logger) Proxy.newProxyInstance(Logger.class.getClassLoader(),
+                new Class<?>[] { Logger.class }, (proxy, method, args) -> {
+                    if (method.getName().equals("info") && args != null && args.length == 2) {
+                        entered.countDown();
+                        release.await();
+                        written.add(((Object[]) args[1])[0]);
+                        return null;
+                    }
+                    if (method.getName().equals("getName")) {
+                        return "test";
+                    }
+                    return method.getReturnType() == boolean.class ? Boolean.TRUE : null;
+                });
+    }
+
+    @Test(timeout = 30000)
+    public void writesEventsInOrder() throws Exception {
+        RecordingLogger recording = new RecordingLogger();
+        recording.release.countDown();
+        ChatLog log = ChatLog.forLogger(recording.logger);
+
+        for (int i = 0; i < 1000; i++) {
+            log.info("evento {}", i);
+        }
+        ChatLog.flush(10000);
+
+        assertEquals(1000, recording.written.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, recording.written.get(i));
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void fullRingDropsInsteadOfBlocking() throws Exception {
+        RecordingLogger recording = new RecordingLogger();
+        ChatLog log = ChatLog.forLogger(recording.logger);
+        try {
+            // El hilo de log queda detenido en el primer evento
+            log.info("evento {}", 0);
+            assertTrue(recording.entered.await(10, TimeUnit.SECONDS));
+
+            long droppedBefore = ChatLog.getDroppedEvents();
+            int extra = 10;
+            for (int i = 1; i <= ChatLog.CAPACITY + extra; i++) {
+                log.info("evento {}", i);
+            }
+            // La ranura del evento en curso sigue ocupada: caben CAPACITY - 1 más
+            assertTrue(ChatLog.getDroppedEvents() - droppedBefore >= extra + 1);
+        } finally {
+            recording.release.countDown();
+        }
+
+        ChatLog.flush(10000);
+        List<Object> written = recording.written;
+        assertTrue(written.size() <= ChatLog.CAPACITY);
+        // Se descartan los más nuevos: lo escrito es un prefijo contiguo
+        for (int i = 0; i < written.size(); i++) {
+            assertEquals(i, written.get(i));
+        }
+
+        log.info("evento {}", -1);
+        ChatLog.flush(10000);
+        assertEquals(-1, written.get(written.size() - 1));
+    }
+}
@@ -0,0 +1,152 @@
+package com.compunet.server;
+
+import compunet.Message;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ChatPersistenceTest {
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("chat-persistence-test");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        MessageLogTest.deleteRecursively(directory);
+    }
+
+    @Test
+    public void snapshotKeepsMessagesApartFromUsersAndGroups() throws Exception {
+        ChatPersistence persistence = new ChatPersistence(directory, 1024 * 1024, 3600);
+        ChatCore chatCore = new ChatCore();
+        persistence.recover(chatCore);
+        chatCore.registerUser("ana", "Ana");
+        chatCore.registerUser("beto", "Beto");
+        String groupId = chatCore.createGroup("ana", "Equipo", new String[] { "beto" });
+        chatCore.sendDirectMessage("ana", "beto", "hola");
+        chatCore.sendGroupMessage("beto", groupId, "buenas");
+        persistence.snapshot();
+        persistence.close();
+
+        List<Byte> types = typesIn(onlyFile("snapshot-*.snap"));
+        assertFalse(types.contains(LogRecord.MESSAGE));
+        assertTrue(types.contains(LogRecord.USER));
+        assertTrue(types.contains(LogRecord.GROUP));
+        assertEquals(2, countMessages(files("history-*.snap")));
+    }
+
+    @Test
+    public void preSnapshotSegmentsAreDeletedAndNotReplayed() throws Exception {
+        ChatPersistence persistence = new ChatPersistence(directory, 512, 3600);
+        ChatCore chatCore = new ChatCore();
+        persistence.recover(chatCore);
+        chatCore.registerUser("ana", "Ana");
+        chatCore.registerUser("beto", "Beto");
+        for (int i = 0; i < 40; i++) {
+            chatCore.sendDirectMessage("ana", "beto", "mensaje " + i);
+        }
+        persistence.close();
+
+        // Solo queda el segmento activo; los anteriores los cubre la instantánea
+        assertEquals(1, files("segment-*.log").size());
+        assertFalse(Files.exists(directory.resolve(String.format("segment-%020d.log", 1))));
+
+        ChatPersistence reopened = new ChatPersistence(directory, 512, 3600);
+        ChatCore recovered = new ChatCore();
+        reopened.recover(recovered);
+        for (int i = 40; i < 50; i++) {
+            recovered.sendDirectMessage("beto", "ana", "mensaje " + i);
+        }
+        reopened.close();
+
+        // La segunda instantánea agrega solo los mensajes nuevos: cada mensaje queda escrito una vez
+        assertEquals(50, countMessages(files("history-*.snap")));
+
+        ChatPersistence last = new ChatPersistence(directory, 512, 3600);
+        ChatCore again = new ChatCore();
+        last.recover(again);
+        try {
+            List<Message> messages = again.getDirectChatMessages("ana", "beto");
+            assertEquals(50, messages.size());
+            assertEquals("mensaje 0", messages.get(0).content);
+            assertEquals("mensaje 49", messages.get(49).content);
+        } finally {
+            last.close();
+        }
+    }
+
+    @Test
+    public void recoversMessagesFromLogAfterSnapshot() throws Exception {
+        ChatPersistence persistence = new ChatPersistence(directory, 1024 * 1024, 3600);
+        ChatCore chatCore = new ChatCore();
+        persistence.recover(chatCore);
+        chatCore.registerUser("ana", "Ana");
+        chatCore.registerUser("beto", "Beto");
+        chatCore.sendDirectMessage("ana", "beto", "antes de la instantánea");
+        persistence.snapshot();
+        chatCore.registerUser("carla", "Carla");
+        chatCore.sendDirectMessage("beto", "ana", "después de la instantánea");
+        persistence.close();
+
+        ChatPersistence reopened = new ChatPersistence(directory, 1024 * 1024, 3600);
+        ChatCore recovered = new ChatCore();
+        reopened.recover(recovered);
+        try {
+            List<Message> messages = recovered.getDirectChatMessages("ana", "beto");
+            assertEquals(2, messages.size());
+            assertEquals("antes de la instantánea", messages.get(0).content);
+            assertEquals("después de la instantánea", messages.get(1).content);
+            assertNotNull(recovered.getUser("carla"));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    private Path onlyFile(String glob) throws IOException {
+        List<Path> matches = files(glob);
+        assertEquals(1, matches.size());
+        return matches.get(0);
+    }
+
+    private List<Path> files(String glob) throws IOException {
+        List<Path> matches = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, glob)) {
+            stream.forEach(matches::add);
+        }
+        return matches;
+    }
+
+    private static List<Byte> typesIn(Path file) throws IOException {
+        List<Byte> types = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MessageLog.readFrames(channel, (sequence, type, payload) -> types.add(type));
+        }
+        return types;
+    }
+
+    private static int countMessages(List<Path> files) throws IOException {
+        int count = 0;
+        for (Path file : files) {
+            for (byte type : typesIn(file)) {
+                if (type == LogRecord.MESSAGE) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+}
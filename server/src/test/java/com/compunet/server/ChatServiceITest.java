@@ -0,0 +1,122 @@
+package com.compunet.server;
+
+import com.zeroc.Ice.Current;
+import compunet.ChatServicePrx;
+import compunet.GroupServicePrx;
+import compunet.OutgoingMessage;
+import compunet.RateLimitExceeded;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ChatServiceITest {
+
+    @Test
+    public void parsesSearchCursors() {
+        assertEquals(0, ChatServiceI.parseCursor(""));
+        assertEquals(42, ChatServiceI.parseCursor("42"));
+
+        Map<String, Long> positions = ChatServiceI.parseClusterCursor("node1=10,node2=0");
+        assertEquals(Long.valueOf(10), positions.get("node1"));
+        assertEquals(Long.valueOf(0), positions.get("node2"));
+    }
+
+    @Test
+    public void rejectsMalformedSearchCursors() {
+        for (String cursor : new String[] { "abc", "-5", "1e3" }) {
+            assertInvalid(() -> ChatServiceI.parseCursor(cursor));
+        }
+        for (String cursor : new String[] { "node1", "=5", "node1=", "node1=x", "node1=5,,node2=3" }) {
+            assertInvalid(() -> ChatServiceI.parseClusterCursor(cursor));
+        }
+    }
+
+    @Test
+    public void forwardedSendsAreAdmittedOnlyByOwner() throws Exception {
+        ChatCore ownerCore = new ChatCore();
+        ownerCore.registerUser("ana", "Ana");
+        ownerCore.registerUser("beto", "Beto");
+        String groupId = ownerCore.createGroup("ana", "Equipo", new String[] { "beto" });
+
+        // Cada nodo tiene su propio control de admisión; el remitente tiene ráfaga de 3
+        Admission ownerAdmission = new Admission(new RateLimiter(1, 3), new RateLimiter(1, 10));
+        Admission ingressAdmission = new Admission(new RateLimiter(1, 3), new RateLimiter(1, 10));
+        ChatServiceI ownerChat = new ChatServiceI(ownerCore, Cluster.standalone(), ownerAdmission);
+        GroupServiceI ownerGroup = new GroupServiceI(ownerCore, Cluster.standalone(), ownerAdmission);
+
+        // Nodo de entrada: todas las conversaciones son del otro nodo
+        Cluster remote = new Cluster(null, 0, null, Collections.emptyMap()) {
+            @Override
+            public boolean isEnabled() {
+                return true;
+            }
+
+            @Override
+            public ChatServicePrx chatServiceFor(String key) {
+                return forwardTo(ChatServicePrx.class, ownerChat);
+            }
+
+            @Override
+            public GroupServicePrx groupServiceFor(String key) {
+                return forwardTo(GroupServicePrx.class, ownerGroup);
+            }
+        };
+        ChatServiceI ingressChat = new ChatServiceI(new ChatCore(), remote, ingressAdmission);
+        GroupServiceI ingressGroup = new GroupServiceI(new ChatCore(), remote, ingressAdmission);
+
+        ingressChat.sendDirectMessage("ana", "beto", "uno", new Current());
+        ingressGroup.sendGroupMessage("ana", groupId, "dos", new Current());
+        ingressChat.sendMessages("ana", new OutgoingMessage[] { new OutgoingMessage("beto", false, "tres") },
+                new Current());
+
+        // Tres envíos, cobrados una sola vez cada uno por el dueño: la ráfaga queda agotada
+        assertEquals(3, ownerCore.getDirectChatMessages("ana", "beto").size()
+                + ownerCore.getGroupChatMessages(groupId).size());
+        try {
+            ingressChat.sendDirectMessage("ana", "beto", "cuatro", new Current());
+            fail("La ráfaga del remitente ya estaba agotada");
+        } catch (RateLimitExceeded e) {
+            assertEquals("user:ana", e.key);
+        }
+        assertEquals(1, ownerAdmission.getRejectedUserRequests());
+        assertEquals(0, ingressAdmission.getTrackedKeys());
+    }
+
+    // Proxy que despacha directamente al servant, como haría el nodo dueño
+    private static <T> T forwardTo(Class<T> type, Object servant) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+                (proxy, method, args) -> {
+                    Object[] callArgs = args == null ? new Object[0] : args;
+                    for (Method target : servant.getClass().getMethods()) {
+                        Class<?>[] params = target.getParameterTypes();
+                        if (target.getName().equals(method.getName()) && params.length == callArgs.length + 1
+                                && params[params.length - 1] == Current.class) {
+                            Object[] withCurrent = Arrays.copyOf(callArgs, callArgs.length + 1);
+                            withCurrent[callArgs.length] = new Current();
+                            try {
+                                return target.invoke(servant, withCurrent);
+                            } catch (InvocationTargetException e) {
+                                throw e.getCause();
+                            }
+                        }
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                }));
+    }
+
+    private static void assertInvalid(Runnable parse) {
+        try {
+            parse.run();
+            fail("Se aceptó un cursor inválido");
+        } catch (RuntimeException expected) {
+            assertTrue(expected.getMessage().startsWith("Cursor de búsqueda inválido"));
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.compunet.server;
+
+import compunet.Message;
+import compunet.PageDirection;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class ConversationHistoryTest {
+
+    @Test
+    public void snapshotIsStableWhileWriterAppends() {
+        ConversationHistory history = new ConversationHistory();
+        AtomicLong ids = new AtomicLong();
+        appendMessages(history, ids, 10);
+
+        List<Message> view = history.snapshot();
+        appendMessages(history, ids, ConversationHistory.CHUNK_SIZE);
+
+        assertEquals(10, view.size());
+        assertEquals("10", view.get(9).id);
+        assertEquals(10 + ConversationHistory.CHUNK_SIZE, history.size());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void snapshotIsReadOnly() {
+        ConversationHistory history = new ConversationHistory();
+        appendMessages(history, new AtomicLong(), 1);
+        history.snapshot().add(message(99));
+    }
+
+    @Test(timeout = 30000)
+    public void concurrentReadersSeeConsistentPrefix() throws Exception {
+        ConversationHistory history = new ConversationHistory();
+        AtomicLong ids = new AtomicLong();
+        int total = ConversationHistory.CHUNK_SIZE * 8;
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<String> failure = new AtomicReference<>();
+
+        Thread reader = new Thread(() -> {
+            while (!done.get() && failure.get() == null) {
+                List<Message> view = history.snapshot();
+                for (int i = 0; i < view.size(); i++) {
+                    Message m = view.get(i);
+                    // Cada posición visible ya está escrita y en orden de id
+                    if (m == null || Long.parseLong(m.id) != i + 1) {
+                        failure.set("posición " + i + " de " + view.size() + ": " + (m == null ? "null" : m.id));
+                        return;
+                    }
+                }
+            }
+        });
+        reader.start();
+        appendMessages(history, ids, total);
+        done.set(true);
+        reader.join();
+
+        assertNull(failure.get());
+        assertEquals(total, history.size());
+    }
+
+    @Test
+    public void pagesAroundCursor() {
+        ConversationHistory history = new ConversationHistory();
+        appendMessages(history, new AtomicLong(), 20);
+
+        assertEquals(List.of("16", "17", "18", "19", "20"), ids(history.page(0, PageDirection.Older, 5)));
+        assertEquals(List.of("11", "12", "13", "14", "15"), ids(history.page(16, PageDirection.Older, 5)));
+        assertEquals(List.of("17", "18", "19"), ids(history.page(16, PageDirection.Newer, 3)));
+        assertEquals(List.of("1", "2"), ids(history.page(0, PageDirection.Newer, 2)));
+        assertTrue(history.page(20, PageDirection.Newer, 5).isEmpty());
+    }
+
+    @Test
+    public void restoreInsertsInIdOrderAndIgnoresDuplicates() {
+        ConversationHistory history = new ConversationHistory();
+        for (long id : new long[] { 5, 1, 3, 3, 4, 2, 5 }) {
+            history.restore(message(id));
+        }
+
+        assertEquals(List.of("1", "2", "3", "4", "5"), ids(history.snapshot()));
+        assertTrue(history.contains(3));
+        assertFalse(history.contains(6));
+        assertEquals("4", history.find(4).id);
+        assertEquals("5", history.last().id);
+    }
+
+    private static void appendMessages(ConversationHistory history, AtomicLong ids, int count) {
+        for (int i = 0; i < count; i++) {
+            history.append(ids::incrementAndGet, ConversationHistoryTest::message);
+        }
+    }
+
+    static Message message(long id) {
+        return new Message(Long.toString(id), "ana", "Ana", "mensaje " + id, id, "beto", false, false, "", 0);
+    }
+
+    private static List<String> ids(List<Message> messages) {
+        return messages.stream().map(m -> m.id).collect(java.util.stream.Collectors.toList());
+    }
+}
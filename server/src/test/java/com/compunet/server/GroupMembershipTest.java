@@ -0,0 +1,105 @@
+package com.compunet.server;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class GroupMembershipTest {
+
+    @Test
+    public void addKeepsMembersSortedAndSkipsExisting() {
+        GroupMembership membership = new GroupMembership();
+        assertEquals(3, membership.add("g1", List.of("carla", "ana", "beto")));
+        assertEquals(1, membership.add("g1", List.of("beto", "dani", "ana")));
+        assertEquals(0, membership.add("g1", List.of("ana")));
+
+        assertArrayEquals(new String[] { "ana", "beto", "carla", "dani" }, membership.members("g1"));
+        assertTrue(membership.isMember("g1", "dani"));
+        assertFalse(membership.isMember("g1", "eva"));
+        assertEquals(0, membership.members("sin-grupo").length);
+    }
+
+    @Test
+    public void maintainsReverseIndex() {
+        GroupMembership membership = new GroupMembership();
+        membership.add("g2", List.of("ana", "beto"));
+        membership.add("g1", List.of("ana"));
+
+        assertArrayEquals(new String[] { "g1", "g2" }, membership.groupsOf("ana"));
+        assertArrayEquals(new String[] { "g2" }, membership.groupsOf("beto"));
+        assertEquals(0, membership.groupsOf("carla").length);
+    }
+
+    @Test
+    public void changesReplaceArraysInsteadOfMutatingThem() {
+        GroupMembership membership = new GroupMembership();
+        membership.add("g1", List.of("ana", "carla"));
+        String[] members = membership.members("g1");
+        String[] groups = membership.groupsOf("ana");
+
+        membership.add("g1", List.of("beto"));
+        membership.add("g2", List.of("ana"));
+
+        // Quien ya tenía el arreglo sigue viendo el estado anterior completo
+        assertArrayEquals(new String[] { "ana", "carla" }, members);
+        assertArrayEquals(new String[] { "g1" }, groups);
+        assertNotSame(members, membership.members("g1"));
+        assertArrayEquals(new String[] { "ana", "beto", "carla" }, membership.members("g1"));
+    }
+
+    @Test
+    public void unchangedGroupKeepsSameArray() {
+        GroupMembership membership = new GroupMembership();
+        membership.add("g1", List.of("ana"));
+        String[] members = membership.members("g1");
+
+        membership.add("g1", List.of("ana"));
+        assertSame(members, membership.members("g1"));
+    }
+
+    @Test(timeout = 30000)
+    public void readersNeverSeeHalfAppliedChange() throws Exception {
+        GroupMembership membership = new GroupMembership();
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<String> failure = new AtomicReference<>();
+
+        Thread reader = new Thread(() -> {
+            while (!done.get() && failure.get() == null) {
+                String[] members = membership.members("g1");
+                for (int i = 0; i < members.length; i++) {
+                    if (members[i] == null || (i > 0 && members[i - 1].compareTo(members[i]) >= 0)) {
+                        failure.set("arreglo inconsistente en la posición " + i);
+                        return;
+                    }
+                }
+            }
+        });
+        reader.start();
+
+        List<Thread> writers = new ArrayList<>();
+        for (int w = 0; w < 4; w++) {
+            int writer = w;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 500; i++) {
+                    membership.add("g1", List.of(String.format("user%d-%04d", writer, i)));
+                }
+            });
+            writers.add(thread);
+            thread.start();
+        }
+        for (Thread thread : writers) {
+            thread.join();
+        }
+        done.set(true);
+        reader.join();
+
+        assertNull(failure.get());
+        assertEquals(2000, membership.members("g1").length);
+        assertArrayEquals(new String[] { "g1" }, membership.groupsOf("user3-0499"));
+    }
+}
@@ -0,0 +1,72 @@
+package com.compunet.server;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class HashRingTest {
+    private static final int KEYS = 100_000;
+
+    @Test
+    public void spreadsSimilarKeysEvenly() {
+        List<String> nodes = List.of("node-a", "node-b", "node-c", "node-d");
+        HashRing ring = new HashRing(nodes, 128);
+
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            counts.merge(ring.ownerOf("user" + i), 1, Integer::sum);
+        }
+
+        assertEquals(nodes.size(), counts.size());
+        double expected = (double) KEYS / nodes.size();
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            double deviation = Math.abs(entry.getValue() - expected) / expected;
+            assertTrue(entry.getKey() + " tiene " + entry.getValue() + " claves", deviation < 0.2);
+        }
+    }
+
+    @Test
+    public void sameNodeListAgreesOnOwners() {
+        HashRing first = new HashRing(List.of("node-a", "node-b", "node-c"), 64);
+        HashRing second = new HashRing(List.of("node-a", "node-b", "node-c"), 64);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(first.ownerOf("group_" + i), second.ownerOf("group_" + i));
+        }
+    }
+
+    @Test
+    public void addingNodeMovesOnlyItsShare() {
+        HashRing before = new HashRing(List.of("node-a", "node-b", "node-c"), 128);
+        HashRing after = new HashRing(List.of("node-a", "node-b", "node-c", "node-d"), 128);
+
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            String key = "user" + i;
+            String owner = after.ownerOf(key);
+            if (!owner.equals(before.ownerOf(key))) {
+                // Las claves solo se mueven hacia el nodo nuevo
+                assertEquals("node-d", owner);
+                moved++;
+            }
+        }
+        double share = (double) moved / KEYS;
+        assertTrue("se movió " + share, share > 0.15 && share < 0.35);
+    }
+
+    @Test
+    public void singleNodeOwnsEverything() {
+        HashRing ring = new HashRing(List.of("solo"), 16);
+        for (int i = 0; i < 100; i++) {
+            assertEquals("solo", ring.ownerOf("user" + i));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyNodeList() {
+        new HashRing(List.of(), 16);
+    }
+}
@@ -0,0 +1,113 @@
+package com.compunet.server;
+
+import compunet.Message;
+import compunet.PageDirection;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class HistoryCacheTest {
+    private static final int CHUNK = ConversationHistory.CHUNK_SIZE;
+
+    private Path directory;
+    private HistoryCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("history-cache-test");
+        // Presupuesto amplio: el desalojo se dispara a mano, no desde el hilo del caché
+        cache = new HistoryCache(directory, 1L << 30);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        cache.close();
+        MessageLogTest.deleteRecursively(directory);
+    }
+
+    @Test
+    public void evictsOnlyColdFullChunks() {
+        ConversationHistory history = filledHistory(3 * CHUNK + 10);
+        long before = history.getEstimatedBytes();
+
+        long freed = history.evictColdChunks();
+
+        // Quedan en memoria el último bloque lleno y el parcial
+        assertTrue(freed > 0);
+        assertEquals(before - freed, history.getEstimatedBytes());
+        assertEquals(2, cache.getSpilledChunks());
+        assertEquals(before - freed, cache.getResidentBytes());
+        assertEquals(0, history.evictColdChunks());
+    }
+
+    @Test
+    public void reloadsSpilledChunksOnRead() {
+        ConversationHistory history = filledHistory(3 * CHUNK + 10);
+        long before = history.getEstimatedBytes();
+        history.evictColdChunks();
+
+        assertEquals("5", history.find(5).id);
+        assertEquals(1, cache.getLoadedChunks());
+
+        List<Message> all = history.snapshot();
+        assertEquals(3 * CHUNK + 10, all.size());
+        for (int i = 0; i < all.size(); i++) {
+            assertEquals(Long.toString(i + 1), all.get(i).id);
+            assertEquals("mensaje " + (i + 1), all.get(i).content);
+        }
+        assertEquals(before, history.getEstimatedBytes());
+    }
+
+    @Test
+    public void pagingAndLookupsWorkAcrossSpilledChunks() {
+        ConversationHistory history = filledHistory(3 * CHUNK);
+        history.evictColdChunks();
+
+        // Las búsquedas por id usan los ids que quedan en memoria
+        assertTrue(history.contains(1));
+        assertFalse(history.contains(3 * CHUNK + 1));
+        assertEquals(0, cache.getLoadedChunks());
+
+        List<Message> page = history.page(CHUNK + 3, PageDirection.Older, 5);
+        assertEquals(List.of(Long.toString(CHUNK - 2), Long.toString(CHUNK - 1), Long.toString(CHUNK),
+                Long.toString(CHUNK + 1), Long.toString(CHUNK + 2)), ids(page));
+    }
+
+    @Test
+    public void respilledChunkReflectsRestoredMessage() {
+        ConversationHistory history = new ConversationHistory(cache);
+        for (long id = 2; id <= 2L * 3 * CHUNK; id += 2) {
+            history.restore(ConversationHistoryTest.message(id));
+        }
+        history.evictColdChunks();
+
+        // Insertar dentro de un bloque desalojado invalida su copia en disco
+        history.restore(ConversationHistoryTest.message(3));
+        history.evictColdChunks();
+
+        assertEquals("3", history.find(3).id);
+        assertEquals(List.of("2", "3", "4"), ids(history.page(0, PageDirection.Newer, 3)));
+        assertEquals(3 * CHUNK + 1, history.size());
+    }
+
+    private ConversationHistory filledHistory(int count) {
+        ConversationHistory history = new ConversationHistory(cache);
+        AtomicLong ids = new AtomicLong();
+        for (int i = 0; i < count; i++) {
+            history.append(ids::incrementAndGet, ConversationHistoryTest::message);
+        }
+        return history;
+    }
+
+    private static List<String> ids(List<Message> messages) {
+        return messages.stream().map(m -> m.id).collect(java.util.stream.Collectors.toList());
+    }
+}
@@ -0,0 +1,51 @@
+package com.compunet.server;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class InboxIndexTest {
+
+    @Test
+    public void directChatsAreOrderedByRecency() {
+        InboxIndex inbox = new InboxIndex();
+        inbox.recordDirect("ana", "beto", "hola", 10);
+        inbox.recordDirect("ana", "carla", "buenas", 20);
+        inbox.recordDirect("ana", "beto", "¿estás?", 30);
+
+        List<InboxIndex.Entry> chats = inbox.getDirectChats("ana");
+        assertEquals(List.of("beto", "carla"), chatIds(chats));
+        assertEquals("¿estás?", chats.get(0).lastMessageContent);
+        assertTrue(inbox.getDirectChats("nadie").isEmpty());
+    }
+
+    @Test
+    public void groupRecencyIsSharedByAllMembers() {
+        InboxIndex inbox = new InboxIndex();
+        inbox.recordGroup("g1", "Grupo creado", 10);
+        inbox.recordGroup("g2", "Grupo creado", 20);
+        inbox.recordGroup("g1", "último", 30);
+
+        List<InboxIndex.Entry> chats = inbox.getGroupChats(new String[] { "g2", "g1", "g3" });
+        assertEquals(List.of("g1", "g2"), chatIds(chats));
+        assertEquals("último", chats.get(0).lastMessageContent);
+        assertEquals(List.of("g2"), chatIds(inbox.getGroupChats(new String[] { "g2" })));
+    }
+
+    @Test
+    public void olderGroupEntriesDoNotReplaceNewerOnes() {
+        InboxIndex inbox = new InboxIndex();
+        inbox.recordGroup("g1", "nuevo", 30);
+        inbox.recordGroup("g1", "viejo", 10);
+        inbox.recordGroupIfAbsent("g1", "Grupo creado", 5);
+
+        assertEquals("nuevo", inbox.getGroupChats(new String[] { "g1" }).get(0).lastMessageContent);
+    }
+
+    private static List<String> chatIds(List<InboxIndex.Entry> entries) {
+        return entries.stream().map(e -> e.chatId).collect(Collectors.toList());
+    }
+}
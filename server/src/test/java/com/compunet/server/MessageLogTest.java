@@ -0,0 +1,169 @@
+package com.compunet.server;
+
+import compunet.User;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class MessageLogTest {
+    private static final long SEGMENT_BYTES = 1024 * 1024;
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("message-log-test");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        deleteRecursively(directory);
+    }
+
+    @Test
+    public void replaysAppendedRecordsInOrder() throws Exception {
+        try (MessageLog log = MessageLog.open(directory, SEGMENT_BYTES, 0)) {
+            for (int i = 1; i <= 3; i++) {
+                assertEquals(i, log.append(LogRecord.user(new User("u" + i, "Usuario " + i))));
+            }
+            log.flush();
+            assertEquals(3, log.getDurableSequence());
+        }
+
+        List<String> ids = new ArrayList<>();
+        long last = MessageLog.replay(directory, 0, (sequence, type, payload) ->
+                ids.add(sequence + ":" + LogRecord.decode(type, payload).user.id));
+        assertEquals(3, last);
+        assertEquals(List.of("1:u1", "2:u2", "3:u3"), ids);
+    }
+
+    @Test
+    public void replaySkipsRecordsCoveredBySequence() throws Exception {
+        appendUsers(4);
+
+        List<Long> sequences = new ArrayList<>();
+        assertEquals(4, MessageLog.replay(directory, 2, (sequence, type, payload) -> sequences.add(sequence)));
+        assertEquals(List.of(3L, 4L), sequences);
+    }
+
+    @Test
+    public void stopsAtRecordWithBadChecksumAndTruncatesIt() throws Exception {
+        appendUsers(3);
+        Path segment = onlySegment();
+        long validSize = sizeOfFirstRecords(segment, 2);
+
+        // Último byte del payload del tercer registro
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            java.nio.ByteBuffer last = java.nio.ByteBuffer.allocate(1);
+            channel.read(last, channel.size() - 1);
+            last.put(0, (byte) (last.get(0) ^ 0x5a));
+            last.rewind();
+            channel.write(last, channel.size() - 1);
+        }
+
+        List<Long> sequences = new ArrayList<>();
+        assertEquals(2, MessageLog.replay(directory, 0, (sequence, type, payload) -> sequences.add(sequence)));
+        assertEquals(List.of(1L, 2L), sequences);
+        assertEquals(validSize, Files.size(segment));
+    }
+
+    @Test
+    public void discardsTornTailAndKeepsAppending() throws Exception {
+        appendUsers(3);
+        Path segment = onlySegment();
+        long validSize = sizeOfFirstRecords(segment, 2);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(Files.size(segment) - 5);
+        }
+
+        long last = MessageLog.replay(directory, 0, (sequence, type, payload) -> { });
+        assertEquals(2, last);
+        assertEquals(validSize, Files.size(segment));
+
+        try (MessageLog log = MessageLog.open(directory, SEGMENT_BYTES, last)) {
+            assertEquals(3, log.append(LogRecord.user(new User("u3", "Otra vez"))));
+            log.flush();
+        }
+        List<String> names = new ArrayList<>();
+        MessageLog.replay(directory, 0, (sequence, type, payload) -> names.add(LogRecord.decode(type, payload).user.name));
+        assertEquals(List.of("Usuario 1", "Usuario 2", "Otra vez"), names);
+    }
+
+    @Test
+    public void failedWriteIsNeverReportedDurable() throws Exception {
+        MessageLog log = MessageLog.open(directory, SEGMENT_BYTES, 0);
+        try {
+            // Sin directorio el escritor no puede crear el segmento
+            Files.delete(directory);
+            log.append(LogRecord.user(new User("u1", "Usuario 1")));
+            try {
+                log.flush();
+                fail("flush debería fallar");
+            } catch (IOException expected) {
+                // esperado
+            }
+            assertEquals(0, log.getDurableSequence());
+
+            try {
+                log.append(LogRecord.user(new User("u2", "Usuario 2")));
+                fail("append debería fallar");
+            } catch (IllegalStateException expected) {
+                // esperado
+            }
+        } finally {
+            log.close();
+            Files.createDirectories(directory);
+        }
+    }
+
+    private void appendUsers(int count) throws Exception {
+        try (MessageLog log = MessageLog.open(directory, SEGMENT_BYTES, 0)) {
+            for (int i = 1; i <= count; i++) {
+                log.append(LogRecord.user(new User("u" + i, "Usuario " + i)));
+            }
+            log.flush();
+        }
+    }
+
+    private Path onlySegment() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "segment-*.log")) {
+            stream.forEach(segments::add);
+        }
+        assertEquals(1, segments.size());
+        return segments.get(0);
+    }
+
+    private static long sizeOfFirstRecords(Path segment, int records) throws IOException {
+        long size = 0;
+        for (int i = 1; i <= records; i++) {
+            size += MessageLog.HEADER_BYTES + LogRecord.user(new User("u" + i, "Usuario " + i)).encode().length;
+        }
+        assertTrue(size < Files.size(segment));
+        return size;
+    }
+
+    static void deleteRecursively(Path root) throws IOException {
+        if (!Files.exists(root)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.compunet.server;
+
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class MetricsInterceptorTest {
+
+    @Test
+    public void collectsSliceOperationsOfServant() {
+        Set<String> operations = MetricsInterceptor.operationsOf(ChatServiceI.class);
+
+        assertTrue(operations.contains("getUser"));
+        assertTrue(operations.contains("sendMessages"));
+        assertTrue(operations.contains("getInbox"));
+        assertFalse(operations.contains("ice_dispatch"));
+        for (String operation : operations) {
+            assertFalse(operation, operation.startsWith("_"));
+        }
+    }
+
+    @Test
+    public void serviceHasFixedOperationsAndUnknownBucket() {
+        Metrics metrics = new Metrics();
+        Map<String, Metrics.OperationStats> stats = metrics.iceService("chat", Set.of("getUser", "getAllUsers"));
+
+        assertEquals(Set.of("getUser", "getAllUsers", Metrics.UNKNOWN_OPERATION), stats.keySet());
+        try {
+            stats.put("inventada", new Metrics.OperationStats());
+            fail("el mapa de operaciones no debe crecer");
+        } catch (UnsupportedOperationException expected) {
+            // esperado
+        }
+    }
+}
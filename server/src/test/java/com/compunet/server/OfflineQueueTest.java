@@ -0,0 +1,95 @@
+package com.compunet.server;
+
+import compunet.Message;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class OfflineQueueTest {
+
+    @Test
+    public void dropsOldestWhenFullAndReportsOverflow() {
+        OfflineQueue queue = new OfflineQueue(3);
+        for (long id = 1; id <= 5; id++) {
+            queue.enqueue("ana", ConversationHistoryTest.message(id));
+        }
+        assertEquals(3, queue.getPendingCount());
+
+        OfflineQueue.Replay replay = queue.drain("ana", 0);
+        assertTrue(replay.overflowed);
+        assertEquals(List.of("3", "4", "5"), ids(replay.messages));
+        assertEquals(0, queue.getPendingCount());
+    }
+
+    @Test
+    public void withinCapacityNothingIsLost() {
+        OfflineQueue queue = new OfflineQueue(3);
+        queue.enqueue("ana", ConversationHistoryTest.message(1));
+        queue.enqueue("ana", ConversationHistoryTest.message(2));
+        queue.enqueue("beto", ConversationHistoryTest.message(3));
+
+        OfflineQueue.Replay replay = queue.drain("ana", 0);
+        assertFalse(replay.overflowed);
+        assertEquals(List.of("1", "2"), ids(replay.messages));
+        assertEquals(1, queue.getPendingCount());
+    }
+
+    @Test
+    public void drainSkipsAcknowledgedMessages() {
+        OfflineQueue queue = new OfflineQueue(10);
+        for (long id = 1; id <= 4; id++) {
+            queue.enqueue("ana", ConversationHistoryTest.message(id));
+        }
+
+        assertEquals(List.of("3", "4"), ids(queue.drain("ana", 2).messages));
+        assertTrue(queue.drain("ana", 0).messages.isEmpty());
+    }
+
+    @Test
+    public void markOverflowedSurvivesUntilDrain() {
+        OfflineQueue queue = new OfflineQueue(10);
+        queue.markOverflowed("ana");
+
+        OfflineQueue.Replay replay = queue.drain("ana", 0);
+        assertTrue(replay.overflowed);
+        assertTrue(replay.messages.isEmpty());
+        assertFalse(queue.drain("ana", 0).overflowed);
+    }
+
+    @Test(timeout = 30000)
+    public void concurrentProducersStayWithinCapacity() throws Exception {
+        int capacity = 50;
+        OfflineQueue queue = new OfflineQueue(capacity);
+        List<Thread> producers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int offset = t * 1000;
+            Thread producer = new Thread(() -> {
+                for (int i = 1; i <= 500; i++) {
+                    queue.enqueue("ana", ConversationHistoryTest.message(offset + i));
+                }
+            });
+            producers.add(producer);
+            producer.start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+
+        assertEquals(capacity, queue.getPendingCount());
+        OfflineQueue.Replay replay = queue.drain("ana", 0);
+        assertEquals(capacity, replay.messages.size());
+        assertTrue(replay.overflowed);
+        assertEquals(0, queue.getPendingCount());
+    }
+
+    private static List<String> ids(List<Message> messages) {
+        List<String> ids = new ArrayList<>();
+        for (Message message : messages) {
+            ids.add(message.id);
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,108 @@
+package com.compunet.server;
+
+import compunet.RateLimitExceeded;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class RateLimiterTest {
+
+    @Test
+    public void admitsBurstThenRejects() {
+        RateLimiter limiter = new RateLimiter(10, 3);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, limiter.tryAcquire("ana", 1));
+        }
+        long retryAfterMs = limiter.tryAcquire("ana", 1);
+        assertTrue("espera " + retryAfterMs, retryAfterMs > 0 && retryAfterMs <= 100);
+        assertEquals(1, limiter.getRejected());
+
+        // Cada clave tiene su propia cubeta
+        assertEquals(0, limiter.tryAcquire("beto", 1));
+    }
+
+    @Test
+    public void refillsOverTime() throws Exception {
+        RateLimiter limiter = new RateLimiter(50, 2);
+        assertEquals(0, limiter.tryAcquire("ana", 2));
+        assertTrue(limiter.tryAcquire("ana", 1) > 0);
+
+        // A 50 por segundo se repone un permiso cada 20 ms
+        Thread.sleep(60);
+        assertEquals(0, limiter.tryAcquire("ana", 1));
+    }
+
+    @Test
+    public void batchesPayForEveryPermit() {
+        RateLimiter limiter = new RateLimiter(1, 5);
+        assertEquals(0, limiter.tryAcquire("ana", 5));
+        assertTrue(limiter.tryAcquire("ana", 1) > 0);
+        assertTrue(limiter.tryAcquire("ana", 5) > 0);
+    }
+
+    @Test
+    public void batchLargerThanBurstIsNeverAdmitted() {
+        RateLimiter limiter = new RateLimiter(1, 5);
+        assertEquals(RateLimiter.TOO_LARGE, limiter.tryAcquire("ana", 6));
+        assertEquals(RateLimiter.TOO_LARGE, limiter.check("ana", 6));
+        // El rechazo no consumió nada
+        assertEquals(0, limiter.tryAcquire("ana", 5));
+    }
+
+    @Test
+    public void checkDoesNotConsumeAndReleaseRefunds() {
+        RateLimiter limiter = new RateLimiter(1, 2);
+        assertEquals(0, limiter.check("ana", 2));
+        assertEquals(0, limiter.check("ana", 2));
+        assertEquals(0, limiter.tryAcquire("ana", 2));
+        assertTrue(limiter.check("ana", 1) > 0);
+
+        limiter.release("ana", 1);
+        assertEquals(0, limiter.tryAcquire("ana", 1));
+    }
+
+    @Test
+    public void disabledAdmitsEverything() {
+        RateLimiter limiter = RateLimiter.disabled();
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(0, limiter.tryAcquire("ana", 100));
+        }
+        assertEquals(0, limiter.getTrackedKeys());
+    }
+
+    @Test
+    public void rejectedGroupLeavesSenderUndebited() throws Exception {
+        RateLimiter users = new RateLimiter(1, 3);
+        RateLimiter groups = new RateLimiter(1, 1);
+        Admission admission = new Admission(users, groups);
+        admission.checkGroupSend("beto", "g1");
+
+        try {
+            admission.checkSend("ana", 2, Map.of("g2", 1, "g1", 1));
+            fail("g1 no tiene permisos");
+        } catch (RateLimitExceeded e) {
+            assertEquals("group:g1", e.key);
+            assertTrue(e.retryAfterMs > 0);
+        }
+
+        // Ni el remitente ni g2 perdieron permisos
+        admission.checkSend("ana", 3, Collections.emptyMap());
+        admission.checkGroup("g2");
+    }
+
+    @Test
+    public void oversizedBatchIsRejectedWithoutRetry() throws Exception {
+        Admission admission = new Admission(new RateLimiter(1, 3), new RateLimiter(1, 10));
+        try {
+            admission.checkSend("ana", 4, Collections.emptyMap());
+            fail("el lote supera la ráfaga");
+        } catch (RateLimitExceeded e) {
+            assertEquals("user:ana", e.key);
+            assertEquals(-1, e.retryAfterMs);
+        }
+        admission.checkSend("ana", 3, Collections.emptyMap());
+    }
+}